@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar;
+
+import com.whizzosoftware.hobson.api.device.MockDeviceManager;
+import com.whizzosoftware.hobson.api.disco.MockDiscoManager;
+import com.whizzosoftware.hobson.api.property.PropertyContainer;
+import com.whizzosoftware.hobson.api.variable.MockVariableManager;
+import com.whizzosoftware.hobson.venstar.api.MockColorTouchChannel;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoRequest;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoRequestTemplate;
+import com.whizzosoftware.hobson.venstar.api.plugin.http.MockHttpResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full handling of an info response by the plugin: sending the request (through admission control and
+ * single-flight bookkeeping), reading the body from the HTTP response, parsing it and delivering it to the
+ * thermostat.
+ *
+ * @author Dan Noguerol
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseDispatchBenchmark {
+    private static final String INFO_JSON = "{\"name\":\"Office\",\"mode\":3,\"state\":0,\"fan\":0,\"fanstate\":0,\"tempunits\":0,\"schedule\":0,\"schedulepart\":255,\"away\":0,\"holiday\":0,\"override\":0,\"overridetime\":0,\"forceunocc\":0,\"spacetemp\":79,\"heattemp\":72,\"cooltemp\":76.5,\"cooltempmin\":35,\"cooltempmax\":99,\"heattempmin\":35,\"heattempmax\":99,\"setpointdelta\":2,\"availablemodes\":0}";
+    /**
+     * How often the mocks' recorded requests and updates are discarded (so they don't accumulate)
+     */
+    private static final int CLEAR_MASK = 1023;
+
+    private ColorTouchPlugin plugin;
+    private MockColorTouchChannel channel;
+    private MockVariableManager variableManager;
+    private InfoRequestTemplate template;
+    private String[] changingBodies;
+    private int count;
+
+    @Setup
+    public void setUp() throws Exception {
+        channel = new MockColorTouchChannel();
+        variableManager = new MockVariableManager();
+        MockDeviceManager deviceManager = new MockDeviceManager();
+        plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(channel);
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(deviceManager);
+        plugin.setVariableManager(variableManager);
+        plugin.onStartup(new PropertyContainer());
+        plugin.onShutdown();
+
+        URI uri = new URI("http://192.168.0.10");
+        ColorTouchThermostat thermostat = new ColorTouchThermostat(plugin, new MockColorTouchChannel(), uri, null);
+        deviceManager.publishDevice(thermostat);
+        template = new InfoRequestTemplate(uri, thermostat.getContext());
+
+        changingBodies = new String[] {INFO_JSON, INFO_JSON.replace("\"spacetemp\":79", "\"spacetemp\":80")};
+    }
+
+    /**
+     * Every response has a different body from the last one, so each is parsed and diffed.
+     */
+    @Benchmark
+    public void changedResponse() {
+        dispatch(changingBodies[count & 1]);
+    }
+
+    /**
+     * Every response has the same body, so only the first is parsed and diffed.
+     */
+    @Benchmark
+    public void unchangedResponse() {
+        dispatch(INFO_JSON);
+    }
+
+    private void dispatch(String body) {
+        if ((count++ & CLEAR_MASK) == 0) {
+            channel.clearInfoRequests();
+            variableManager.clearVariableUpdates();
+        }
+        InfoRequest request = new InfoRequest(template, false);
+        plugin.sendInfoRequest(request);
+        plugin.onHttpResponse(new MockHttpResponse(200, body), request);
+    }
+}
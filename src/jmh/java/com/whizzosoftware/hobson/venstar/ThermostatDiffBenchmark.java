@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar;
+
+import com.whizzosoftware.hobson.api.device.MockDeviceManager;
+import com.whizzosoftware.hobson.api.disco.MockDiscoManager;
+import com.whizzosoftware.hobson.api.property.PropertyContainer;
+import com.whizzosoftware.hobson.api.variable.MockVariableManager;
+import com.whizzosoftware.hobson.venstar.api.MockColorTouchChannel;
+import com.whizzosoftware.hobson.venstar.api.dto.FanMode;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoRequest;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoResponse;
+import com.whizzosoftware.hobson.venstar.api.dto.ThermostatMode;
+import com.whizzosoftware.hobson.venstar.state.VariableState;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures comparing variable states and diffing an info response against a thermostat's current state (building
+ * and firing its variable updates).
+ *
+ * @author Dan Noguerol
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThermostatDiffBenchmark {
+    /**
+     * How often the mock variable manager's recorded updates are discarded (so they don't accumulate)
+     */
+    private static final int CLEAR_MASK = 1023;
+
+    private VariableState state;
+    private VariableState sameState;
+    private VariableState changedState;
+    private MockVariableManager variableManager;
+    private ColorTouchThermostat thermostat;
+    private InfoRequest request;
+    private InfoResponse[] responses;
+    private int count;
+
+    @Setup
+    public void setUp() throws Exception {
+        state = new VariableState(false, ThermostatMode.AUTO, FanMode.AUTO, 72.0, 76.0, 70.0);
+        sameState = new VariableState(false, ThermostatMode.AUTO, FanMode.AUTO, 72.0, 76.0, 70.0);
+        changedState = new VariableState(false, ThermostatMode.AUTO, FanMode.AUTO, 72.0, 76.0, 71.0);
+
+        variableManager = new MockVariableManager();
+        MockDeviceManager deviceManager = new MockDeviceManager();
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(deviceManager);
+        plugin.setVariableManager(variableManager);
+        plugin.onStartup(new PropertyContainer());
+        plugin.onShutdown();
+
+        URI uri = new URI("http://192.168.0.10");
+        thermostat = new ColorTouchThermostat(plugin, new MockColorTouchChannel(), uri, null);
+        deviceManager.publishDevice(thermostat);
+        request = new InfoRequest(uri, thermostat.getContext());
+
+        // responses alternate between two temperatures so that every one is diffed and produces an update
+        responses = new InfoResponse[] {
+            new InfoResponse(false, "Office", ThermostatMode.AUTO, FanMode.AUTO, 0, 72.0, 76.0, 70.0, 2.0),
+            new InfoResponse(false, "Office", ThermostatMode.AUTO, FanMode.AUTO, 0, 72.5, 76.0, 70.0, 2.0)
+        };
+    }
+
+    @Benchmark
+    public boolean equalStates() {
+        return state.equals(sameState);
+    }
+
+    @Benchmark
+    public boolean differentStates() {
+        return state.equals(changedState);
+    }
+
+    @Benchmark
+    public int unchangedDiff() {
+        return state.diff(sameState);
+    }
+
+    @Benchmark
+    public int changedDiff() {
+        return state.diff(changedState);
+    }
+
+    @Benchmark
+    public VariableState infoResponseDiff() {
+        int c = count++;
+        if ((c & CLEAR_MASK) == 0) {
+            variableManager.clearVariableUpdates();
+        }
+        thermostat.onInfoResponse(request, responses[c & 1], null, System.currentTimeMillis());
+        return thermostat.getCurrentState();
+    }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.dto;
+
+import com.whizzosoftware.hobson.venstar.api.http.ControlBodyEncoder;
+import com.whizzosoftware.hobson.venstar.api.http.HttpRequestEncoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the form body of a control request and encoding the complete HTTP request sent for it, both
+ * through the string form body (getRequestBody()) and with HttpRequestEncoder.encodeControl() writing the body
+ * straight into the request bytes.
+ *
+ * @author Dan Noguerol
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlRequestBenchmark {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ControlRequest request;
+
+    @Setup
+    public void setUp() {
+        request = new ControlRequest(URI.create("http://192.168.0.10"), null, ThermostatMode.AUTO, FanMode.AUTO, 70.0, 76.5, 2.0, null);
+    }
+
+    @Benchmark
+    public String requestBody() throws UnsupportedEncodingException {
+        return request.getRequestBody();
+    }
+
+    @Benchmark
+    public byte[] encodeRequest() throws UnsupportedEncodingException {
+        return HttpRequestEncoder.encode("POST", request.getURI(), request.getRequestBody().getBytes(UTF8));
+    }
+
+    @Benchmark
+    public byte[] directBody() {
+        return ControlBodyEncoder.encode(request);
+    }
+
+    @Benchmark
+    public byte[] encodeRequestDirect() {
+        return HttpRequestEncoder.encodeControl(request);
+    }
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.dto;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing of raw thermostat response bodies, both through an intermediate JSONObject and directly from the
+ * bytes.
+ *
+ * @author Dan Noguerol
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParsingBenchmark {
+    static final String INFO_JSON = "{\"name\":\"Office\",\"mode\":3,\"state\":0,\"fan\":0,\"fanstate\":0,\"tempunits\":0,\"schedule\":0,\"schedulepart\":255,\"away\":0,\"holiday\":0,\"override\":0,\"overridetime\":0,\"forceunocc\":0,\"spacetemp\":79,\"heattemp\":72,\"cooltemp\":76.5,\"cooltempmin\":35,\"cooltempmax\":99,\"heattempmin\":35,\"heattempmax\":99,\"setpointdelta\":2,\"availablemodes\":0}";
+    static final String ROOT_JSON = "{\"api_ver\":5,\"type\":\"residential\",\"model\":\"COLORTOUCH\",\"firmware\":\"5.10\"}";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] infoBytes;
+    private byte[] rootBytes;
+    private ByteBuffer infoBuffer;
+    private ByteBuffer rootBuffer;
+
+    @Setup
+    public void setUp() {
+        infoBytes = INFO_JSON.getBytes(UTF8);
+        rootBytes = ROOT_JSON.getBytes(UTF8);
+        infoBuffer = ByteBuffer.wrap(infoBytes);
+        rootBuffer = ByteBuffer.wrap(rootBytes);
+    }
+
+    @Benchmark
+    public InfoResponse infoFromJSONObject() {
+        return new InfoResponse(new JSONObject(new String(infoBytes, UTF8)));
+    }
+
+    @Benchmark
+    public InfoResponse infoFromBytes() {
+        return new InfoResponse(infoBuffer);
+    }
+
+    @Benchmark
+    public RootResponse rootFromJSONObject() {
+        return new RootResponse(new JSONObject(new String(rootBytes, UTF8)));
+    }
+
+    @Benchmark
+    public RootResponse rootFromBytes() {
+        return new RootResponse(rootBuffer);
+    }
+}
@@ -10,7 +10,6 @@
 package com.whizzosoftware.hobson.venstar;
 
 import com.whizzosoftware.hobson.api.HobsonNotFoundException;
-import com.whizzosoftware.hobson.api.HobsonRuntimeException;
 import com.whizzosoftware.hobson.api.device.DeviceContext;
 import com.whizzosoftware.hobson.api.device.HobsonDevice;
 import com.whizzosoftware.hobson.api.disco.DeviceAdvertisement;
@@ -19,47 +18,215 @@ import com.whizzosoftware.hobson.api.event.EventTopics;
 import com.whizzosoftware.hobson.api.event.HobsonEvent;
 import com.whizzosoftware.hobson.api.plugin.PluginStatus;
 import com.whizzosoftware.hobson.api.plugin.http.AbstractHttpClientPlugin;
-import com.whizzosoftware.hobson.api.plugin.http.HttpRequest;
 import com.whizzosoftware.hobson.api.plugin.http.HttpResponse;
 import com.whizzosoftware.hobson.api.property.PropertyConstraintType;
 import com.whizzosoftware.hobson.api.property.PropertyContainer;
 import com.whizzosoftware.hobson.api.property.TypedProperty;
 import com.whizzosoftware.hobson.ssdp.SSDPPacket;
+import com.whizzosoftware.hobson.venstar.api.AdmissionController;
 import com.whizzosoftware.hobson.venstar.api.ColorTouchChannel;
+import com.whizzosoftware.hobson.venstar.api.HedgeBudget;
+import com.whizzosoftware.hobson.venstar.api.LatencyTracker;
+import com.whizzosoftware.hobson.venstar.api.PendingRequest;
+import com.whizzosoftware.hobson.venstar.api.RequestHandle;
+import com.whizzosoftware.hobson.venstar.api.RequestPriority;
+import com.whizzosoftware.hobson.venstar.api.ResponseFingerprint;
+import com.whizzosoftware.hobson.venstar.api.SingleFlight;
 import com.whizzosoftware.hobson.venstar.api.dto.*;
+import com.whizzosoftware.hobson.venstar.api.http.ByteBufferPool;
+import com.whizzosoftware.hobson.venstar.api.http.ColorTouchResponseListener;
+import com.whizzosoftware.hobson.venstar.api.http.HttpConnectionPool;
+import com.whizzosoftware.hobson.venstar.api.http.KeepAliveColorTouchChannel;
+import com.whizzosoftware.hobson.venstar.bulk.BulkControlListener;
+import com.whizzosoftware.hobson.venstar.bulk.BulkControlOperation;
+import com.whizzosoftware.hobson.venstar.bulk.BulkControlTarget;
+import com.whizzosoftware.hobson.venstar.bulk.ControlOutcome;
+import com.whizzosoftware.hobson.venstar.poll.CircuitBreaker;
+import com.whizzosoftware.hobson.venstar.poll.TimingWheel;
+import com.whizzosoftware.hobson.venstar.shard.ShardedExecutor;
+import com.whizzosoftware.hobson.venstar.state.ConfirmationListener;
 import com.whizzosoftware.hobson.venstar.state.DiscoveryState;
 import com.whizzosoftware.hobson.venstar.state.State;
 import com.whizzosoftware.hobson.venstar.state.StateContext;
-import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * The Venstar ColorTouch plugin. This uses a REST client to communicate with ColorTouch thermostats.
  *
+ * Per-thermostat timers (e.g. the 1 second confirmation poll after a variable is set) are driven by an internal
+ * ticker thread rather than the much coarser plugin refresh interval. Since the ticker runs alongside the plugin
+ * event loop thread, the plugin's entry points are synchronized so that the state machine, thermostats and request
+ * bookkeeping only ever see one thread at a time.
+ *
+ * Requests are sent over persistent HTTP/1.1 connections kept in a per-host pool (see KeepAliveColorTouchChannel)
+ * rather than through the framework's HTTP client so that the connection setup cost isn't paid on every poll.
+ *
+ * Thermostat callbacks (refreshes, variable changes and the diffing of info responses) can optionally be spread
+ * across several single-threaded shards chosen by thermostat host (see PROP_EVENT_SHARDS). The state machine and
+ * request bookkeeping still run under the plugin's lock, but each thermostat's own processing then runs on its
+ * shard, in order, without holding it. Info response bodies are parsed on the transport's threads before the lock
+ * is taken.
+ *
+ * Settings can be applied to many thermostats at once with setDeviceVariables(). Each thermostat goes through the
+ * same read-modify-write cycle as a single variable change; the cycles run concurrently (within the in-flight
+ * request cap) and the returned BulkControlOperation collects each thermostat's outcome.
+ *
  * @author Dan Noguerol
  */
 public class ColorTouchPlugin extends AbstractHttpClientPlugin implements StateContext, ColorTouchChannel {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     static final String PROP_THERMOSTAT_HOST = "thermostat.host";
+    static final String PROP_MAX_REFRESH_INTERVAL = "refresh.interval.max";
+    static final String PROP_MAX_IN_FLIGHT_REQUESTS = "requests.inflight.max";
+    static final String PROP_HEDGE_REQUESTS = "requests.hedge";
+    static final String PROP_EVENT_SHARDS = "event.shards";
+    static final double HEDGE_PERCENTILE = 0.95;
+    static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 32;
     private static final long DEFAULT_REFRESH_INTERVAL_IN_SECONDS = 5;
+    private static final long REFRESH_WHEEL_TICK_IN_MS = 100;
+    private static final int REFRESH_WHEEL_SIZE = 512;
+    static final long TICK_INTERVAL_IN_MS = REFRESH_WHEEL_TICK_IN_MS;
+    private static final long POOL_MAINTENANCE_INTERVAL_IN_MS = 5000;
+    static final long DEFAULT_BULK_CONTROL_TIMEOUT_IN_MS = 30000;
 
     private State state;
     private final List<URI> discoveredURIs = new ArrayList<>();
     private boolean hasAtLeastOneThermostat;
+    private long maxRefreshIntervalInMs = ColorTouchThermostat.DEFAULT_MAX_REFRESH_INTERVAL_IN_MS;
+    /**
+     * Tracks when each thermostat is next due for a refresh so that a refresh only touches thermostats that are due
+     */
+    private final TimingWheel<ColorTouchThermostat> refreshWheel = new TimingWheel<>(REFRESH_WHEEL_TICK_IN_MS, REFRESH_WHEEL_SIZE);
+    private final List<ColorTouchThermostat> dueThermostats = new ArrayList<>();
+    /**
+     * Caps the number of concurrent HTTP requests to thermostats (all requests go through this)
+     */
+    private final AdmissionController admissionController;
+    /**
+     * Ensures at most one info request is outstanding per thermostat URI; other callers (refresh, set variable and
+     * discovery) are attached to it and receive the same response
+     */
+    private final SingleFlight<URI,InfoRequest> infoFlights = new SingleFlight<>();
+    /**
+     * Advances the refresh wheel at sub-second resolution between plugin refreshes
+     */
+    private ScheduledExecutorService ticker;
+    /**
+     * Tracks every request sent through the channel methods until it completes or is cancelled
+     */
+    private final Map<Object,PendingRequest> pendingRequests = new IdentityHashMap<>();
+    /**
+     * Tracks when each in-flight request times out
+     */
+    private final TimingWheel<Object> requestDeadlines = new TimingWheel<>(REFRESH_WHEEL_TICK_IN_MS, REFRESH_WHEEL_SIZE);
+    private final List<Object> expiredRequests = new ArrayList<>();
+    /**
+     * Requests that were aborted while in-flight and whose late responses should be ignored
+     */
+    private final Set<Object> abortedRequests = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+    /**
+     * The observed response latencies of each thermostat host (used to derive request timeouts)
+     */
+    private final Map<String,LatencyTracker> latencyTrackers = new HashMap<>();
+    /**
+     * Whether slow info requests are hedged
+     */
+    private boolean hedgeRequests;
+    /**
+     * Tracks when each in-flight info request should be hedged
+     */
+    private final TimingWheel<Object> hedgeDeadlines = new TimingWheel<>(REFRESH_WHEEL_TICK_IN_MS, REFRESH_WHEEL_SIZE);
+    /**
+     * Maps hedged requests to their original requests (and vice versa)
+     */
+    private final Map<Object,Object> hedgeToOriginal = new IdentityHashMap<>();
+    private final Map<Object,Object> originalToHedge = new IdentityHashMap<>();
+    /**
+     * Caps the extra load created by hedged requests across all thermostats
+     */
+    private final HedgeBudget hedgeBudget = new HedgeBudget();
+    /**
+     * The channel that performs the actual HTTP sends (created on first use unless one has been set)
+     */
+    private ColorTouchChannel transport;
+    private HttpConnectionPool connectionPool;
+    private ExecutorService ioExecutor;
+    private long nextPoolMaintenanceTime;
+    /**
+     * The transport handles of dispatched requests (used to close the connection of an aborted request)
+     */
+    private final Map<Object,RequestHandle> transportHandles = new IdentityHashMap<>();
+    /**
+     * Buffers that response bodies delivered through onHttpResponse are read into for parsing
+     */
+    private final ByteBufferPool bufferPool = new ByteBufferPool();
+    private final ColorTouchResponseListener responseListener = new ColorTouchResponseListener() {
+        @Override
+        public void onResponse(Object context, int statusCode, ByteBuffer body) {
+            processResponse(context, statusCode, body);
+        }
+
+        @Override
+        public void onFailure(Object context, Throwable cause) {
+            onHttpRequestFailure(cause, context);
+        }
+    };
+    /**
+     * Runs each thermostat's callbacks (inline by default; on a shard chosen by host if configured)
+     */
+    private ShardedExecutor shards = new ShardedExecutor(0, "ColorTouch shard");
+    /**
+     * The bulk control operation (if any) awaiting each thermostat's confirmation
+     */
+    private final Map<DeviceContext,BulkControlOperation> bulkControls = new HashMap<>();
+    private final List<DeviceContext> expiredBulkControls = new ArrayList<>();
+    /**
+     * Notifies bulk control listeners outside of the plugin's lock (created on first use)
+     */
+    private ExecutorService bulkControlExecutor;
+    private final ConfirmationListener confirmationListener = new ConfirmationListener() {
+        @Override
+        public void onConfirmationComplete(ColorTouchThermostat thermostat, boolean confirmed, long now) {
+            synchronized (ColorTouchPlugin.this) {
+                BulkControlOperation op = bulkControls.remove(thermostat.getContext());
+                if (op != null) {
+                    op.complete(thermostat.getContext(), confirmed ? ControlOutcome.CONFIRMED : ControlOutcome.TIMED_OUT, now);
+                }
+            }
+        }
+    };
+    private final PendingRequest.CancelListener cancelListener = new PendingRequest.CancelListener() {
+        @Override
+        public void onCancel(PendingRequest request) {
+            cancelRequest(request);
+        }
+    };
 
     public ColorTouchPlugin(String pluginId) {
         super(pluginId);
 
         this.state = new DiscoveryState();
+        this.admissionController = new AdmissionController(DEFAULT_MAX_IN_FLIGHT_REQUESTS, new AdmissionController.Dispatcher() {
+            @Override
+            public void dispatch(Object request) {
+                dispatchRequest(request);
+            }
+        });
     }
 
     // ***
@@ -67,7 +234,7 @@ public class ColorTouchPlugin extends AbstractHttpClientPlugin implements StateC
     // ***
 
     @Override
-    public void onStartup(PropertyContainer config) {
+    public synchronized void onStartup(PropertyContainer config) {
         // set to running status
         setStatus(PluginStatus.running());
 
@@ -76,10 +243,26 @@ public class ColorTouchPlugin extends AbstractHttpClientPlugin implements StateC
 
         // check if a thermostat has been manually configured
         addManualHostIfNotDiscovered((String)config.getPropertyValue(PROP_THERMOSTAT_HOST));
+
+        // apply the configured maximum refresh interval and request limit
+        setMaxRefreshInterval(config.getPropertyValue(PROP_MAX_REFRESH_INTERVAL));
+        setMaxInFlightRequests(config.getPropertyValue(PROP_MAX_IN_FLIGHT_REQUESTS));
+        setHedgeRequests(config.getPropertyValue(PROP_HEDGE_REQUESTS));
+        setEventShards(config.getPropertyValue(PROP_EVENT_SHARDS));
+
+        // start the ticker for per-thermostat timers
+        startTicker();
     }
 
     @Override
-    public void onShutdown() {
+    public synchronized void onShutdown() {
+        stopTicker();
+        stopTransport();
+        shards.close();
+        if (bulkControlExecutor != null) {
+            bulkControlExecutor.shutdown();
+            bulkControlExecutor = null;
+        }
     }
 
     @Override
@@ -91,6 +274,30 @@ public class ColorTouchPlugin extends AbstractHttpClientPlugin implements StateC
                 "The hostname or IP address of a ColorTouch thermostat. This should be detected automatically but you can enter it manually here if necessary. You must have the API enabled on the thermostat.",
                 TypedProperty.Type.STRING).
                     constraint(PropertyConstraintType.required, true).
+                    build(),
+            new TypedProperty.Builder(
+                PROP_MAX_REFRESH_INTERVAL,
+                "Maximum Refresh Interval",
+                "The maximum number of seconds between refreshes of a thermostat whose values haven't been changing. Thermostats that are changing are refreshed more frequently.",
+                TypedProperty.Type.NUMBER).
+                    build(),
+            new TypedProperty.Builder(
+                PROP_MAX_IN_FLIGHT_REQUESTS,
+                "Maximum Concurrent Requests",
+                "The maximum number of requests that can be outstanding to thermostats at one time. Additional requests are queued until outstanding ones complete.",
+                TypedProperty.Type.NUMBER).
+                    build(),
+            new TypedProperty.Builder(
+                PROP_HEDGE_REQUESTS,
+                "Hedge Slow Requests",
+                "Sends a second request to a thermostat that is slower to respond than usual and uses whichever response arrives first. This can help thermostats with poor Wi-Fi connections at the cost of a small amount of extra traffic.",
+                TypedProperty.Type.BOOLEAN).
+                    build(),
+            new TypedProperty.Builder(
+                PROP_EVENT_SHARDS,
+                "Processing Threads",
+                "The number of threads that thermostat updates are processed on. Each thermostat is always processed by the same thread. Leave blank (or 0) to process all thermostats on the plugin's own thread. Changes take effect when the plugin is restarted.",
+                TypedProperty.Type.NUMBER).
                     build()
         };
     }
@@ -112,23 +319,146 @@ public class ColorTouchPlugin extends AbstractHttpClientPlugin implements StateC
     }
 
     @Override
-    public void onRefresh() {
+    public synchronized void onRefresh() {
         state.onRefresh(this, System.currentTimeMillis());
     }
 
     @Override
-    public void onPluginConfigurationUpdate(PropertyContainer config) {
+    public synchronized void onPluginConfigurationUpdate(PropertyContainer config) {
         addManualHostIfNotDiscovered((String)config.getPropertyValue(PROP_THERMOSTAT_HOST));
+        setMaxRefreshInterval(config.getPropertyValue(PROP_MAX_REFRESH_INTERVAL));
+        setMaxInFlightRequests(config.getPropertyValue(PROP_MAX_IN_FLIGHT_REQUESTS));
+        setHedgeRequests(config.getPropertyValue(PROP_HEDGE_REQUESTS));
     }
 
     @Override
-    public void onSetDeviceVariable(DeviceContext context, String variableName, Object value) {
+    public synchronized void onSetDeviceVariable(DeviceContext context, String variableName, Object value) {
         // we override this to run the set variable request through the state machine
         state.onSetDeviceVariable(this, context, variableName, value);
     }
 
+    /**
+     * Applies the same settings to a set of thermostats. Each thermostat's change is started immediately and
+     * proceeds independently; the returned operation records each thermostat's outcome as it becomes known.
+     *
+     * @param devices the thermostats to change
+     * @param target the settings to apply
+     * @param listener notified when every thermostat has an outcome (may be null)
+     *
+     * @return the operation
+     */
+    public BulkControlOperation setDeviceVariables(Collection<DeviceContext> devices, BulkControlTarget target, BulkControlListener listener) {
+        return setDeviceVariables(devices, target, DEFAULT_BULK_CONTROL_TIMEOUT_IN_MS, listener);
+    }
+
+    /**
+     * Applies the same settings to a set of thermostats.
+     *
+     * @param devices the thermostats to change
+     * @param target the settings to apply
+     * @param timeout the time after which thermostats that haven't confirmed the change are considered timed out
+     * @param listener notified when every thermostat has an outcome (may be null)
+     *
+     * @return the operation
+     */
+    public synchronized BulkControlOperation setDeviceVariables(Collection<DeviceContext> devices, BulkControlTarget target, long timeout, BulkControlListener listener) {
+        long now = System.currentTimeMillis();
+        BulkControlOperation op = new BulkControlOperation(devices, target, now, timeout, listener, getBulkControlExecutor());
+        Map<String,Object> vars = target.getVariables();
+
+        for (DeviceContext ctx : op.getDevices()) {
+            ColorTouchThermostat thermostat;
+            try {
+                thermostat = getThermostatDevice(ctx);
+            } catch (HobsonNotFoundException e) {
+                op.complete(ctx, ControlOutcome.NOT_FOUND, now);
+                continue;
+            }
+            thermostat.setConfirmationListener(confirmationListener);
+
+            BulkControlOperation previous = bulkControls.put(ctx, op);
+            if (previous != null) {
+                previous.complete(ctx, ControlOutcome.SUPERSEDED, now);
+            }
+
+            // this is the same path a single variable change takes (so the state machine can refuse it)
+            for (Map.Entry<String,Object> e : vars.entrySet()) {
+                state.onSetDeviceVariable(this, ctx, e.getKey(), e.getValue());
+            }
+
+            // if the thermostat isn't awaiting a confirmation once the changes have been applied, they weren't
+            // accepted (this runs after them on the thermostat's shard)
+            final ColorTouchThermostat t = thermostat;
+            final BulkControlOperation o = op;
+            final long time = now;
+            runOnThermostat(thermostat, new Runnable() {
+                @Override
+                public void run() {
+                    if (!t.hasPendingControlConfirmation()) {
+                        synchronized (ColorTouchPlugin.this) {
+                            if (bulkControls.get(t.getContext()) == o) {
+                                bulkControls.remove(t.getContext());
+                                o.complete(t.getContext(), ControlOutcome.REJECTED, time);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        logger.debug("Started bulk control of {} thermostat(s): {}", op.getDevices().size(), op);
+
+        return op;
+    }
+
+    private Executor getBulkControlExecutor() {
+        if (bulkControlExecutor == null) {
+            bulkControlExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ColorTouch Bulk Control");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return bulkControlExecutor;
+    }
+
+    int getBulkControlCount() {
+        return bulkControls.size();
+    }
+
+    /**
+     * Gives an outcome to thermostats whose bulk control operation has passed its deadline without a confirmation.
+     *
+     * @param now the current time
+     */
+    private void expireBulkControls(long now) {
+        if (!bulkControls.isEmpty()) {
+            for (Map.Entry<DeviceContext,BulkControlOperation> e : bulkControls.entrySet()) {
+                if (now >= e.getValue().getDeadline()) {
+                    expiredBulkControls.add(e.getKey());
+                }
+            }
+            for (DeviceContext ctx : expiredBulkControls) {
+                BulkControlOperation op = bulkControls.remove(ctx);
+                ControlOutcome outcome = ControlOutcome.TIMED_OUT;
+                try {
+                    // this is only a hint so reading it while the thermostat's shard may be updating it is harmless
+                    if (getThermostatDevice(ctx).getCircuitState() == CircuitBreaker.State.OPEN) {
+                        outcome = ControlOutcome.UNREACHABLE;
+                    }
+                } catch (HobsonNotFoundException ignored) {
+                }
+                op.complete(ctx, outcome, now);
+            }
+            expiredBulkControls.clear();
+        }
+    }
+
     @Override
-    public void onHobsonEvent(HobsonEvent event) {
+    public synchronized void onHobsonEvent(HobsonEvent event) {
         super.onHobsonEvent(event);
 
         if (event instanceof DeviceAdvertisementEvent) {
@@ -141,10 +471,8 @@ public class ColorTouchPlugin extends AbstractHttpClientPlugin implements StateC
                         if (logger.isTraceEnabled()) {
                             logger.trace("Found device at {}: {}", uri.toASCIIString(), ssdp.toString());
                         }
-                        if (ssdp.getNT() != null && ssdp.getNT().equals("colortouch:ecp") && !discoveredURIs.contains(uri)) {
+                        if (ssdp.getNT() != null && ssdp.getNT().equals("colortouch:ecp") && addDiscoveredURI(uri)) {
                             logger.info("Found ColorTouch thermostat at {}", ssdp.getLocation());
-                            discoveredURIs.add(uri);
-                            state.onThermostatFound(this);
                             // TODO: make sure not to overwrite this property
                             setPluginConfigurationProperty(getContext(), PROP_THERMOSTAT_HOST, uri.getHost());
                         }
@@ -158,21 +486,304 @@ public class ColorTouchPlugin extends AbstractHttpClientPlugin implements StateC
         }
     }
 
+    private void startTicker() {
+        if (ticker == null) {
+            ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ColorTouch Ticker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            ticker.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    onTick(System.currentTimeMillis());
+                }
+            }, TICK_INTERVAL_IN_MS, TICK_INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void stopTicker() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    /**
+     * Sets the channel used to perform HTTP sends.
+     *
+     * @param transport the channel (its responses must be delivered to onHttpResponse / onHttpRequestFailure)
+     */
+    synchronized void setTransport(ColorTouchChannel transport) {
+        this.transport = transport;
+    }
+
+    private ColorTouchChannel getTransport() {
+        if (transport == null) {
+            connectionPool = new HttpConnectionPool();
+            ioExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ColorTouch I/O");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            transport = new KeepAliveColorTouchChannel(connectionPool, ioExecutor, responseListener);
+        }
+        return transport;
+    }
+
+    private void stopTransport() {
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
+        }
+        if (ioExecutor != null) {
+            ioExecutor.shutdownNow();
+            ioExecutor = null;
+            transport = null;
+        }
+    }
+
+    /**
+     * Evicts idle pooled connections and logs how well connections are being reused.
+     *
+     * @param now the current time
+     */
+    private void maintainConnectionPool(long now) {
+        if (connectionPool != null && now >= nextPoolMaintenanceTime) {
+            int evicted = connectionPool.evictIdle(now);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Connection pool: {} idle, {} evicted, {} created, {} reused ({}% reuse)", connectionPool.getIdleConnectionCount(), evicted, connectionPool.getConnectionsCreated(), connectionPool.getConnectionsReused(), Math.round(connectionPool.getReuseRatio() * 100));
+            }
+            nextPoolMaintenanceTime = now + POOL_MAINTENANCE_INTERVAL_IN_MS;
+        }
+    }
+
+    /**
+     * Sets the number of shards thermostat callbacks are run on. This only takes effect before any thermostats have
+     * been added (i.e. at startup) so that a thermostat's callbacks can never run on two shards at once.
+     *
+     * @param value the configured value
+     */
+    private void setEventShards(Object value) {
+        int count = 0;
+        if (value != null && value.toString().length() > 0) {
+            try {
+                count = Integer.parseInt(value.toString());
+                if (count < 0) {
+                    logger.error("Invalid processing thread count configured: {}; using default", count);
+                    count = 0;
+                }
+            } catch (NumberFormatException e) {
+                logger.error("Invalid processing thread count configured; using default", e);
+            }
+        }
+        if (count != shards.getShardCount()) {
+            if (hasAtLeastOneThermostat) {
+                logger.info("Processing thread count change will take effect when the plugin is restarted");
+            } else {
+                shards.close();
+                shards = new ShardedExecutor(count, "ColorTouch shard");
+                logger.debug("Processing thermostats on {} shard(s)", count);
+            }
+        }
+    }
+
+    int getEventShardCount() {
+        return shards.getShardCount();
+    }
+
+    /**
+     * Waits for all thermostat callbacks submitted so far to run.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     *
+     * @return true if they all ran
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean drainEventShards(long timeout) throws InterruptedException {
+        return shards.drain(timeout);
+    }
+
+    /**
+     * Runs a task against a thermostat on the thermostat's shard (or immediately if sharding is disabled) and then
+     * updates the thermostat's position in the refresh wheel. When sharded, the task runs without the plugin's lock
+     * so it must only touch the thermostat (the thermostat's calls back into the plugin are synchronized).
+     *
+     * @param thermostat the thermostat
+     * @param task the task
+     */
+    private void runOnThermostat(final ColorTouchThermostat thermostat, final Runnable task) {
+        if (shards.isInline()) {
+            task.run();
+            rescheduleRefresh(thermostat);
+        } else {
+            shards.execute(thermostat.getBaseURI().getHost(), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        synchronized (ColorTouchPlugin.this) {
+                            rescheduleRefresh(thermostat);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void setHedgeRequests(Object value) {
+        hedgeRequests = (value != null && Boolean.parseBoolean(value.toString()));
+        if (!hedgeRequests) {
+            hedgeDeadlines.clear();
+        }
+    }
+
+    boolean isHedgingRequests() {
+        return hedgeRequests;
+    }
+
+    boolean isTickerRunning() {
+        return (ticker != null);
+    }
+
+    /**
+     * Called by the ticker to refresh any thermostats whose timers have come due.
+     *
+     * @param now the current time
+     */
+    synchronized void onTick(long now) {
+        // an exception escaping here would cancel all future ticks
+        try {
+            expireRequests(now);
+            expireBulkControls(now);
+            sendHedgedRequests(now);
+            maintainConnectionPool(now);
+            if (hasAtLeastOneThermostat) {
+                refreshAllThermostats(now);
+            }
+        } catch (Throwable t) {
+            logger.error("Error refreshing thermostats", t);
+        }
+    }
+
+    private void setMaxRefreshInterval(Object value) {
+        long interval = ColorTouchThermostat.DEFAULT_MAX_REFRESH_INTERVAL_IN_MS;
+        if (value != null) {
+            try {
+                interval = (long)(Double.parseDouble(value.toString()) * 1000);
+            } catch (NumberFormatException e) {
+                logger.error("Invalid maximum refresh interval configured; using default", e);
+            }
+        }
+
+        if (interval != maxRefreshIntervalInMs) {
+            maxRefreshIntervalInMs = interval;
+            Collection<HobsonDevice> devices = getAllPluginDevices();
+            if (devices != null) {
+                for (HobsonDevice device : devices) {
+                    if (device instanceof ColorTouchThermostat) {
+                        final ColorTouchThermostat thermostat = (ColorTouchThermostat)device;
+                        final long max = maxRefreshIntervalInMs;
+                        runOnThermostat(thermostat, new Runnable() {
+                            @Override
+                            public void run() {
+                                thermostat.setMaxRefreshInterval(max);
+                            }
+                        });
+                    }
+                }
+            }
+        }
+    }
+
+    long getMaxRefreshInterval() {
+        return maxRefreshIntervalInMs;
+    }
+
+    private void setMaxInFlightRequests(Object value) {
+        int max = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+        if (value != null) {
+            try {
+                max = Integer.parseInt(value.toString());
+                if (max <= 0) {
+                    logger.error("Invalid maximum concurrent requests configured: {}; using default", max);
+                    max = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+                }
+            } catch (NumberFormatException e) {
+                logger.error("Invalid maximum concurrent requests configured; using default", e);
+            }
+        }
+        admissionController.setMaxInFlight(max);
+    }
+
+    public int getMaxInFlightRequests() {
+        return admissionController.getMaxInFlight();
+    }
+
+    /**
+     * Returns the number of requests that have been sent to thermostats and are awaiting a response.
+     *
+     * @return an int
+     */
+    public int getInFlightRequestCount() {
+        return admissionController.getInFlightCount();
+    }
+
+    /**
+     * Returns the number of requests waiting for an in-flight request to complete before they can be sent.
+     *
+     * @return an int
+     */
+    public int getQueuedRequestCount() {
+        return admissionController.getQueueDepth();
+    }
+
+    /**
+     * Returns the number of requests of a particular priority waiting to be sent.
+     *
+     * @param priority the request priority
+     *
+     * @return an int
+     */
+    public int getQueuedRequestCount(RequestPriority priority) {
+        return admissionController.getQueueDepth(priority);
+    }
+
     private void addManualHostIfNotDiscovered(String manualHost) {
         // check if a thermostat has been manually configured
         if (manualHost != null) {
             try {
-                URI uri = new URI("http://" + manualHost + "/");
-                if (!discoveredURIs.contains(uri)) {
-                    discoveredURIs.add(uri);
-                    state.onThermostatFound(this);
-                }
+                addDiscoveredURI(new URI("http://" + manualHost + "/"));
             } catch (URISyntaxException e) {
                 logger.error("Invalid thermostat host configured; ignoring", e);
             }
         }
     }
 
+    /**
+     * Adds the address of a thermostat (however it was found) and starts discovery of it.
+     *
+     * @param uri the thermostat's base URI
+     *
+     * @return true if the address wasn't already known
+     */
+    synchronized boolean addDiscoveredURI(URI uri) {
+        if (!discoveredURIs.contains(uri)) {
+            discoveredURIs.add(uri);
+            state.onThermostatFound(this);
+            return true;
+        }
+        return false;
+    }
+
     // ***
     // StateContext methods
     // ***
@@ -214,46 +825,385 @@ public class ColorTouchPlugin extends AbstractHttpClientPlugin implements StateC
 
     @Override
     public void addThermostat(URI baseURI, InfoResponse info) {
-        publishDevice(new ColorTouchThermostat(this, this, baseURI, info));
+        ColorTouchThermostat thermostat = new ColorTouchThermostat(this, this, baseURI, info);
+        thermostat.setMaxRefreshInterval(maxRefreshIntervalInMs);
+        publishDevice(thermostat);
+        refreshWheel.schedule(thermostat, thermostat.getInitialRefreshTime(System.currentTimeMillis()));
         hasAtLeastOneThermostat = true;
         logger.debug("Added thermostat: {}", info.getName());
     }
 
     @Override
-    public void refreshAllThermostats(long now) {
-        Collection<HobsonDevice> devices = getAllPluginDevices();
-        if (devices != null) {
-            for (HobsonDevice device : devices) {
-                if (device instanceof ColorTouchThermostat) {
-                    ((ColorTouchThermostat) device).onRefresh(now);
-                } else {
-                    logger.error("Unable to refresh unknown device: {}", device.getContext());
-                }
+    public void refreshAllThermostats(final long now) {
+        // only thermostats whose refresh time has arrived are pulled from the wheel
+        refreshWheel.expire(now, dueThermostats);
+        for (final ColorTouchThermostat thermostat : dueThermostats) {
+            if (shards.isInline()) {
+                refreshThermostat(thermostat, now);
+            } else {
+                // the thermostat stays out of the wheel until its shard has refreshed it
+                shards.execute(thermostat.getBaseURI().getHost(), new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshThermostat(thermostat, now);
+                    }
+                });
+            }
+        }
+        dueThermostats.clear();
+    }
+
+    /**
+     * Refreshes a thermostat and puts it back in the refresh wheel. This runs on the thermostat's shard.
+     *
+     * @param thermostat the thermostat
+     * @param now the current time
+     */
+    private void refreshThermostat(ColorTouchThermostat thermostat, long now) {
+        try {
+            thermostat.onRefresh(now);
+        } catch (Exception e) {
+            logger.error("Error refreshing thermostat: " + thermostat.getContext(), e);
+        } finally {
+            synchronized (this) {
+                refreshWheel.schedule(thermostat, thermostat.getNextRefreshTime());
             }
         }
     }
 
     @Override
-    public void doSetDeviceVariable(DeviceContext context, String name, Object value) {
-        getDevice(context).getRuntime().onSetVariable(name, value);
+    public void doSetDeviceVariable(DeviceContext context, final String name, final Object value) {
+        final HobsonDevice device = getDevice(context);
+        if (device instanceof ColorTouchThermostat) {
+            runOnThermostat((ColorTouchThermostat)device, new Runnable() {
+                @Override
+                public void run() {
+                    device.getRuntime().onSetVariable(name, value);
+                }
+            });
+        } else {
+            device.getRuntime().onSetVariable(name, value);
+        }
     }
 
     @Override
-    public void sendRootRequest(RootRequest request) {
-        sendHttpRequest(request.getURI(), HttpRequest.Method.GET, request);
+    public void deliverInfoResponse(final InfoRequest request, final InfoResponse response, final Throwable error) {
+        final ColorTouchThermostat thermostat = getThermostatDevice(request.getDeviceContext());
+        runOnThermostat(thermostat, new Runnable() {
+            @Override
+            public void run() {
+                thermostat.onInfoResponse(request, response, error, System.currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Updates a thermostat's position in the refresh wheel after an event that may have changed when it is next due.
+     *
+     * @param thermostat the thermostat
+     */
+    private void rescheduleRefresh(ColorTouchThermostat thermostat) {
+        if (refreshWheel.isScheduled(thermostat)) {
+            refreshWheel.schedule(thermostat, thermostat.getNextRefreshTime());
+        }
     }
 
     @Override
-    public void sendInfoRequest(InfoRequest request) {
-        sendHttpRequest(request.getURI(), HttpRequest.Method.GET, null, request);
+    public synchronized RequestHandle sendRootRequest(RootRequest request) {
+        PendingRequest pr = trackRequest(request, request.getURI());
+        admissionController.submit(request, RequestPriority.DISCOVERY, System.currentTimeMillis());
+        return pr;
     }
 
     @Override
-    public void sendControlRequest(ControlRequest request) {
-        try {
-            sendHttpRequest(request.getURI(), HttpRequest.Method.POST, null, null, request.getRequestBody().getBytes(), request);
-        } catch (UnsupportedEncodingException e) {
-            throw new HobsonRuntimeException("Error sending control request", e);
+    public synchronized RequestHandle sendInfoRequest(InfoRequest request) {
+        PendingRequest pr = trackRequest(request, request.getURI());
+        RequestPriority priority = getPriority(request);
+        if (infoFlights.join(request.getURI(), request)) {
+            admissionController.submit(request, priority, System.currentTimeMillis());
+        } else {
+            // a request to this thermostat is already outstanding so attach to it (bumping its priority if needed)
+            InfoRequest leader = infoFlights.getLeader(request.getURI());
+            logger.trace("Attaching info request to outstanding request for {}", request.getURI());
+            if (priority.ordinal() < getPriority(leader).ordinal()) {
+                admissionController.promote(leader, priority);
+            }
+        }
+        return pr;
+    }
+
+    /**
+     * Returns the number of callers waiting on the outstanding info request for a thermostat.
+     *
+     * @param uri the thermostat's info URI
+     *
+     * @return an int (0 if there is no outstanding request)
+     */
+    int getInfoRequestCallerCount(URI uri) {
+        return infoFlights.getCallerCount(uri);
+    }
+
+    @Override
+    public synchronized RequestHandle sendControlRequest(ControlRequest request) {
+        PendingRequest pr = trackRequest(request, request.getURI());
+        admissionController.submit(request, RequestPriority.CONTROL, System.currentTimeMillis());
+        return pr;
+    }
+
+    static RequestPriority getPriority(InfoRequest request) {
+        if (!request.hasDeviceId()) {
+            return RequestPriority.DISCOVERY;
+        } else if (request.isConfirmation()) {
+            return RequestPriority.CONFIRMATION;
+        } else {
+            return RequestPriority.POLL;
+        }
+    }
+
+    private PendingRequest trackRequest(Object request, URI uri) {
+        PendingRequest pr = new PendingRequest(request, getLatencyTracker(uri).getTimeout(), cancelListener);
+        pendingRequests.put(request, pr);
+        return pr;
+    }
+
+    private LatencyTracker getLatencyTracker(URI uri) {
+        LatencyTracker lt = latencyTrackers.get(uri.getHost());
+        if (lt == null) {
+            lt = new LatencyTracker();
+            latencyTrackers.put(uri.getHost(), lt);
+        }
+        return lt;
+    }
+
+    /**
+     * Returns the timeout that will be used for the next request to a host.
+     *
+     * @param uri a URI for the host
+     *
+     * @return a timeout in milliseconds
+     */
+    long getRequestTimeout(URI uri) {
+        return getLatencyTracker(uri).getTimeout();
+    }
+
+    static URI getURI(Object request) {
+        if (request instanceof RootRequest) {
+            return ((RootRequest)request).getURI();
+        } else if (request instanceof InfoRequest) {
+            return ((InfoRequest)request).getURI();
+        } else if (request instanceof ControlRequest) {
+            return ((ControlRequest)request).getURI();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Called when a caller cancels a request through its handle.
+     *
+     * @param pr the cancelled request
+     */
+    private synchronized void cancelRequest(PendingRequest pr) {
+        Object request = pr.getRequest();
+        Object abort = request;
+
+        // an info request is only aborted once every caller attached to it has cancelled (the leader stays tracked
+        // until then since it carries the dispatch time)
+        if (request instanceof InfoRequest) {
+            InfoRequest ir = (InfoRequest)request;
+            if (infoFlights.getLeader(ir.getURI()) != ir) {
+                pendingRequests.remove(request);
+            }
+            abort = infoFlights.leave(ir.getURI(), ir);
+        } else {
+            pendingRequests.remove(request);
+        }
+
+        if (abort != null) {
+            logger.debug("Aborting cancelled request to {}", getURI(abort));
+            long now = System.currentTimeMillis();
+            abortRequest(abort, now);
+            pendingRequests.remove(abort);
+            Object hedge = originalToHedge.remove(abort);
+            if (hedge != null) {
+                dropHedge(hedge, now);
+            }
+        }
+    }
+
+    /**
+     * Aborts a request. A queued request is simply dropped; an in-flight request has its connection closed, its slot
+     * released and any response (or failure) that arrives for it later is ignored.
+     *
+     * @param request the request
+     * @param now the current time
+     */
+    private void abortRequest(Object request, long now) {
+        RequestHandle h = transportHandles.remove(request);
+        if (h != null) {
+            h.cancel();
+        }
+        requestDeadlines.cancel(request);
+        hedgeDeadlines.cancel(request);
+        if (admissionController.isInFlight(request)) {
+            abortedRequests.add(request);
+        }
+        admissionController.cancel(request, now);
+    }
+
+    /**
+     * Aborts any in-flight requests that have timed out and delivers a timeout failure to their callers.
+     *
+     * @param now the current time
+     */
+    private void expireRequests(long now) {
+        requestDeadlines.expire(now, expiredRequests);
+        for (Object request : expiredRequests) {
+            PendingRequest pr = pendingRequests.get(request);
+            URI uri = getURI(request);
+            logger.debug("Request to {} timed out; aborting", uri);
+
+            // the timeout counts as a (lower bound) latency sample so a host that has slowed down gets a longer timeout
+            if (pr != null && pr.getDispatchTime() > 0) {
+                getLatencyTracker(uri).record(now - pr.getDispatchTime());
+            }
+
+            abortRequest(request, now);
+            failRequest(request, new TimeoutException("Request to " + uri + " timed out"));
+        }
+        expiredRequests.clear();
+    }
+
+    /**
+     * Sends a hedged request for any in-flight info request that has been outstanding longer than its host's usual
+     * response time (budget permitting).
+     *
+     * @param now the current time
+     */
+    private void sendHedgedRequests(long now) {
+        hedgeDeadlines.expire(now, expiredRequests);
+        for (Object request : expiredRequests) {
+            InfoRequest original = (InfoRequest)request;
+            if (admissionController.isInFlight(original) && !originalToHedge.containsKey(original) && hedgeBudget.tryAcquire()) {
+                InfoRequest hedge = new InfoRequest(original.getTemplate(), original.isConfirmation());
+                logger.debug("Info request to {} is slow; sending hedged request", original.getURI());
+                pendingRequests.put(hedge, new PendingRequest(hedge, pendingRequests.get(original).getTimeout(), null));
+                hedgeToOriginal.put(hedge, original);
+                originalToHedge.put(original, hedge);
+                admissionController.submit(hedge, getPriority(original), now);
+            }
+        }
+        expiredRequests.clear();
+    }
+
+    /**
+     * Returns the hedged request that was sent for an original request.
+     *
+     * @param original the original request
+     *
+     * @return the hedged request (or null if there isn't one)
+     */
+    Object getHedgedRequest(Object original) {
+        return originalToHedge.get(original);
+    }
+
+    private void dropHedge(Object hedge, long now) {
+        hedgeToOriginal.remove(hedge);
+        pendingRequests.remove(hedge);
+        abortRequest(hedge, now);
+    }
+
+    /**
+     * Resolves which request a completed request should be treated as when hedging is in play. If a hedged request
+     * completed, its original is dropped and the original is returned; if an original completed, its hedged
+     * request (if any) is dropped.
+     *
+     * @param context the completed request
+     * @param now the current time
+     *
+     * @return the request whose callers should receive the response
+     */
+    private Object resolveHedgedResponse(Object context, long now) {
+        Object original = hedgeToOriginal.remove(context);
+        if (original != null) {
+            logger.trace("Hedged request to {} answered first", getURI(context));
+            pendingRequests.remove(context);
+            originalToHedge.remove(original);
+            abortRequest(original, now);
+            return original;
+        } else {
+            Object hedge = originalToHedge.remove(context);
+            if (hedge != null) {
+                dropHedge(hedge, now);
+            }
+            hedgeDeadlines.cancel(context);
+            return context;
+        }
+    }
+
+    /**
+     * Handles a request failure (or timeout), taking hedging into account: a failure is only delivered once neither
+     * the original nor its hedged request can still answer.
+     *
+     * @param context the failed request
+     * @param cause the cause of the failure
+     */
+    private void failRequest(Object context, Throwable cause) {
+        Object original = hedgeToOriginal.remove(context);
+        if (original != null) {
+            pendingRequests.remove(context);
+            if (admissionController.isInFlight(original)) {
+                return;
+            }
+            originalToHedge.remove(original);
+            context = original;
+        } else if (originalToHedge.containsKey(context)) {
+            hedgeDeadlines.cancel(context);
+            return;
+        }
+        hedgeDeadlines.cancel(context);
+        deliverFailure(context, cause);
+    }
+
+    /**
+     * Performs the actual HTTP send of a request once it has been admitted.
+     *
+     * @param request the request
+     */
+    private void dispatchRequest(Object request) {
+        // start the request's timeout clock
+        PendingRequest pr = pendingRequests.get(request);
+        if (pr != null) {
+            long now = System.currentTimeMillis();
+            pr.setDispatchTime(now);
+            requestDeadlines.schedule(request, now + pr.getTimeout());
+
+            // schedule a hedged request for slow thermostat info requests
+            if (hedgeRequests && request instanceof InfoRequest && ((InfoRequest)request).hasDeviceId() && !hedgeToOriginal.containsKey(request)) {
+                hedgeBudget.onRequest();
+                LatencyTracker lt = getLatencyTracker(((InfoRequest)request).getURI());
+                if (lt.getSampleCount() >= LatencyTracker.MIN_SAMPLES) {
+                    hedgeDeadlines.schedule(request, now + lt.getPercentile(HEDGE_PERCENTILE));
+                }
+            }
+        }
+
+        RequestHandle h;
+        if (request instanceof RootRequest) {
+            h = getTransport().sendRootRequest((RootRequest)request);
+        } else if (request instanceof InfoRequest) {
+            h = getTransport().sendInfoRequest((InfoRequest)request);
+        } else if (request instanceof ControlRequest) {
+            h = getTransport().sendControlRequest((ControlRequest)request);
+        } else {
+            admissionController.onComplete(request, System.currentTimeMillis());
+            logger.error("Unable to send unknown request: " + request);
+            return;
+        }
+
+        // a transport may have completed the request before returning
+        if (h != null && !h.isDone()) {
+            transportHandles.put(request, h);
         }
     }
 
@@ -263,37 +1213,212 @@ public class ColorTouchPlugin extends AbstractHttpClientPlugin implements StateC
 
     @Override
     public void onHttpResponse(HttpResponse response, Object context) {
-        logger.trace("Got HTTP response {} with context: {}", response.getStatusCode(), context.getClass().getSimpleName());
-
+        ByteBuffer body;
         try {
+            body = bufferPool.read(response.getBodyAsStream());
+        } catch (IOException e) {
+            logger.error("Error reading HTTP response", e);
+            onHttpRequestFailure(e, context);
+            return;
+        }
+        try {
+            processResponse(context, response.getStatusCode(), body);
+        } finally {
+            bufferPool.release(body);
+        }
+    }
+
+    /**
+     * Processes a response received from a thermostat. The body is parsed in place and isn't referenced once this
+     * returns.
+     *
+     * @param context the request
+     * @param statusCode the HTTP status code
+     * @param body the UTF-8 encoded JSON response body
+     */
+    private void processResponse(Object context, int statusCode, ByteBuffer body) {
+        logger.trace("Got HTTP response {} with context: {}", statusCode, context.getClass().getSimpleName());
+
+        List<InfoRequest> callers;
+        InfoResponse last;
+        synchronized (this) {
+            // release the request's in-flight slot
+            long now = System.currentTimeMillis();
+            if (!completeRequest(context, now, true)) {
+                logger.debug("Ignoring late response to aborted request for {}", getURI(context));
+                return;
+            }
+            context = resolveHedgedResponse(context, now);
+
+            // a body that can't be parsed (e.g. an HTML error page) is reported to the state as an error (which
+            // logs it) so the request doesn't stay pending forever
             if (context instanceof RootRequest) {
-                state.onRootResponse(this, (RootRequest) context, new RootResponse(new JSONObject(new JSONTokener(response.getBodyAsStream()))), null);
-            } else if (context instanceof InfoRequest) {
-                state.onInfoResponse(this, (InfoRequest)context, new InfoResponse(new JSONObject(new JSONTokener(response.getBodyAsStream()))), null);
+                if (releaseCaller(context)) {
+                    RootRequest rr = (RootRequest)context;
+                    RootResponse response;
+                    try {
+                        response = new RootResponse(body);
+                    } catch (RuntimeException e) {
+                        state.onRootResponse(this, rr, null, e);
+                        return;
+                    }
+                    state.onRootResponse(this, rr, response, null);
+                }
+                return;
             } else if (context instanceof ControlRequest) {
-                state.onControlResponse(this, (ControlRequest) context, new ControlResponse(new JSONObject(new JSONTokener(response.getBodyAsStream()))), null);
-            } else {
+                if (releaseCaller(context)) {
+                    ControlRequest cr = (ControlRequest)context;
+                    ControlResponse response;
+                    try {
+                        response = new ControlResponse(body);
+                    } catch (RuntimeException e) {
+                        state.onControlResponse(this, cr, null, e);
+                        return;
+                    }
+                    state.onControlResponse(this, cr, response, null);
+                }
+                return;
+            } else if (!(context instanceof InfoRequest)) {
                 logger.error("Unknown HTTP response: " + context);
+                return;
+            }
+
+            // the callers are released now so they can no longer be cancelled while the body is parsed
+            InfoRequest request = (InfoRequest)context;
+            callers = new ArrayList<>(2);
+            for (InfoRequest caller : infoFlights.complete(request.getURI(), request)) {
+                if (releaseCaller(caller)) {
+                    callers.add(caller);
+                }
+            }
+            last = getLastInfoResponse(request);
+        }
+
+        // the response is parsed once (outside the lock so responses from different thermostats can be parsed in
+        // parallel) and handed to every caller attached to the request; a body identical to the last one processed
+        // for the thermostat reuses that response rather than being parsed again
+        InfoRequest request = (InfoRequest)context;
+        long fingerprint = ResponseFingerprint.hash(body);
+        InfoResponse info = last;
+        Throwable error = null;
+        if (info == null || !info.hasFingerprint(fingerprint, body.remaining())) {
+            try {
+                info = new InfoResponse(body, fingerprint);
+            } catch (RuntimeException e) {
+                logger.error("Error reading info response from " + request.getURI(), e);
+                info = null;
+                error = e;
+            }
+        }
+
+        synchronized (this) {
+            for (InfoRequest caller : callers) {
+                onInfoResponse(caller, info, error);
             }
-        } catch (IOException e) {
-            logger.error("Error reading HTTP response", e);
         }
     }
 
     @Override
-    public void onHttpRequestFailure(Throwable cause, Object context) {
+    public synchronized void onHttpRequestFailure(Throwable cause, Object context) {
         logger.debug("HTTP request failure", cause);
+
+        // release the request's in-flight slot
+        if (completeRequest(context, System.currentTimeMillis(), false)) {
+            failRequest(context, cause);
+        }
+    }
+
+    private void deliverFailure(Object context, Throwable cause) {
         if (context instanceof RootRequest) {
-            state.onRootResponse(this, (RootRequest) context, null, cause);
+            if (releaseCaller(context)) {
+                state.onRootResponse(this, (RootRequest) context, null, cause);
+            }
         } else if (context instanceof InfoRequest) {
-            state.onInfoResponse(this, (InfoRequest)context, null, cause);
+            InfoRequest request = (InfoRequest)context;
+            for (InfoRequest caller : infoFlights.complete(request.getURI(), request)) {
+                if (releaseCaller(caller)) {
+                    onInfoResponse(caller, null, cause);
+                }
+            }
         } else if (context instanceof ControlRequest) {
-            state.onControlResponse(this, (ControlRequest) context, null, cause);
+            if (releaseCaller(context)) {
+                state.onControlResponse(this, (ControlRequest) context, null, cause);
+            }
         } else {
             logger.error("Unknown HTTP request failure: " + context, cause);
         }
     }
 
+    /**
+     * Performs the bookkeeping for a request whose response (or failure) has been received.
+     *
+     * @param context the request
+     * @param now the current time
+     * @param success whether a response was received (only successful responses are used as latency samples)
+     *
+     * @return false if the request had been aborted and its response should be ignored
+     */
+    private boolean completeRequest(Object context, long now, boolean success) {
+        transportHandles.remove(context);
+        if (abortedRequests.remove(context)) {
+            return false;
+        }
+        admissionController.onComplete(context, now);
+        requestDeadlines.cancel(context);
+
+        PendingRequest pr = pendingRequests.get(context);
+        if (pr != null) {
+            if (success && pr.getDispatchTime() > 0) {
+                getLatencyTracker(getURI(context)).record(now - pr.getDispatchTime());
+            }
+            // a leader whose caller cancelled won't be released with the flight's callers
+            if (pr.isCancelled()) {
+                pendingRequests.remove(context);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases a caller whose request has completed.
+     *
+     * @param caller the caller's request
+     *
+     * @return false if the caller cancelled its request and shouldn't receive a callback
+     */
+    private boolean releaseCaller(Object caller) {
+        PendingRequest pr = pendingRequests.remove(caller);
+        if (pr != null) {
+            if (pr.isCancelled()) {
+                return false;
+            }
+            pr.setDone();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the last info response fully processed by the thermostat an info request was sent to.
+     *
+     * @param request the request
+     *
+     * @return an InfoResponse (or null if there isn't one or the request isn't for a known thermostat)
+     */
+    private InfoResponse getLastInfoResponse(InfoRequest request) {
+        if (request.hasDeviceId()) {
+            try {
+                return getThermostatDevice(request.getDeviceContext()).getLastInfoResponse();
+            } catch (HobsonNotFoundException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void onInfoResponse(InfoRequest request, InfoResponse response, Throwable error) {
+        state.onInfoResponse(this, request, response, error);
+    }
+
     // ***
     // StateContext methods
     // ***
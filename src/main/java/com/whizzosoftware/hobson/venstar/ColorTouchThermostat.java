@@ -9,6 +9,7 @@
 */
 package com.whizzosoftware.hobson.venstar;
 
+import com.whizzosoftware.hobson.api.HobsonRuntimeException;
 import com.whizzosoftware.hobson.api.device.AbstractHobsonDevice;
 import com.whizzosoftware.hobson.api.device.DeviceType;
 import com.whizzosoftware.hobson.api.plugin.HobsonPlugin;
@@ -19,7 +20,13 @@ import com.whizzosoftware.hobson.api.variable.VariableConstants;
 import com.whizzosoftware.hobson.api.variable.VariableContext;
 import com.whizzosoftware.hobson.api.variable.VariableUpdate;
 import com.whizzosoftware.hobson.venstar.api.ColorTouchChannel;
+import com.whizzosoftware.hobson.venstar.api.RequestHandle;
+import com.whizzosoftware.hobson.venstar.api.Tenths;
 import com.whizzosoftware.hobson.venstar.api.dto.*;
+import com.whizzosoftware.hobson.venstar.poll.AdaptivePollInterval;
+import com.whizzosoftware.hobson.venstar.poll.CircuitBreaker;
+import com.whizzosoftware.hobson.venstar.poll.PollSpread;
+import com.whizzosoftware.hobson.venstar.state.ConfirmationListener;
 import com.whizzosoftware.hobson.venstar.state.PendingConfirmation;
 import com.whizzosoftware.hobson.venstar.state.VariableState;
 import org.slf4j.Logger;
@@ -33,14 +40,25 @@ import java.util.List;
 /**
  * A HobsonDevice implementation for ColorTouch thermostats.
  *
+ * The plugin makes all calls that change a thermostat's state (refreshes, variable changes and responses) from a
+ * single thread at a time, but not necessarily while holding the plugin's lock (see ColorTouchPlugin). Fields the
+ * plugin reads from other threads are volatile.
+ *
  * @author Dan Noguerol
  */
 public class ColorTouchThermostat extends AbstractHobsonDevice {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     static final long DEFAULT_REFRESH_INTERVAL_IN_MS_NO_PENDING_CONFIRMS = 10000;
+    static final long DEFAULT_MAX_REFRESH_INTERVAL_IN_MS = 60000;
     private static final long DEFAULT_REFRESH_INTERVAL_IN_MS_PENDING_CONFIRMS = 1000;
-    private static final long DEFAULT_INFO_RESPONSE_TIMEOUT = 5000;
+    /**
+     * How long an info request can go without a response before it's assumed lost. The channel times out requests
+     * once they're sent so this only needs to cover the time a request can wait in the channel's queue plus the
+     * longest request timeout.
+     */
+    static final long LOST_INFO_REQUEST_TIMEOUT_IN_MS = 120000;
+    private static final PollSpread POLL_SPREAD = new PollSpread();
 
     private ColorTouchChannel channel;
     private URI uri;
@@ -49,36 +67,78 @@ public class ColorTouchThermostat extends AbstractHobsonDevice {
      * This represents the current state of the thermostat (based on the last info response received)
      */
     private VariableState currentState;
+    /**
+     * Scratch state that info responses are decoded into (reused since responses are processed one at a time)
+     */
+    private final VariableState responseState = new VariableState();
+    /**
+     * The contexts of this device's variables, indexed as in VariableState (created once so that diffing a response
+     * doesn't allocate them)
+     */
+    private final VariableContext[] variableContexts = new VariableContext[VariableState.VARIABLE_COUNT];
+    private final VariableContext targetTempContext;
+    /**
+     * The last info response that was fully processed (its body fingerprint lets an identical body skip parsing)
+     */
+    private volatile InfoResponse lastInfoResponse;
     /**
      * Indicates the last time the refresh() method was called
      */
     private long lastRefresh;
     /**
-     * Indicates the last time an info request was made
+     * The jitter factor applied to the current refresh interval (so the fleet's requests don't stay synchronized)
+     */
+    private double refreshJitter;
+    /**
+     * The refresh interval used when there are no pending confirmations (adapts to how often the thermostat changes)
      */
-    private Long pendingInfoRequestTime;
+    private final AdaptivePollInterval pollInterval = new AdaptivePollInterval(DEFAULT_REFRESH_INTERVAL_IN_MS_NO_PENDING_CONFIRMS, DEFAULT_MAX_REFRESH_INTERVAL_IN_MS);
+    /**
+     * Stops requests to the thermostat (with exponential backoff) while it is unreachable
+     */
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    /**
+     * The outstanding info request (if any) and the time it was made
+     */
+    private RequestHandle pendingInfoRequest;
+    private long pendingInfoRequestTime;
+    /**
+     * The pre-built URIs and encoded request used for every info request to this thermostat
+     */
+    private final InfoRequestTemplate infoRequestTemplate;
+    /**
+     * The pre-built URIs and encoded request head used for every control request to this thermostat
+     */
+    private final ControlRequestTemplate controlRequestTemplate;
     /**
      * This represents a pending confirmation we are awaiting (based on the last control request sent)
      */
     private final PendingConfirmation pendingConfirmation = new PendingConfirmation();
+    /**
+     * Notified when a pending confirmation is resolved (may be null)
+     */
+    private volatile ConfirmationListener confirmationListener;
 
     ColorTouchThermostat(HobsonPlugin plugin, ColorTouchChannel channel, URI uri, InfoResponse info) {
         super(plugin, uri.getHost().replace('.', '-'));
 
         this.channel = channel;
         this.uri = uri;
+        try {
+            this.infoRequestTemplate = new InfoRequestTemplate(uri, getContext());
+            this.controlRequestTemplate = new ControlRequestTemplate(uri, getContext());
+        } catch (URISyntaxException e) {
+            throw new HobsonRuntimeException("Invalid thermostat URI: " + uri, e);
+        }
+        for (int i=0; i < variableContexts.length; i++) {
+            variableContexts[i] = VariableContext.create(getContext(), VariableState.getVariableName(i));
+        }
+        this.targetTempContext = VariableContext.create(getContext(), VariableConstants.TARGET_TEMP_F);
         this.currentState = new VariableState();
         if (info != null) {
             this.defaultName = info.getName();
             // set the current state to the InfoResponse argument
-            this.currentState.update(
-                info.getOn(),
-                info.getMode().toString(),
-                info.getFanMode().toString(),
-                info.getSpaceTemp(),
-                info.getCoolTemp(),
-                info.getHeatTemp()
-            );
+            this.currentState.update(info);
         }
     }
 
@@ -86,12 +146,12 @@ public class ColorTouchThermostat extends AbstractHobsonDevice {
     public void onStartup(PropertyContainer config) {
         // publish necessary variables
         long now = System.currentTimeMillis();
-        publishVariable(VariableConstants.ON, currentState.getOn(), HobsonVariable.Mask.READ_ONLY, now);
-        publishVariable(VariableConstants.INDOOR_TEMP_F, currentState.getTempF(), HobsonVariable.Mask.READ_ONLY, now);
-        publishVariable(VariableConstants.TSTAT_MODE, currentState.getMode(), HobsonVariable.Mask.READ_WRITE, now);
-        publishVariable(VariableConstants.TSTAT_FAN_MODE, currentState.getFanMode(), HobsonVariable.Mask.READ_WRITE, now);
-        publishVariable(VariableConstants.TARGET_COOL_TEMP_F, currentState.getCoolTempF(), HobsonVariable.Mask.READ_WRITE, now);
-        publishVariable(VariableConstants.TARGET_HEAT_TEMP_F, currentState.getHeatTempF(), HobsonVariable.Mask.READ_WRITE, now);
+        publishVariable(VariableConstants.ON, currentState.getValue(VariableConstants.ON), HobsonVariable.Mask.READ_ONLY, now);
+        publishVariable(VariableConstants.INDOOR_TEMP_F, currentState.getValue(VariableConstants.INDOOR_TEMP_F), HobsonVariable.Mask.READ_ONLY, now);
+        publishVariable(VariableConstants.TSTAT_MODE, currentState.getValue(VariableConstants.TSTAT_MODE), HobsonVariable.Mask.READ_WRITE, now);
+        publishVariable(VariableConstants.TSTAT_FAN_MODE, currentState.getValue(VariableConstants.TSTAT_FAN_MODE), HobsonVariable.Mask.READ_WRITE, now);
+        publishVariable(VariableConstants.TARGET_COOL_TEMP_F, currentState.getValue(VariableConstants.TARGET_COOL_TEMP_F), HobsonVariable.Mask.READ_WRITE, now);
+        publishVariable(VariableConstants.TARGET_HEAT_TEMP_F, currentState.getValue(VariableConstants.TARGET_HEAT_TEMP_F), HobsonVariable.Mask.READ_WRITE, now);
     }
 
     @Override
@@ -123,27 +183,61 @@ public class ColorTouchThermostat extends AbstractHobsonDevice {
         // the ColorTouch thermostat doesn't have a way to just update a single property. We therefore query the
         // thermostat for its latest values (in case the thermostat was changed through other means in between refresh
         // intervals) and will send a full control request when a response is received
+        // set the pending confirmation state to new value
         try {
-            // set the pending confirmation state to new value
             pendingConfirmation.getState().setValue(name, value);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid value for variable " + name + " on device " + getContext() + ": " + value, e);
+            return;
+        }
+
+        // the thermostat is about to change so go back to the fastest refresh interval
+        pollInterval.reset();
 
-            // if we're not already waiting on an info response, send a new info request
-            if (pendingInfoRequestTime == null) {
-                channel.sendInfoRequest(new InfoRequest(getBaseURI(), getContext()));
-                pendingInfoRequestTime = System.currentTimeMillis();
+        // if we're not already waiting on an info response, send a new info request (unless the thermostat is
+        // unreachable in which case the pending confirmation will simply time out)
+        long now = System.currentTimeMillis();
+        if (pendingInfoRequest == null) {
+            if (circuitBreaker.allowRequest(now)) {
+                pendingInfoRequest = channel.sendInfoRequest(new InfoRequest(infoRequestTemplate, true));
+                pendingInfoRequestTime = now;
+            } else {
+                logger.debug("Thermostat {} is unreachable; not sending info request", getContext());
             }
-        } catch (URISyntaxException e) {
-            logger.error("Error refreshing thermostat: " + getContext(), e);
         }
     }
 
+    void setConfirmationListener(ConfirmationListener confirmationListener) {
+        this.confirmationListener = confirmationListener;
+    }
+
     URI getBaseURI() {
         return uri;
     }
 
+    void setMaxRefreshInterval(long maxRefreshInterval) {
+        pollInterval.setMaxInterval(maxRefreshInterval);
+    }
+
+    long getRefreshInterval() {
+        return pollInterval.getInterval();
+    }
+
+    /**
+     * Returns the time at which this thermostat should first be refreshed. This is offset from the current time by
+     * a stable phase so that thermostats added at the same time don't all poll in the same instant.
+     *
+     * @param now the current time
+     *
+     * @return a time in milliseconds
+     */
+    long getInitialRefreshTime(long now) {
+        return now + PollSpread.getPhase(getContext(), DEFAULT_REFRESH_INTERVAL_IN_MS_NO_PENDING_CONFIRMS);
+    }
+
     void onRefresh(long now) {
         // by default, our check interval assumes no pending control confirmations
-        long checkInterval = DEFAULT_REFRESH_INTERVAL_IN_MS_NO_PENDING_CONFIRMS;
+        long checkInterval = pollInterval.getInterval();
 
         // if we're waiting on a control request confirmation...
         if (hasPendingControlConfirmation()) {
@@ -151,6 +245,9 @@ public class ColorTouchThermostat extends AbstractHobsonDevice {
             if (pendingConfirmation.hasTimeout(now)) {
                 pendingConfirmation.clear();
                 logger.warn("A timeout occurred waiting for a control request confirmation");
+                if (confirmationListener != null) {
+                    confirmationListener.onConfirmationComplete(this, false, now);
+                }
             // otherwise, set the check interval appropriately (basically, we want to check with the thermostat more
             // frequently (up to a timeout interval) when there's a control request that's awaiting confirmation
             } else {
@@ -158,23 +255,58 @@ public class ColorTouchThermostat extends AbstractHobsonDevice {
             }
         }
 
-        // if we've exceeded the refresh interval and there's no pending info request or the last request timed out...
-        if (now - lastRefresh >= checkInterval && (pendingInfoRequestTime == null || now - pendingInfoRequestTime >= DEFAULT_INFO_RESPONSE_TIMEOUT)) {
+        // the channel times out info requests once they've been sent and reports that through onInfoResponse(); this
+        // is only a safety net so a lost request can't wedge the thermostat and, since the request may never have
+        // left the channel's queue, it isn't counted as a failure
+        if (pendingInfoRequest != null && now - pendingInfoRequestTime >= LOST_INFO_REQUEST_TIMEOUT_IN_MS) {
+            pendingInfoRequest.cancel();
+            pendingInfoRequest = null;
+        }
+
+        // if we've exceeded the refresh interval, there's no pending info request and the circuit breaker allows it...
+        if (now - lastRefresh >= PollSpread.applyJitter(checkInterval, refreshJitter) && pendingInfoRequest == null && circuitBreaker.allowRequest(now)) {
             // send a new info request to the thermostat
-            try {
-                channel.sendInfoRequest(new InfoRequest(getBaseURI(), getContext()));
-                pendingInfoRequestTime = System.currentTimeMillis();
-                lastRefresh = now;
-            } catch (URISyntaxException e) {
-                logger.error("Error refreshing thermostat: " + getContext(), e);
-            }
+            pendingInfoRequest = channel.sendInfoRequest(new InfoRequest(infoRequestTemplate, hasPendingControlConfirmation()));
+            pendingInfoRequestTime = now;
+            lastRefresh = now;
+            refreshJitter = POLL_SPREAD.nextJitter();
         }
     }
 
+    /**
+     * Returns the next time at which this thermostat will need its onRefresh() method called.
+     *
+     * @return a time in milliseconds
+     */
+    long getNextRefreshTime() {
+        long next = lastRefresh + PollSpread.applyJitter(hasPendingControlConfirmation() ? DEFAULT_REFRESH_INTERVAL_IN_MS_PENDING_CONFIRMS : pollInterval.getInterval(), refreshJitter);
+        if (pendingInfoRequest != null) {
+            next = Math.max(next, pendingInfoRequestTime + LOST_INFO_REQUEST_TIMEOUT_IN_MS);
+        }
+        if (circuitBreaker.isOpen()) {
+            next = Math.max(next, circuitBreaker.getNextAttemptTime());
+        }
+        return next;
+    }
+
     VariableState getCurrentState() {
         return currentState;
     }
 
+    /**
+     * Returns the last info response that was fully processed. A response body with the same fingerprint can be
+     * answered with this object rather than being parsed again.
+     *
+     * @return an InfoResponse (or null if there isn't one)
+     */
+    InfoResponse getLastInfoResponse() {
+        return lastInfoResponse;
+    }
+
+    CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
     boolean hasPendingControlConfirmation() {
         return pendingConfirmation.getState().hasValues();
     }
@@ -186,91 +318,93 @@ public class ColorTouchThermostat extends AbstractHobsonDevice {
      * @param error a Throwable if an HTTP protocol-level error occurred
      */
     public void onInfoResponse(InfoRequest request, InfoResponse response, Throwable error, long now) {
-        pendingInfoRequestTime = null;
+        pendingInfoRequest = null;
 
         // if it's a good response, process it
         if (response != null) {
             // flag the device as checked in
             setDeviceAvailability(true, now);
+            circuitBreaker.onSuccess();
+
+            // if this is the same response that was last processed, the thermostat's state hasn't changed and
+            // there's nothing to diff (unless a pending confirmation still needs to be checked against it)
+            if (response == lastInfoResponse && !hasPendingControlConfirmation() && currentState.hasValues()) {
+                pollInterval.onResponse(false);
+                return;
+            }
 
-            // create a new variable state based on the response
-            VariableState responseState = new VariableState(
-                response.getOn(),
-                response.getMode().toString(),
-                response.getFanMode().toString(),
-                response.getSpaceTemp(),
-                response.getCoolTemp(),
-                response.getHeatTemp()
-            );
+            // decode the response into the response state
+            responseState.update(response);
 
             // if the response state is not equal to the pending confirmation state, send a control request
+            boolean confirmed = false;
             if (!responseState.equals(pendingConfirmation.getState())) {
                 if (!pendingConfirmation.wasControlRequestSent()) {
+                    VariableState pending = pendingConfirmation.getState();
+                    VariableState heat = pending.hasHeatTempF() ? pending : responseState;
+                    VariableState cool = pending.hasCoolTempF() ? pending : responseState;
                     channel.sendControlRequest(new ControlRequest(
-                        uri,
-                        getContext(),
-                        pendingConfirmation.getState().hasMode() ? pendingConfirmation.getState().getMode() : responseState.getMode(),
-                        pendingConfirmation.getState().hasFanMode() ? pendingConfirmation.getState().getFanMode() : responseState.getFanMode(),
-                        pendingConfirmation.getState().hasHeatTempF() ? pendingConfirmation.getState().getHeatTempF() : responseState.getHeatTempF(),
-                        pendingConfirmation.getState().hasCoolTempF() ? pendingConfirmation.getState().getCoolTempF() : responseState.getCoolTempF(),
-                        response.getSetPointDelta(),
+                        controlRequestTemplate,
+                        pending.hasMode() ? pending.getMode() : responseState.getMode(),
+                        pending.hasFanMode() ? pending.getFanMode() : responseState.getFanMode(),
+                        heat.hasHeatTempF() ? heat.getHeatTempFTenths() : Tenths.NONE,
+                        cool.hasCoolTempF() ? cool.getCoolTempFTenths() : Tenths.NONE,
+                        response.getSetPointDeltaTenths(),
                         null)
                     );
                     pendingConfirmation.flagControlRequestSent(now);
                 }
             } else {
+                confirmed = pendingConfirmation.getState().hasValues();
                 pendingConfirmation.clear();
             }
 
-            // build a list of variable updates based on any changes differences between current and response state
-            List<VariableUpdate> updates = new ArrayList<>();
-            if (!currentState.hasOn() || !currentState.getOn().equals(responseState.getOn())) {
-                updates.add(new VariableUpdate(VariableContext.create(getContext(), VariableConstants.ON), responseState.getOn()));
-            }
-            if (!currentState.hasMode() || !currentState.getMode().equals(responseState.getMode())) {
-                updates.add(new VariableUpdate(VariableContext.create(getContext(), VariableConstants.TSTAT_MODE), responseState.getMode()));
-            }
-            if (!currentState.hasFanMode() || !currentState.getFanMode().equals(responseState.getFanMode())) {
-                updates.add(new VariableUpdate(VariableContext.create(getContext(), VariableConstants.TSTAT_FAN_MODE), responseState.getFanMode()));
-            }
-            if (!currentState.hasTempF() || !currentState.getTempF().equals(responseState.getTempF())) {
-                updates.add(new VariableUpdate(VariableContext.create(getContext(), VariableConstants.INDOOR_TEMP_F), responseState.getTempF()));
-            }
-            if (!currentState.hasCoolTempF() || !currentState.getCoolTempF().equals(responseState.getCoolTempF())) {
-                updates.add(new VariableUpdate(VariableContext.create(getContext(), VariableConstants.TARGET_COOL_TEMP_F), responseState.getCoolTempF()));
-            }
-            if (!currentState.hasHeatTempF() || !currentState.getHeatTempF().equals(responseState.getHeatTempF())) {
-                updates.add(new VariableUpdate(VariableContext.create(getContext(), VariableConstants.TARGET_HEAT_TEMP_F), responseState.getHeatTempF()));
-            }
-
-            // fire variable update notifications if necessary
-            if (updates.size() > 0) {
+            // diff the current and response states and post updates for any variables that changed
+            int changed = currentState.diff(responseState);
+            if (changed != 0) {
+                List<VariableUpdate> updates = new ArrayList<>(Integer.bitCount(changed));
+                for (int i=0; i < VariableState.VARIABLE_COUNT; i++) {
+                    if ((changed & (1 << i)) != 0) {
+                        updates.add(new VariableUpdate(variableContexts[i], responseState.getValue(i)));
+                    }
+                }
                 fireVariableUpdateNotifications(updates);
             }
 
+            // adjust the refresh interval based on whether anything changed
+            pollInterval.onResponse(changed != 0);
+
             // update the current state to reflect the response state
-            currentState.update(
-                responseState.getOn(),
-                responseState.getMode(),
-                responseState.getFanMode(),
-                responseState.getTempF(),
-                responseState.getCoolTempF(),
-                responseState.getHeatTempF()
-            );
+            currentState.update(responseState);
+            lastInfoResponse = response;
+
+            if (confirmed && confirmationListener != null) {
+                confirmationListener.onConfirmationComplete(this, true, now);
+            }
         // if it's an error, clear the current state
         } else if (error != null) {
-            logger.error("Error retrieving state info for device " + getContext() + " at " + request.getURI(), error);
+            if (circuitBreaker.onFailure(now)) {
+                logger.error("Error retrieving state info for device " + getContext() + " at " + request.getURI() + "; backing off until " + circuitBreaker.getNextAttemptTime(), error);
+            } else if (circuitBreaker.getConsecutiveFailures() == 1) {
+                logger.warn("Error retrieving state info for device " + getContext() + " at " + request.getURI(), error);
+            } else {
+                logger.debug("Error retrieving state info for device " + getContext(), error);
+            }
+
+            // if we still had values, post a null variable update to indicate we no longer know them (there's no
+            // need to repeat this for every failure while the thermostat is unreachable)
+            if (currentState.hasValues()) {
+                List<VariableUpdate> updates = new ArrayList<>(4);
+                updates.add(new VariableUpdate(getVariableContext(VariableState.MODE), null));
+                updates.add(new VariableUpdate(getVariableContext(VariableState.FAN_MODE), null));
+                updates.add(new VariableUpdate(getVariableContext(VariableState.TEMP_F), null));
+                updates.add(new VariableUpdate(targetTempContext, null));
+                fireVariableUpdateNotifications(updates);
+            }
 
             // reset the last recorded values to force an update when new values are received
             currentState.clear();
-
-            // post a null variable update to indicate we no longer know the current values
-            List<VariableUpdate> updates = new ArrayList<>();
-            updates.add(new VariableUpdate(VariableContext.create(getContext(), VariableConstants.TSTAT_MODE), null));
-            updates.add(new VariableUpdate(VariableContext.create(getContext(), VariableConstants.TSTAT_FAN_MODE), null));
-            updates.add(new VariableUpdate(VariableContext.create(getContext(), VariableConstants.INDOOR_TEMP_F), null));
-            updates.add(new VariableUpdate(VariableContext.create(getContext(), VariableConstants.TARGET_TEMP_F), null));
-            fireVariableUpdateNotifications(updates);
+            lastInfoResponse = null;
         }
     }
 
@@ -290,4 +424,15 @@ public class ColorTouchThermostat extends AbstractHobsonDevice {
             logger.error("Error sending control request for device " + getContext(), error);
         }
     }
+
+    /**
+     * Returns the cached context of a variable.
+     *
+     * @param variable the variable's bit in VariableState (e.g. VariableState.MODE)
+     *
+     * @return a VariableContext
+     */
+    private VariableContext getVariableContext(int variable) {
+        return variableContexts[Integer.numberOfTrailingZeros(variable)];
+    }
 }
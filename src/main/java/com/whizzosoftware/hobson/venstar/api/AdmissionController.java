@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+import java.util.*;
+
+/**
+ * Caps the number of requests that can be in-flight to thermostats at any one time. Requests submitted while the
+ * cap has been reached are queued by priority and dispatched as in-flight requests complete.
+ *
+ * Queued requests are normally dispatched highest priority first. To prevent starvation, a priority class whose
+ * oldest request has waited longer than the class's maximum wait is served first (if several classes are starved,
+ * the one with the oldest request wins).
+ *
+ * This class makes no allowances for synchronization or thread safety; the plugin serializes all calls to it.
+ *
+ * @author Dan Noguerol
+ */
+public class AdmissionController {
+    private static final RequestPriority[] PRIORITIES = RequestPriority.values();
+
+    private final Dispatcher dispatcher;
+    private int maxInFlight;
+    private final Set<Object> inFlight = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+    private final List<Deque<QueuedRequest>> queues = new ArrayList<>(PRIORITIES.length);
+    private int queueDepth;
+
+    /**
+     * Constructor.
+     *
+     * @param maxInFlight the maximum number of concurrent in-flight requests
+     * @param dispatcher the object that performs the actual request send
+     */
+    public AdmissionController(int maxInFlight, Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        for (int i=0; i < PRIORITIES.length; i++) {
+            queues.add(new ArrayDeque<QueuedRequest>());
+        }
+        setMaxInFlight(maxInFlight);
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Maximum in-flight requests must be greater than 0");
+        }
+        this.maxInFlight = maxInFlight;
+        dispatchQueued(System.currentTimeMillis());
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getQueueDepth(RequestPriority priority) {
+        return queues.get(priority.ordinal()).size();
+    }
+
+    /**
+     * Submits a request. It is dispatched immediately if there is room under the in-flight cap; otherwise it is
+     * queued.
+     *
+     * @param request the request
+     * @param priority the request's priority class
+     * @param now the current time
+     */
+    public void submit(Object request, RequestPriority priority, long now) {
+        if (inFlight.size() < maxInFlight && queueDepth == 0) {
+            dispatch(request);
+        } else {
+            queues.get(priority.ordinal()).add(new QueuedRequest(request, now));
+            queueDepth++;
+            dispatchQueued(now);
+        }
+    }
+
+    /**
+     * Signals that a request has completed (either successfully or with a failure) so its slot can be released.
+     *
+     * @param request the request
+     * @param now the current time
+     *
+     * @return a boolean indicating whether the request was being tracked as in-flight
+     */
+    public boolean onComplete(Object request, long now) {
+        boolean removed = inFlight.remove(request);
+        if (removed) {
+            dispatchQueued(now);
+        }
+        return removed;
+    }
+
+    public boolean isInFlight(Object request) {
+        return inFlight.contains(request);
+    }
+
+    /**
+     * Cancels a request. If it's in-flight, its slot is released; if it's queued, it's removed from the queue.
+     *
+     * @param request the request
+     * @param now the current time
+     *
+     * @return a boolean indicating whether the request was found
+     */
+    public boolean cancel(Object request, long now) {
+        if (onComplete(request, now)) {
+            return true;
+        }
+        for (Deque<QueuedRequest> q : queues) {
+            for (Iterator<QueuedRequest> it = q.iterator(); it.hasNext();) {
+                if (it.next().request == request) {
+                    it.remove();
+                    queueDepth--;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Raises the priority of a queued request (e.g. when a higher priority caller has been attached to it). The
+     * request keeps its original queue time. This has no effect if the request isn't queued or is already queued at
+     * the same or a higher priority.
+     *
+     * @param request the request
+     * @param priority the new priority
+     *
+     * @return a boolean indicating whether the request was moved
+     */
+    public boolean promote(Object request, RequestPriority priority) {
+        for (int i=PRIORITIES.length - 1; i > priority.ordinal(); i--) {
+            Iterator<QueuedRequest> it = queues.get(i).iterator();
+            while (it.hasNext()) {
+                QueuedRequest qr = it.next();
+                if (qr.request == request) {
+                    it.remove();
+                    queues.get(priority.ordinal()).add(qr);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void dispatchQueued(long now) {
+        while (inFlight.size() < maxInFlight && queueDepth > 0) {
+            QueuedRequest qr = nextQueue(now).poll();
+            queueDepth--;
+            dispatch(qr.request);
+        }
+    }
+
+    /**
+     * Returns the queue that the next request should be taken from.
+     *
+     * @param now the current time
+     *
+     * @return a non-empty queue
+     */
+    private Deque<QueuedRequest> nextQueue(long now) {
+        Deque<QueuedRequest> highest = null;
+        Deque<QueuedRequest> starved = null;
+        for (int i=0; i < PRIORITIES.length; i++) {
+            Deque<QueuedRequest> q = queues.get(i);
+            QueuedRequest head = q.peek();
+            if (head != null) {
+                if (highest == null) {
+                    highest = q;
+                }
+                if (now - head.time >= PRIORITIES[i].getMaxWait() && (starved == null || head.time < starved.peek().time)) {
+                    starved = q;
+                }
+            }
+        }
+        return (starved != null) ? starved : highest;
+    }
+
+    private void dispatch(Object request) {
+        inFlight.add(request);
+        dispatcher.dispatch(request);
+    }
+
+    /**
+     * An interface for the object that performs the actual send of an admitted request.
+     */
+    public interface Dispatcher {
+        void dispatch(Object request);
+    }
+
+    private static class QueuedRequest {
+        private final Object request;
+        private final long time;
+
+        QueuedRequest(Object request, long time) {
+            this.request = request;
+            this.time = time;
+        }
+    }
+}
@@ -5,12 +5,13 @@ import com.whizzosoftware.hobson.venstar.api.dto.InfoRequest;
 import com.whizzosoftware.hobson.venstar.api.dto.RootRequest;
 
 /**
- * An interface for sending requests to ColorTouch thermostats.
+ * An interface for sending requests to ColorTouch thermostats. Each send method returns a handle that can be used
+ * to cancel the request.
  *
  * @author Dan Noguerol
  */
 public interface ColorTouchChannel {
-    public void sendRootRequest(RootRequest request);
-    public void sendInfoRequest(InfoRequest request);
-    public void sendControlRequest(ControlRequest request);
+    public RequestHandle sendRootRequest(RootRequest request);
+    public RequestHandle sendInfoRequest(InfoRequest request);
+    public RequestHandle sendControlRequest(ControlRequest request);
 }
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+/**
+ * Caps the extra load created by hedged requests. Every regular request earns a fraction of a token and every
+ * hedged request spends a whole one, so hedges can never exceed that fraction of regular requests (plus a small
+ * burst allowance).
+ *
+ * @author Dan Noguerol
+ */
+public class HedgeBudget {
+    public static final double DEFAULT_RATIO = 0.05;
+    public static final double DEFAULT_MAX_TOKENS = 10;
+    private static final double EPSILON = 1e-9;
+
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    public HedgeBudget() {
+        this(DEFAULT_RATIO, DEFAULT_MAX_TOKENS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ratio the maximum number of hedged requests per regular request
+     * @param maxTokens the maximum number of hedged requests that can be saved up for a burst
+     */
+    public HedgeBudget(double ratio, double maxTokens) {
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+    }
+
+    public double getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Records that a regular request was sent.
+     */
+    public void onRequest() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    /**
+     * Attempts to spend a token on a hedged request.
+     *
+     * @return true if the hedged request can be sent
+     */
+    public boolean tryAcquire() {
+        // allow for floating point error accumulated from adding up fractional tokens
+        if (tokens >= 1 - EPSILON) {
+            tokens = Math.max(0, tokens - 1);
+            return true;
+        }
+        return false;
+    }
+}
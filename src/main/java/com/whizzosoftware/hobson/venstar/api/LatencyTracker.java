@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the recent response latencies of a single thermostat host and derives a request timeout from them. The
+ * timeout is a high percentile of the recent latencies times a multiplier (clamped to a sane range) so that a
+ * consistently fast thermostat gets a short timeout while a slow one isn't cut off prematurely. Until enough
+ * samples have been collected, a default timeout is used.
+ *
+ * @author Dan Noguerol
+ */
+public class LatencyTracker {
+    public static final int DEFAULT_SAMPLE_SIZE = 64;
+    public static final int MIN_SAMPLES = 8;
+    public static final long DEFAULT_TIMEOUT = 5000;
+    public static final long MIN_TIMEOUT = 1000;
+    public static final long MAX_TIMEOUT = 30000;
+    public static final double DEFAULT_PERCENTILE = 0.99;
+    public static final double DEFAULT_MULTIPLIER = 3.0;
+
+    private final long[] samples;
+    private final long[] sorted;
+    private int count;
+    private int next;
+    private boolean sortedValid;
+
+    public LatencyTracker() {
+        this(DEFAULT_SAMPLE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param sampleSize the number of most recent latencies to keep
+     */
+    public LatencyTracker(int sampleSize) {
+        this.samples = new long[sampleSize];
+        this.sorted = new long[sampleSize];
+    }
+
+    /**
+     * Records a latency sample.
+     *
+     * @param latency the latency in milliseconds
+     */
+    public void record(long latency) {
+        samples[next] = latency;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+        sortedValid = false;
+    }
+
+    public int getSampleCount() {
+        return count;
+    }
+
+    /**
+     * Returns a percentile of the recorded latencies (using the nearest-rank method).
+     *
+     * @param percentile the percentile (between 0 and 1)
+     *
+     * @return a latency in milliseconds (or 0 if there are no samples)
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        if (!sortedValid) {
+            System.arraycopy(samples, 0, sorted, 0, count);
+            Arrays.sort(sorted, 0, count);
+            sortedValid = true;
+        }
+        int rank = (int)Math.ceil(percentile * count);
+        return sorted[Math.min(Math.max(rank, 1), count) - 1];
+    }
+
+    /**
+     * Returns the timeout to use for the next request to the host.
+     *
+     * @return a timeout in milliseconds
+     */
+    public long getTimeout() {
+        if (count < MIN_SAMPLES) {
+            return DEFAULT_TIMEOUT;
+        }
+        long timeout = (long)(getPercentile(DEFAULT_PERCENTILE) * DEFAULT_MULTIPLIER);
+        return Math.min(Math.max(timeout, MIN_TIMEOUT), MAX_TIMEOUT);
+    }
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+/**
+ * A RequestHandle implementation that tracks the state of a single request.
+ *
+ * @author Dan Noguerol
+ */
+public class PendingRequest implements RequestHandle {
+    private final Object request;
+    private final long timeout;
+    private final CancelListener listener;
+    private long dispatchTime;
+    private volatile boolean done;
+    private volatile boolean cancelled;
+
+    /**
+     * Constructor.
+     *
+     * @param request the request
+     * @param timeout the request timeout in milliseconds
+     * @param listener a listener to notify when the request is cancelled (or null)
+     */
+    public PendingRequest(Object request, long timeout, CancelListener listener) {
+        this.request = request;
+        this.timeout = timeout;
+        this.listener = listener;
+    }
+
+    public Object getRequest() {
+        return request;
+    }
+
+    @Override
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns the time at which the request was actually sent.
+     *
+     * @return a time in milliseconds (or 0 if it hasn't been sent yet)
+     */
+    public long getDispatchTime() {
+        return dispatchTime;
+    }
+
+    public void setDispatchTime(long dispatchTime) {
+        this.dispatchTime = dispatchTime;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Marks the request as complete.
+     */
+    public void setDone() {
+        this.done = true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean cancel() {
+        if (done) {
+            return false;
+        }
+        done = true;
+        cancelled = true;
+        if (listener != null) {
+            listener.onCancel(this);
+        }
+        return true;
+    }
+
+    /**
+     * An interface for the object that needs to release a request's resources when it is cancelled.
+     */
+    public interface CancelListener {
+        void onCancel(PendingRequest request);
+    }
+}
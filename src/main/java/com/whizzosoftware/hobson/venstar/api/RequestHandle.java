@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+/**
+ * A handle to a request sent through a ColorTouchChannel.
+ *
+ * @author Dan Noguerol
+ */
+public interface RequestHandle {
+    /**
+     * Returns the time after which the request will be considered timed out.
+     *
+     * @return a timeout in milliseconds
+     */
+    long getTimeout();
+
+    /**
+     * Indicates whether the request has completed (successfully, with a failure or by being cancelled).
+     *
+     * @return a boolean
+     */
+    boolean isDone();
+
+    boolean isCancelled();
+
+    /**
+     * Cancels the request. A cancelled request receives no response callback and, if no other caller is waiting on
+     * the same underlying request, the underlying request is aborted.
+     *
+     * @return true if the request was cancelled; false if it had already completed
+     */
+    boolean cancel();
+}
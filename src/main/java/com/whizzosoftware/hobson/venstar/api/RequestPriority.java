@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+/**
+ * An enumeration of the priority classes for requests to thermostats (highest priority first). Each class has a
+ * maximum queue wait after which it is served ahead of higher priority classes so it can't be starved.
+ *
+ * @author Dan Noguerol
+ */
+public enum RequestPriority {
+    /**
+     * Control requests that change a thermostat's settings.
+     */
+    CONTROL(500),
+    /**
+     * Info requests used to confirm that a control request took effect.
+     */
+    CONFIRMATION(1000),
+    /**
+     * Root and info requests sent to newly discovered thermostats.
+     */
+    DISCOVERY(5000),
+    /**
+     * Routine info requests used to refresh thermostat state.
+     */
+    POLL(10000);
+
+    private final long maxWait;
+
+    RequestPriority(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Returns the longest time (in milliseconds) a request in this class should wait in the queue before it is
+     * served ahead of higher priority requests.
+     *
+     * @return a time in milliseconds
+     */
+    public long getMaxWait() {
+        return maxWait;
+    }
+}
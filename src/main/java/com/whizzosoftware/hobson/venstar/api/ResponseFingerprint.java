@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Computes a cheap fingerprint of a response body (a 64-bit FNV-1a hash) so that a body identical to the previous
+ * one from the same thermostat can be recognized without parsing it. The body's length should be compared along
+ * with the hash.
+ *
+ * @author Dan Noguerol
+ */
+public class ResponseFingerprint {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ResponseFingerprint() {
+    }
+
+    /**
+     * Hashes the remaining bytes of a buffer.
+     *
+     * @param body the body (its position is not changed)
+     *
+     * @return the hash
+     */
+    public static long hash(ByteBuffer body) {
+        long h = FNV_OFFSET_BASIS;
+        if (body.hasArray()) {
+            byte[] b = body.array();
+            for (int i=body.arrayOffset() + body.position(), end=body.arrayOffset() + body.limit(); i < end; i++) {
+                h = (h ^ (b[i] & 0xff)) * FNV_PRIME;
+            }
+        } else {
+            for (int i=body.position(), end=body.limit(); i < end; i++) {
+                h = (h ^ (body.get(i) & 0xff)) * FNV_PRIME;
+            }
+        }
+        return h;
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+import java.util.*;
+
+/**
+ * Collapses concurrent requests for the same key into a single in-flight request. The first caller to join a key
+ * becomes the leader and is responsible for actually sending its request; callers that join while the leader is
+ * outstanding are attached to it. When the leader completes, all attached callers are returned so they can be
+ * handed the same result.
+ *
+ * This class makes no allowances for synchronization or thread safety; the plugin serializes all calls to it.
+ *
+ * @author Dan Noguerol
+ */
+public class SingleFlight<K,V> {
+    private final Map<K,Flight<V>> flights = new HashMap<>();
+
+    /**
+     * Joins the flight for a key, creating it if there isn't one.
+     *
+     * @param key the key (e.g. a thermostat URI)
+     * @param caller the caller's request
+     *
+     * @return true if the caller is the leader of a new flight (and should send its request)
+     */
+    public boolean join(K key, V caller) {
+        Flight<V> flight = flights.get(key);
+        if (flight == null) {
+            flights.put(key, new Flight<>(caller));
+            return true;
+        } else {
+            flight.callers.add(caller);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the leader of the flight for a key.
+     *
+     * @param key the key
+     *
+     * @return the leader's request or null if there is no flight for the key
+     */
+    public V getLeader(K key) {
+        Flight<V> flight = flights.get(key);
+        return (flight != null) ? flight.leader : null;
+    }
+
+    public boolean isInFlight(K key) {
+        return flights.containsKey(key);
+    }
+
+    /**
+     * Returns the number of callers attached to the flight for a key (including its leader unless it has left).
+     *
+     * @param key the key
+     *
+     * @return an int
+     */
+    public int getCallerCount(K key) {
+        Flight<V> flight = flights.get(key);
+        return (flight != null) ? flight.callers.size() : 0;
+    }
+
+    public int size() {
+        return flights.size();
+    }
+
+    /**
+     * Detaches a caller from the flight for a key. If it was the last caller, the flight is ended.
+     *
+     * @param key the key
+     * @param caller the caller's request
+     *
+     * @return the leader's request if the flight was ended (so the caller can abort it); null otherwise
+     */
+    public V leave(K key, V caller) {
+        Flight<V> flight = flights.get(key);
+        if (flight != null) {
+            for (Iterator<V> it = flight.callers.iterator(); it.hasNext();) {
+                if (it.next() == caller) {
+                    it.remove();
+                    if (flight.callers.isEmpty()) {
+                        flights.remove(key);
+                        return flight.leader;
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Completes the flight for a key.
+     *
+     * @param key the key
+     * @param leader the request that completed
+     *
+     * @return all callers still attached to the flight, leader first (if the request isn't the leader of the key's
+     * current flight, a list containing only the request is returned and the flight is left untouched)
+     */
+    public List<V> complete(K key, V leader) {
+        Flight<V> flight = flights.get(key);
+        if (flight != null && flight.leader == leader) {
+            flights.remove(key);
+            return flight.callers;
+        } else {
+            return Collections.singletonList(leader);
+        }
+    }
+
+    private static class Flight<V> {
+        private final V leader;
+        private final List<V> callers = new ArrayList<>(2);
+
+        Flight(V leader) {
+            this.leader = leader;
+            this.callers.add(leader);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+/**
+ * Helpers for temperatures held as fixed-point ints in tenths of a degree (e.g. 72.5 is held as 725). Thermostats
+ * report and accept temperatures with at most one decimal place, so this representation is exact: values can be
+ * compared with == and formatted without going through floating point. An absent value is represented by NONE.
+ *
+ * @author Dan Noguerol
+ */
+public class Tenths {
+    /**
+     * Represents an absent value
+     */
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private Tenths() {
+    }
+
+    /**
+     * Converts a floating point value to tenths, rounding to the nearest tenth (ties to even).
+     *
+     * @param value the value
+     *
+     * @return the value in tenths
+     */
+    public static int valueOf(double value) {
+        double d = Math.rint(value * 10);
+        // written so that NaN (which fails every comparison) is rejected too
+        if (!(d > NONE && d < Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("Value out of range: " + value);
+        }
+        return (int)d;
+    }
+
+    /**
+     * Converts a (possibly null) floating point value to tenths.
+     *
+     * @param value the value
+     *
+     * @return the value in tenths or NONE if the value is null
+     */
+    public static int valueOf(Double value) {
+        return (value != null) ? valueOf(value.doubleValue()) : NONE;
+    }
+
+    public static double toDouble(int tenths) {
+        return tenths / 10.0;
+    }
+
+    /**
+     * Converts a value in tenths to a (boxed) floating point value.
+     *
+     * @param tenths the value in tenths
+     *
+     * @return the value or null if it is NONE
+     */
+    public static Double toNullableDouble(int tenths) {
+        return (tenths != NONE) ? tenths / 10.0 : null;
+    }
+
+    /**
+     * Appends a value in tenths in the same form Double.toString() produces for it (e.g. "72.0" or "-0.5").
+     *
+     * @param sb the builder to append to
+     * @param tenths the value in tenths
+     *
+     * @return the builder
+     */
+    public static StringBuilder append(StringBuilder sb, int tenths) {
+        int abs = Math.abs(tenths);
+        if (tenths < 0) {
+            sb.append('-');
+        }
+        return sb.append(abs / 10).append('.').append((char)('0' + abs % 10));
+    }
+
+    public static String toString(int tenths) {
+        return append(new StringBuilder(8), tenths).toString();
+    }
+}
@@ -10,6 +10,7 @@ package com.whizzosoftware.hobson.venstar.api.dto;
 import com.whizzosoftware.hobson.api.HobsonRuntimeException;
 import com.whizzosoftware.hobson.api.device.DeviceContext;
 import com.whizzosoftware.hobson.api.plugin.http.URLEncoderUtil;
+import com.whizzosoftware.hobson.venstar.api.Tenths;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
@@ -23,13 +24,12 @@ import java.util.Map;
  * @author Dan Noguerol
  */
 public class ControlRequest {
-    private URI baseURI;
-    private URI uri;
-    private DeviceContext deviceContext;
+    private final ControlRequestTemplate template;
     private Integer mode;
     private Integer fan;
-    private Double heatTemp;
-    private Double coolTemp;
+    // temperatures are held in tenths of a degree (Tenths.NONE if absent)
+    private int heatTemp = Tenths.NONE;
+    private int coolTemp = Tenths.NONE;
     private Integer pin;
 
     public ControlRequest(URI baseURI, DeviceContext deviceContext, String mode, String fan, Double heatTemp, Double coolTemp, Double setPointDelta, Integer pin) {
@@ -37,42 +37,70 @@ public class ControlRequest {
     }
 
     public ControlRequest(URI baseURI, DeviceContext deviceContext, ThermostatMode mode, FanMode fan, Double heatTemp, Double coolTemp, Double setPointDelta, Integer pin) {
-        try {
-            // according to the documentation, when the thermostat mode is "AUTO", cooltemp has to be higher than
-            // heattemp and they have to be setpointdelta units apart.
-            if (mode == ThermostatMode.AUTO) {
-                if (Math.abs(coolTemp - heatTemp) < setPointDelta) {
-                    throw new HobsonRuntimeException("cooltemp must be " + setPointDelta + " units higher than heattemp when thermostat mode is AUTO");
-                }
-            }
+        this(baseURI, deviceContext, mode, fan, Tenths.valueOf(heatTemp), Tenths.valueOf(coolTemp), Tenths.valueOf(setPointDelta), pin);
+    }
 
-            this.baseURI = baseURI;
-            this.uri = new URI(baseURI.getScheme(), baseURI.getHost(), "/control", null);
-            this.deviceContext = deviceContext;
-            if (mode != null) {
-                this.mode = mode.ordinal();
+    public ControlRequest(URI baseURI, DeviceContext deviceContext, ThermostatMode mode, FanMode fan, int heatTemp, int coolTemp, int setPointDelta, Integer pin) {
+        this(createTemplate(baseURI, deviceContext), mode, fan, heatTemp, coolTemp, setPointDelta, pin);
+    }
+
+    /**
+     * Constructor that takes temperatures in tenths of a degree (see Tenths).
+     *
+     * @param template the thermostat's control request template
+     * @param mode the thermostat mode (or null)
+     * @param fan the fan mode (or null)
+     * @param heatTemp the heat set point in tenths (or Tenths.NONE)
+     * @param coolTemp the cool set point in tenths (or Tenths.NONE)
+     * @param setPointDelta the minimum difference between set points in tenths (or Tenths.NONE)
+     * @param pin the thermostat's PIN (or null)
+     */
+    public ControlRequest(ControlRequestTemplate template, ThermostatMode mode, FanMode fan, int heatTemp, int coolTemp, int setPointDelta, Integer pin) {
+        // according to the documentation, when the thermostat mode is "AUTO", cooltemp has to be higher than
+        // heattemp and they have to be setpointdelta units apart.
+        if (mode == ThermostatMode.AUTO) {
+            if (heatTemp == Tenths.NONE || coolTemp == Tenths.NONE) {
+                throw new HobsonRuntimeException("cooltemp and heattemp are required when thermostat mode is AUTO");
             }
-            if (fan != null) {
-                this.fan = fan.ordinal();
+            if (setPointDelta != Tenths.NONE && Math.abs(coolTemp - heatTemp) < setPointDelta) {
+                throw new HobsonRuntimeException("cooltemp must be " + Tenths.toString(setPointDelta) + " units higher than heattemp when thermostat mode is AUTO");
             }
-            this.heatTemp = heatTemp;
-            this.coolTemp = coolTemp;
-            this.pin = pin;
+        }
+
+        this.template = template;
+        if (mode != null) {
+            this.mode = mode.ordinal();
+        }
+        if (fan != null) {
+            this.fan = fan.ordinal();
+        }
+        this.heatTemp = heatTemp;
+        this.coolTemp = coolTemp;
+        this.pin = pin;
+    }
+
+    private static ControlRequestTemplate createTemplate(URI baseURI, DeviceContext deviceContext) {
+        try {
+            return new ControlRequestTemplate(baseURI, deviceContext);
         } catch (URISyntaxException e) {
             throw new HobsonRuntimeException("Invalid base request URI: " + baseURI.toString(), e);
         }
     }
 
+    public ControlRequestTemplate getTemplate() {
+        return template;
+    }
+
     public URI getBaseURI() {
-        return baseURI;
+        return template.getBaseURI();
     }
 
     public URI getURI() {
-        return uri;
+        return template.getURI();
     }
 
     public DeviceContext getDeviceContext() {
-        return deviceContext;
+        return template.getDeviceContext();
     }
 
     public Integer getMode() {
@@ -84,10 +112,18 @@ public class ControlRequest {
     }
 
     public Double getHeatTemp() {
+        return Tenths.toNullableDouble(heatTemp);
+    }
+
+    public int getHeatTempTenths() {
         return heatTemp;
     }
 
     public Double getCoolTemp() {
+        return Tenths.toNullableDouble(coolTemp);
+    }
+
+    public int getCoolTempTenths() {
         return coolTemp;
     }
 
@@ -102,11 +138,11 @@ public class ControlRequest {
         if (this.fan == null && fan != null) {
             this.fan = fan.ordinal();
         }
-        if (this.heatTemp == null) {
-            this.heatTemp = heatTemp;
+        if (this.heatTemp == Tenths.NONE) {
+            this.heatTemp = Tenths.valueOf(heatTemp);
         }
-        if (this.coolTemp == null) {
-            this.coolTemp = coolTemp;
+        if (this.coolTemp == Tenths.NONE) {
+            this.coolTemp = Tenths.valueOf(coolTemp);
         }
         if (this.pin == null) {
             this.pin = pin;
@@ -121,11 +157,11 @@ public class ControlRequest {
         if (fan != null) {
             pairs.put("fan", fan.toString());
         }
-        if (heatTemp != null) {
-            pairs.put("heattemp", heatTemp.toString());
+        if (heatTemp != Tenths.NONE) {
+            pairs.put("heattemp", Tenths.toString(heatTemp));
         }
-        if (coolTemp != null) {
-            pairs.put("cooltemp", coolTemp.toString());
+        if (coolTemp != Tenths.NONE) {
+            pairs.put("cooltemp", Tenths.toString(coolTemp));
         }
         if (pin != null) {
             pairs.put("pin", pin.toString());
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.dto;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.venstar.api.http.HttpRequestEncoder;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * The immutable parts of the control requests sent to a thermostat: its URIs and the encoded HTTP request head up to
+ * the Content-Length value. A thermostat builds its template once so that encoding a control request only has to
+ * write the body's length and the body itself.
+ *
+ * @author Dan Noguerol
+ */
+public class ControlRequestTemplate {
+    private final URI baseURI;
+    private final URI uri;
+    private final DeviceContext deviceContext;
+    private final byte[] headPrefix;
+
+    /**
+     * Constructor.
+     *
+     * @param baseURI the thermostat's base URI
+     * @param deviceContext the thermostat's device context (or null)
+     *
+     * @throws URISyntaxException if the control URI can't be built from the base URI
+     */
+    public ControlRequestTemplate(URI baseURI, DeviceContext deviceContext) throws URISyntaxException {
+        this.baseURI = baseURI;
+        this.uri = new URI(baseURI.getScheme(), null, baseURI.getHost(), baseURI.getPort(), "/control", null, null);
+        this.deviceContext = deviceContext;
+        this.headPrefix = HttpRequestEncoder.encodeFormHeadPrefix("POST", uri);
+    }
+
+    public URI getBaseURI() {
+        return baseURI;
+    }
+
+    public URI getURI() {
+        return uri;
+    }
+
+    public DeviceContext getDeviceContext() {
+        return deviceContext;
+    }
+
+    /**
+     * Returns the encoded HTTP request head up to (and including) the "Content-Length: " header name. The array is
+     * shared by every request created from this template and must not be modified.
+     *
+     * @return a byte array
+     */
+    public byte[] getHeadPrefix() {
+        return headPrefix;
+    }
+}
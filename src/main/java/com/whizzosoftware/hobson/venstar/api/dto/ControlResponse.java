@@ -7,8 +7,12 @@
  *******************************************************************************/
 package com.whizzosoftware.hobson.venstar.api.dto;
 
+import com.whizzosoftware.hobson.venstar.api.json.JsonByteReader;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.ByteBuffer;
+
 /**
  * Encapsulates the result of a thermostat "control request". This provides information about whether the
  * request was successful or not (including error information if present).
@@ -16,6 +20,7 @@ import org.json.JSONObject;
  * @author Dan Noguerol
  */
 public class ControlResponse {
+    private static final byte[][] FIELDS = JsonByteReader.names("error", "reason", "success");
     private boolean isError;
     private String errorReason;
 
@@ -31,6 +36,47 @@ public class ControlResponse {
         }
     }
 
+    /**
+     * Creates a ControlResponse directly from the bytes of a response body.
+     *
+     * @param json the UTF-8 encoded JSON body (its position is not changed)
+     */
+    public ControlResponse(ByteBuffer json) {
+        boolean error = false;
+        boolean success = false;
+        String reason = null;
+        JsonByteReader r = new JsonByteReader(json);
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName(FIELDS)) {
+                case 0:
+                    error = r.nextBoolean();
+                    break;
+                case 1:
+                    reason = r.nextNull() ? null : r.nextString();
+                    break;
+                case 2:
+                    success = true;
+                    r.skipValue();
+                    break;
+                default:
+                    r.skipValue();
+                    break;
+            }
+        }
+
+        if (error) {
+            if (reason == null) {
+                throw new JSONException("Error response has no reason");
+            }
+            isError = true;
+            errorReason = reason;
+        } else if (!success) {
+            isError = true;
+            errorReason = "No success or error keys in response";
+        }
+    }
+
     public boolean isError() {
         return isError;
     }
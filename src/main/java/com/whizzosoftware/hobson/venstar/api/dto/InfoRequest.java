@@ -6,33 +6,68 @@ import java.net.URI;
 import java.net.URISyntaxException;
 
 public class InfoRequest {
-    private URI baseURI;
-    private URI uri;
-    private DeviceContext deviceContext;
+    private final InfoRequestTemplate template;
+    private final boolean confirmation;
 
     public InfoRequest(URI baseURI) throws URISyntaxException {
         this(baseURI, null);
     }
 
     public InfoRequest(URI baseURI, DeviceContext deviceContext) throws URISyntaxException {
-        this.baseURI = baseURI;
-        this.uri = new URI(baseURI.getScheme(), baseURI.getHost(), "/query/info", null);
-        this.deviceContext = deviceContext;
+        this(baseURI, deviceContext, false);
+    }
+
+    public InfoRequest(URI baseURI, DeviceContext deviceContext, boolean confirmation) throws URISyntaxException {
+        this(new InfoRequestTemplate(baseURI, deviceContext), confirmation);
+    }
+
+    /**
+     * Creates a request from a thermostat's pre-built template. This involves no URI parsing or request encoding.
+     *
+     * @param template the template
+     * @param confirmation whether the request is part of a set variable request
+     */
+    public InfoRequest(InfoRequestTemplate template, boolean confirmation) {
+        this.template = template;
+        this.confirmation = confirmation;
+    }
+
+    public InfoRequestTemplate getTemplate() {
+        return template;
     }
 
     public URI getBaseURI() {
-        return baseURI;
+        return template.getBaseURI();
     }
 
     public URI getURI() {
-        return uri;
+        return template.getURI();
     }
 
     public DeviceContext getDeviceContext() {
-        return deviceContext;
+        return template.getDeviceContext();
+    }
+
+    /**
+     * Returns the encoded HTTP request (which must not be modified).
+     *
+     * @return a byte array
+     */
+    public byte[] getRequestBytes() {
+        return template.getRequestBytes();
     }
 
     public boolean hasDeviceId() {
-        return (deviceContext != null);
+        return (template.getDeviceContext() != null);
+    }
+
+    /**
+     * Indicates whether this request is part of a set variable request (i.e. it's fetching state for a control
+     * request or confirming that a control request took effect) rather than a routine refresh.
+     *
+     * @return a boolean
+     */
+    public boolean isConfirmation() {
+        return confirmation;
     }
 }
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.dto;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.venstar.api.http.HttpRequestEncoder;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * The immutable parts of the info requests sent to a thermostat: its URIs and the encoded HTTP request. A thermostat
+ * builds its template once so that each poll only has to create a lightweight InfoRequest around it.
+ *
+ * @author Dan Noguerol
+ */
+public class InfoRequestTemplate {
+    private final URI baseURI;
+    private final URI uri;
+    private final DeviceContext deviceContext;
+    private final byte[] requestBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param baseURI the thermostat's base URI
+     * @param deviceContext the thermostat's device context (or null if it hasn't been added as a device yet)
+     *
+     * @throws URISyntaxException if the info URI can't be built from the base URI
+     */
+    public InfoRequestTemplate(URI baseURI, DeviceContext deviceContext) throws URISyntaxException {
+        this.baseURI = baseURI;
+        this.uri = new URI(baseURI.getScheme(), null, baseURI.getHost(), baseURI.getPort(), "/query/info", null, null);
+        this.deviceContext = deviceContext;
+        this.requestBytes = HttpRequestEncoder.encode("GET", uri, null);
+    }
+
+    public URI getBaseURI() {
+        return baseURI;
+    }
+
+    public URI getURI() {
+        return uri;
+    }
+
+    public DeviceContext getDeviceContext() {
+        return deviceContext;
+    }
+
+    /**
+     * Returns the encoded HTTP request. The array is shared by every request created from this template and must
+     * not be modified.
+     *
+     * @return a byte array
+     */
+    public byte[] getRequestBytes() {
+        return requestBytes;
+    }
+}
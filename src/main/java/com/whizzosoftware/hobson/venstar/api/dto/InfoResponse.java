@@ -7,23 +7,50 @@
  *******************************************************************************/
 package com.whizzosoftware.hobson.venstar.api.dto;
 
+import com.whizzosoftware.hobson.venstar.api.ResponseFingerprint;
+import com.whizzosoftware.hobson.venstar.api.Tenths;
+import com.whizzosoftware.hobson.venstar.api.json.JsonByteReader;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.ByteBuffer;
+
 /**
  * Encapsulates the result of a thermostat "info request". This provides current state information for a thermostat.
+ * Temperatures are held in tenths of a degree (see Tenths); the getXXXTenths() methods return them without
+ * conversion.
  *
  * @author Dan Noguerol
  */
 public class InfoResponse {
+    private static final byte[][] FIELDS = JsonByteReader.names("name", "state", "mode", "fan", "tempunits", "spacetemp", "cooltemp", "heattemp", "setpointdelta");
+    private static final int NAME = 0;
+    private static final int STATE = 1;
+    private static final int MODE = 2;
+    private static final int FAN = 3;
+    private static final int TEMP_UNITS = 4;
+    private static final int SPACE_TEMP = 5;
+    private static final int COOL_TEMP = 6;
+    private static final int HEAT_TEMP = 7;
+    private static final int SET_POINT_DELTA = 8;
+    private static final ThermostatMode[] MODES = ThermostatMode.values();
+    private static final FanMode[] FAN_MODES = FanMode.values();
+
     private Boolean on;
     private String name;
     private ThermostatMode mode;
     private FanMode fanMode;
     private Integer tempUnits;
-    private Double spaceTemp;
-    private Double coolTemp;
-    private Double heatTemp;
-    private Double setPointDelta;
+    // temperatures are held in tenths of a degree (Tenths.NONE if absent)
+    private int spaceTemp = Tenths.NONE;
+    private int coolTemp = Tenths.NONE;
+    private int heatTemp = Tenths.NONE;
+    private int setPointDelta = Tenths.NONE;
+    /**
+     * The fingerprint and length of the body this response was parsed from (-1 if it wasn't parsed from bytes)
+     */
+    private long fingerprint;
+    private int length = -1;
 
     public InfoResponse(Boolean on, String name, ThermostatMode mode, FanMode fanMode, Integer tempUnits, Double spaceTemp, Double coolTemp, Double heatTemp, Double setPointDelta) {
         this.on = on;
@@ -31,10 +58,10 @@ public class InfoResponse {
         this.mode = mode;
         this.fanMode = fanMode;
         this.tempUnits = tempUnits;
-        this.spaceTemp = spaceTemp;
-        this.coolTemp = coolTemp;
-        this.heatTemp = heatTemp;
-        this.setPointDelta = setPointDelta;
+        this.spaceTemp = Tenths.valueOf(spaceTemp);
+        this.coolTemp = Tenths.valueOf(coolTemp);
+        this.heatTemp = Tenths.valueOf(heatTemp);
+        this.setPointDelta = Tenths.valueOf(setPointDelta);
     }
 
     public InfoResponse(JSONObject json) {
@@ -46,25 +73,85 @@ public class InfoResponse {
             on = (s >= 1 && s <= 2);
         }
         if (json.has("mode")) {
-            mode = ThermostatMode.values()[json.getInt("mode")];
+            mode = toMode(json.getInt("mode"));
         }
         if (json.has("fan")) {
-            fanMode = FanMode.values()[json.getInt("fan")];
+            fanMode = toFanMode(json.getInt("fan"));
         }
         if (json.has("tempunits")) {
             tempUnits = json.getInt("tempunits");
         }
         if (json.has("spacetemp")) {
-            spaceTemp = json.getDouble("spacetemp");
+            spaceTemp = Tenths.valueOf(json.getDouble("spacetemp"));
         }
         if (json.has("cooltemp")) {
-            coolTemp = json.getDouble("cooltemp");
+            coolTemp = Tenths.valueOf(json.getDouble("cooltemp"));
         }
         if (json.has("heattemp")) {
-            heatTemp = json.getDouble("heattemp");
+            heatTemp = Tenths.valueOf(json.getDouble("heattemp"));
         }
         if (json.has("setpointdelta")) {
-            setPointDelta = json.getDouble("setpointdelta");
+            setPointDelta = Tenths.valueOf(json.getDouble("setpointdelta"));
+        }
+    }
+
+    /**
+     * Creates an InfoResponse directly from the bytes of a response body.
+     *
+     * @param json the UTF-8 encoded JSON body (its position is not changed)
+     */
+    public InfoResponse(ByteBuffer json) {
+        this(json, ResponseFingerprint.hash(json));
+    }
+
+    /**
+     * Creates an InfoResponse directly from the bytes of a response body whose fingerprint is already known. The body
+     * is scanned once; only the members this class needs are decoded and all others (including any nested objects or
+     * arrays newer firmware adds) are stepped over without being materialized. The result is the same as that of the
+     * JSONObject constructor.
+     *
+     * @param json the UTF-8 encoded JSON body (its position is not changed)
+     * @param fingerprint the body's fingerprint (as computed by ResponseFingerprint)
+     */
+    public InfoResponse(ByteBuffer json, long fingerprint) {
+        this.fingerprint = fingerprint;
+        this.length = json.remaining();
+        JsonByteReader r = new JsonByteReader(json);
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName(FIELDS)) {
+                case NAME:
+                    name = r.nextString();
+                    break;
+                case STATE:
+                    int s = r.nextInt();
+                    on = (s >= 1 && s <= 2);
+                    break;
+                case MODE:
+                    mode = toMode(r.nextInt());
+                    break;
+                case FAN:
+                    fanMode = toFanMode(r.nextInt());
+                    break;
+                case TEMP_UNITS:
+                    tempUnits = r.nextInt();
+                    break;
+                case SPACE_TEMP:
+                    spaceTemp = r.nextTenths();
+                    break;
+                case COOL_TEMP:
+                    coolTemp = r.nextTenths();
+                    break;
+                case HEAT_TEMP:
+                    heatTemp = r.nextTenths();
+                    break;
+                case SET_POINT_DELTA:
+                    setPointDelta = r.nextTenths();
+                    break;
+                default:
+                    r.skipValue();
+                    break;
+            }
         }
     }
 
@@ -89,18 +176,60 @@ public class InfoResponse {
     }
 
     public Double getSpaceTemp() {
+        return Tenths.toNullableDouble(spaceTemp);
+    }
+
+    public int getSpaceTempTenths() {
         return spaceTemp;
     }
 
     public Double getCoolTemp() {
+        return Tenths.toNullableDouble(coolTemp);
+    }
+
+    public int getCoolTempTenths() {
         return coolTemp;
     }
 
     public Double getHeatTemp() {
+        return Tenths.toNullableDouble(heatTemp);
+    }
+
+    public int getHeatTempTenths() {
         return heatTemp;
     }
 
     public Double getSetPointDelta() {
+        return Tenths.toNullableDouble(setPointDelta);
+    }
+
+    public int getSetPointDeltaTenths() {
         return setPointDelta;
     }
+
+    /**
+     * Indicates whether this response was parsed from a body with the given fingerprint and length.
+     *
+     * @param fingerprint the body's fingerprint
+     * @param length the body's length
+     *
+     * @return a boolean
+     */
+    public boolean hasFingerprint(long fingerprint, int length) {
+        return (this.length >= 0 && this.length == length && this.fingerprint == fingerprint);
+    }
+
+    private static ThermostatMode toMode(int code) {
+        if (code < 0 || code >= MODES.length) {
+            throw new JSONException("Invalid thermostat mode: " + code);
+        }
+        return MODES[code];
+    }
+
+    private static FanMode toFanMode(int code) {
+        if (code < 0 || code >= FAN_MODES.length) {
+            throw new JSONException("Invalid fan mode: " + code);
+        }
+        return FAN_MODES[code];
+    }
 }
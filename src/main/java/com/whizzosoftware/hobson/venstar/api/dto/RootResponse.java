@@ -7,8 +7,11 @@
  *******************************************************************************/
 package com.whizzosoftware.hobson.venstar.api.dto;
 
+import com.whizzosoftware.hobson.venstar.api.json.JsonByteReader;
 import org.json.JSONObject;
 
+import java.nio.ByteBuffer;
+
 /**
  * Encapsulates the result of a thermostat "root request". This provides high-level information about the
  * thermostat including its API version.
@@ -16,6 +19,7 @@ import org.json.JSONObject;
  * @author Dan Noguerol
  */
 public class RootResponse {
+    private static final byte[][] FIELDS = JsonByteReader.names("api_ver", "type");
     private Integer apiVersion;
     private String thermostatType;
 
@@ -28,6 +32,29 @@ public class RootResponse {
         }
     }
 
+    /**
+     * Creates a RootResponse directly from the bytes of a response body.
+     *
+     * @param json the UTF-8 encoded JSON body (its position is not changed)
+     */
+    public RootResponse(ByteBuffer json) {
+        JsonByteReader r = new JsonByteReader(json);
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName(FIELDS)) {
+                case 0:
+                    apiVersion = r.nextInt();
+                    break;
+                case 1:
+                    thermostatType = r.nextString();
+                    break;
+                default:
+                    r.skipValue();
+                    break;
+            }
+        }
+    }
+
     public RootResponse(Integer apiVersion, String thermostatType) {
         this.apiVersion = apiVersion;
         this.thermostatType = thermostatType;
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A pool of fixed-size heap buffers for response bodies. Thermostat responses are small so nearly every body fits
+ * in a pooled buffer; a larger one gets a one-off buffer that isn't returned to the pool.
+ *
+ * This class is thread-safe.
+ *
+ * @author Dan Noguerol
+ */
+public class ByteBufferPool {
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+    public static final int DEFAULT_MAX_POOLED = 32;
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Deque<ByteBuffer> buffers = new ArrayDeque<>();
+
+    public ByteBufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param bufferSize the size of pooled buffers
+     * @param maxPooled the maximum number of idle buffers kept
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns the number of idle buffers in the pool.
+     *
+     * @return an int
+     */
+    public synchronized int getPooledCount() {
+        return buffers.size();
+    }
+
+    /**
+     * Acquires a cleared buffer.
+     *
+     * @param capacity the minimum capacity required
+     *
+     * @return a ByteBuffer (which should be passed to release() when the caller is done with it)
+     */
+    public ByteBuffer acquire(int capacity) {
+        if (capacity > bufferSize) {
+            return ByteBuffer.allocate(capacity);
+        }
+        ByteBuffer b;
+        synchronized (this) {
+            b = buffers.pollFirst();
+        }
+        if (b == null) {
+            b = ByteBuffer.allocate(bufferSize);
+        }
+        b.clear();
+        return b;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that weren't acquired from the pool are ignored.
+     *
+     * @param b the buffer
+     */
+    public void release(ByteBuffer b) {
+        if (b != null && b.capacity() == bufferSize && b.hasArray()) {
+            synchronized (this) {
+                if (buffers.size() < maxPooled) {
+                    buffers.addFirst(b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a stream fully into a buffer.
+     *
+     * @param in the stream (which is not closed)
+     *
+     * @return a buffer that has been flipped for reading (and should be passed to release())
+     *
+     * @throws IOException on failure
+     */
+    public ByteBuffer read(InputStream in) throws IOException {
+        ByteBuffer b = acquire(bufferSize);
+        try {
+            int n;
+            while ((n = in.read(b.array(), b.arrayOffset() + b.position(), b.remaining())) != -1) {
+                b.position(b.position() + n);
+                if (!b.hasRemaining()) {
+                    ByteBuffer larger = acquire(b.capacity() * 2);
+                    b.flip();
+                    larger.put(b);
+                    release(b);
+                    b = larger;
+                }
+            }
+        } catch (IOException e) {
+            release(b);
+            throw e;
+        }
+        b.flip();
+        return b;
+    }
+}
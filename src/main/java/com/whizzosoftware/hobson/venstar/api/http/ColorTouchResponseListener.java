@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A listener for responses to requests sent through a transport-level ColorTouchChannel. Exactly one callback is made
+ * for every request, including cancelled ones (which receive a failure).
+ *
+ * Callbacks are made from the channel's I/O threads.
+ *
+ * @author Dan Noguerol
+ */
+public interface ColorTouchResponseListener {
+    /**
+     * Called when a response is received.
+     *
+     * @param context the request object passed to the channel
+     * @param statusCode the HTTP status code
+     * @param body the response body (only valid for the duration of the call)
+     */
+    void onResponse(Object context, int statusCode, ByteBuffer body);
+
+    /**
+     * Called when a request fails.
+     *
+     * @param context the request object passed to the channel
+     * @param cause the cause of the failure
+     */
+    void onFailure(Object context, Throwable cause);
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import com.whizzosoftware.hobson.venstar.api.Tenths;
+import com.whizzosoftware.hobson.venstar.api.dto.ControlRequest;
+
+import java.nio.charset.Charset;
+
+/**
+ * Encodes the form body of control requests straight to bytes. Fields are written in a fixed order (mode, fan,
+ * heattemp, cooltemp, pin) and absent ones are left out. Every value is a number so nothing needs to be URL-encoded;
+ * the result is equivalent to ControlRequest.getRequestBody().
+ *
+ * The body's length can be computed up front so it can be written directly into the request that carries it (see
+ * HttpRequestEncoder.encodeControl()) without an intermediate buffer.
+ *
+ * @author Dan Noguerol
+ */
+public class ControlBodyEncoder {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] MODE = "mode=".getBytes(ASCII);
+    private static final byte[] FAN = "fan=".getBytes(ASCII);
+    private static final byte[] HEAT_TEMP = "heattemp=".getBytes(ASCII);
+    private static final byte[] COOL_TEMP = "cooltemp=".getBytes(ASCII);
+    private static final byte[] PIN = "pin=".getBytes(ASCII);
+
+    private ControlBodyEncoder() {
+    }
+
+    /**
+     * Returns the length of the body of a control request.
+     *
+     * @param request the request
+     *
+     * @return the length in bytes
+     */
+    public static int getLength(ControlRequest request) {
+        int length = 0;
+        int fields = 0;
+        Integer mode = request.getMode();
+        if (mode != null) {
+            length += MODE.length + getLength(mode);
+            fields++;
+        }
+        Integer fan = request.getFanMode();
+        if (fan != null) {
+            length += FAN.length + getLength(fan);
+            fields++;
+        }
+        int heatTemp = request.getHeatTempTenths();
+        if (heatTemp != Tenths.NONE) {
+            length += HEAT_TEMP.length + getTenthsLength(heatTemp);
+            fields++;
+        }
+        int coolTemp = request.getCoolTempTenths();
+        if (coolTemp != Tenths.NONE) {
+            length += COOL_TEMP.length + getTenthsLength(coolTemp);
+            fields++;
+        }
+        Integer pin = request.getPin();
+        if (pin != null) {
+            length += PIN.length + getLength(pin);
+            fields++;
+        }
+        // the fields are separated by ampersands
+        return (fields > 0) ? length + fields - 1 : 0;
+    }
+
+    /**
+     * Encodes the body of a control request into a buffer (which must have room for getLength(request) bytes).
+     *
+     * @param request the request
+     * @param buf the buffer
+     * @param offset the offset in the buffer to start writing at
+     *
+     * @return the offset following the body
+     */
+    public static int encode(ControlRequest request, byte[] buf, int offset) {
+        int pos = offset;
+        Integer mode = request.getMode();
+        if (mode != null) {
+            pos = writeInt(buf, field(buf, offset, pos, MODE), mode);
+        }
+        Integer fan = request.getFanMode();
+        if (fan != null) {
+            pos = writeInt(buf, field(buf, offset, pos, FAN), fan);
+        }
+        int heatTemp = request.getHeatTempTenths();
+        if (heatTemp != Tenths.NONE) {
+            pos = writeTenths(buf, field(buf, offset, pos, HEAT_TEMP), heatTemp);
+        }
+        int coolTemp = request.getCoolTempTenths();
+        if (coolTemp != Tenths.NONE) {
+            pos = writeTenths(buf, field(buf, offset, pos, COOL_TEMP), coolTemp);
+        }
+        Integer pin = request.getPin();
+        if (pin != null) {
+            pos = writeInt(buf, field(buf, offset, pos, PIN), pin);
+        }
+        return pos;
+    }
+
+    /**
+     * Encodes the body of a control request into a new array.
+     *
+     * @param request the request
+     *
+     * @return a byte array
+     */
+    public static byte[] encode(ControlRequest request) {
+        byte[] b = new byte[getLength(request)];
+        encode(request, b, 0);
+        return b;
+    }
+
+    /**
+     * Returns the number of characters in the decimal form of an int.
+     *
+     * @param value the value
+     *
+     * @return an int
+     */
+    static int getLength(int value) {
+        long abs = Math.abs((long)value);
+        int length = (value < 0) ? 2 : 1;
+        while (abs >= 10) {
+            abs /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the decimal form of an int.
+     *
+     * @param buf the buffer
+     * @param pos the offset to write at
+     * @param value the value
+     *
+     * @return the offset following the value
+     */
+    static int writeInt(byte[] buf, int pos, int value) {
+        long abs = Math.abs((long)value);
+        if (value < 0) {
+            buf[pos++] = '-';
+        }
+        return writeDigits(buf, pos, abs);
+    }
+
+    private static int getTenthsLength(int tenths) {
+        // the integer part, a period and one decimal digit
+        return getLength(tenths / 10) + ((tenths < 0 && tenths > -10) ? 3 : 2);
+    }
+
+    /**
+     * Writes a value in tenths in the same form Double.toString() produces for it (see Tenths).
+     *
+     * @param buf the buffer
+     * @param pos the offset to write at
+     * @param tenths the value in tenths
+     *
+     * @return the offset following the value
+     */
+    private static int writeTenths(byte[] buf, int pos, int tenths) {
+        long abs = Math.abs((long)tenths);
+        if (tenths < 0) {
+            buf[pos++] = '-';
+        }
+        pos = writeDigits(buf, pos, abs / 10);
+        buf[pos++] = '.';
+        buf[pos++] = (byte)('0' + abs % 10);
+        return pos;
+    }
+
+    private static int field(byte[] buf, int start, int pos, byte[] name) {
+        if (pos > start) {
+            buf[pos++] = '&';
+        }
+        System.arraycopy(name, 0, buf, pos, name.length);
+        return pos + name.length;
+    }
+
+    private static int writeDigits(byte[] buf, int pos, long value) {
+        int start = pos;
+        do {
+            buf[pos++] = (byte)('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // the digits were written least significant first
+        for (int i=start, j=pos - 1; i < j; i++, j--) {
+            byte b = buf[i];
+            buf[i] = buf[j];
+            buf[j] = b;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+/**
+ * A persistent (keep-alive) HTTP/1.1 connection to a thermostat. A connection executes one request at a time.
+ *
+ * @author Dan Noguerol
+ */
+public class HttpConnection {
+    private static final int READ_BUFFER_SIZE = 4096;
+    /**
+     * The idle time (in milliseconds) after which a connection is probed for a server-side close before reuse
+     */
+    static final long PROBE_IDLE_TIME = 15000;
+
+    private final String key;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private final HttpResponseParser parser = new HttpResponseParser();
+    private final int readTimeout;
+    private long lastUsed;
+    private int requestCount;
+    private volatile boolean closed;
+
+    /**
+     * Opens a new connection.
+     *
+     * @param uri a URI for the host to connect to
+     * @param connectTimeout the connect timeout in milliseconds
+     * @param readTimeout the read timeout in milliseconds
+     *
+     * @return an HttpConnection
+     *
+     * @throws IOException on failure
+     */
+    public static HttpConnection open(URI uri, int connectTimeout, int readTimeout) throws IOException {
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        Socket socket = secure ? SSLSocketFactory.getDefault().createSocket() : new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(uri.getHost(), getPort(uri)), connectTimeout);
+            return new HttpConnection(HttpConnectionPool.getKey(uri), socket, readTimeout);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    HttpConnection(String key, Socket socket, int readTimeout) throws IOException {
+        this.key = key;
+        this.socket = socket;
+        this.readTimeout = readTimeout;
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+        socket.setSoTimeout(readTimeout);
+    }
+
+    static int getPort(URI uri) {
+        if (uri.getPort() > -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+
+    /**
+     * Returns the number of requests that have been executed on this connection.
+     *
+     * @return an int
+     */
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Executes a request and blocks until its response has been received.
+     *
+     * @param request the encoded request
+     *
+     * @return the parser holding the response (only valid until the next request on this connection)
+     *
+     * @throws IOException on failure
+     */
+    public HttpResponseParser execute(byte[] request) throws IOException {
+        requestCount++;
+        parser.reset();
+        out.write(request);
+        out.flush();
+        while (true) {
+            int n = in.read(readBuffer);
+            if (n == -1) {
+                parser.onEof();
+                break;
+            } else if (parser.parse(ByteBuffer.wrap(readBuffer, 0, n))) {
+                break;
+            }
+        }
+        return parser;
+    }
+
+    /**
+     * Indicates whether any part of the last response was received. A request that failed on a reused connection
+     * before this happened most likely hit a connection the server had already closed and can safely be retried.
+     *
+     * @return a boolean
+     */
+    public boolean hasReceivedResponse() {
+        return parser.hasStarted();
+    }
+
+    /**
+     * Checks whether an idle connection is still usable. A connection that is closed, has been shut down or has
+     * unexpected data waiting on it is not; these checks don't block.
+     *
+     * Detecting that the server has closed its end can only be done with a (briefly) blocking read, so that probe is
+     * only made for connections idle long enough (PROBE_IDLE_TIME) that the server may have timed them out. A
+     * recently used connection the server has closed anyway will fail on its next request, which is retried once
+     * for idempotent requests.
+     *
+     * @param now the current time
+     *
+     * @return a boolean
+     */
+    public boolean isHealthy(long now) {
+        if (closed || socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+        try {
+            if (in.available() > 0) {
+                // unsolicited data; not a connection we want to send a request on
+                return false;
+            }
+            if (now - lastUsed < PROBE_IDLE_TIME) {
+                return true;
+            }
+            socket.setSoTimeout(1);
+            try {
+                // a read that doesn't time out found either EOF or unsolicited data
+                in.read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(readTimeout);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the connection. This can be called from any thread and will abort an executing request.
+     */
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
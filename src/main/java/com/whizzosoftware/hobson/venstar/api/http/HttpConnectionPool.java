@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+
+/**
+ * A pool of persistent HTTP connections to thermostat hosts. Each host keeps a bounded number of idle connections
+ * that are reused for subsequent requests; connections that have been idle too long are evicted and an idle
+ * connection is health checked before it is reused.
+ *
+ * This class is thread-safe.
+ *
+ * @author Dan Noguerol
+ */
+public class HttpConnectionPool {
+    public static final int DEFAULT_MAX_IDLE_PER_HOST = 2;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    private final int maxIdlePerHost;
+    private final long idleTimeout;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final Map<String,Deque<HttpConnection>> idle = new HashMap<>();
+    private long connectionsCreated;
+    private long connectionsReused;
+    private boolean closed;
+
+    public HttpConnectionPool() {
+        this(DEFAULT_MAX_IDLE_PER_HOST, DEFAULT_IDLE_TIMEOUT, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxIdlePerHost the maximum number of idle connections kept per host
+     * @param idleTimeout the time (in milliseconds) after which an idle connection is evicted
+     * @param connectTimeout the connect timeout in milliseconds
+     * @param readTimeout the read timeout in milliseconds
+     */
+    public HttpConnectionPool(int maxIdlePerHost, long idleTimeout, int connectTimeout, int readTimeout) {
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.idleTimeout = idleTimeout;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    static String getKey(URI uri) {
+        return uri.getScheme() + "://" + uri.getHost() + ":" + HttpConnection.getPort(uri);
+    }
+
+    /**
+     * Acquires a connection to a host, reusing an idle one if a healthy one is available.
+     *
+     * @param uri a URI for the host
+     * @param now the current time
+     *
+     * @return an HttpConnection (which must be passed to release() when the caller is done with it)
+     *
+     * @throws IOException if a new connection can't be opened
+     */
+    public HttpConnection acquire(URI uri, long now) throws IOException {
+        String key = getKey(uri);
+        HttpConnection c;
+        while ((c = pollIdle(key, now)) != null) {
+            // the health check can block briefly so it's done outside the lock
+            if (c.isHealthy(now)) {
+                synchronized (this) {
+                    connectionsReused++;
+                }
+                return c;
+            }
+            c.close();
+        }
+
+        c = HttpConnection.open(uri, connectTimeout, readTimeout);
+        synchronized (this) {
+            connectionsCreated++;
+        }
+        return c;
+    }
+
+    private synchronized HttpConnection pollIdle(String key, long now) {
+        Deque<HttpConnection> q = idle.get(key);
+        if (q != null) {
+            HttpConnection c;
+            while ((c = q.pollFirst()) != null) {
+                if (now - c.getLastUsed() < idleTimeout) {
+                    return c;
+                }
+                c.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a connection to the pool.
+     *
+     * @param c the connection
+     * @param reusable whether the connection can be used for another request
+     * @param now the current time
+     */
+    public synchronized void release(HttpConnection c, boolean reusable, long now) {
+        Deque<HttpConnection> q = idle.get(c.getKey());
+        if (!reusable || closed || c.isClosed() || (q != null && q.size() >= maxIdlePerHost)) {
+            c.close();
+        } else {
+            if (q == null) {
+                q = new ArrayDeque<>(maxIdlePerHost);
+                idle.put(c.getKey(), q);
+            }
+            c.setLastUsed(now);
+            q.addFirst(c);
+        }
+    }
+
+    /**
+     * Closes any connections that have been idle longer than the idle timeout.
+     *
+     * @param now the current time
+     *
+     * @return the number of connections closed
+     */
+    public synchronized int evictIdle(long now) {
+        int count = 0;
+        for (Iterator<Deque<HttpConnection>> it = idle.values().iterator(); it.hasNext();) {
+            Deque<HttpConnection> q = it.next();
+            for (Iterator<HttpConnection> it2 = q.iterator(); it2.hasNext();) {
+                HttpConnection c = it2.next();
+                if (now - c.getLastUsed() >= idleTimeout) {
+                    it2.remove();
+                    c.close();
+                    count++;
+                }
+            }
+            if (q.isEmpty()) {
+                it.remove();
+            }
+        }
+        return count;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public synchronized int getIdleConnectionCount() {
+        int count = 0;
+        for (Deque<HttpConnection> q : idle.values()) {
+            count += q.size();
+        }
+        return count;
+    }
+
+    public synchronized long getConnectionsCreated() {
+        return connectionsCreated;
+    }
+
+    public synchronized long getConnectionsReused() {
+        return connectionsReused;
+    }
+
+    /**
+     * Returns the fraction of acquired connections that were reused rather than newly opened.
+     *
+     * @return a value between 0 and 1
+     */
+    public synchronized double getReuseRatio() {
+        long total = connectionsCreated + connectionsReused;
+        return (total > 0) ? (double)connectionsReused / total : 0;
+    }
+
+    /**
+     * Closes all idle connections. Connections released after this are closed rather than pooled.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (Deque<HttpConnection> q : idle.values()) {
+            for (HttpConnection c : q) {
+                c.close();
+            }
+        }
+        idle.clear();
+    }
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import com.whizzosoftware.hobson.venstar.api.dto.ControlRequest;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+
+/**
+ * Encodes the HTTP/1.1 requests sent to thermostats.
+ *
+ * @author Dan Noguerol
+ */
+public class HttpRequestEncoder {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    /**
+     * Encodes a request.
+     *
+     * @param method the HTTP method
+     * @param uri the request URI
+     * @param body the request body (or null for none)
+     *
+     * @return the request bytes
+     */
+    public static byte[] encode(String method, URI uri, byte[] body) {
+        StringBuilder sb = appendRequestLine(new StringBuilder(128), method, uri);
+        if (body != null) {
+            sb.append("Content-Type: ").append(FORM_CONTENT_TYPE).append("\r\nContent-Length: ").append(body.length).append("\r\n");
+        }
+        sb.append("\r\n");
+
+        byte[] head = sb.toString().getBytes(ASCII);
+        if (body == null || body.length == 0) {
+            return head;
+        }
+        byte[] request = new byte[head.length + body.length];
+        System.arraycopy(head, 0, request, 0, head.length);
+        System.arraycopy(body, 0, request, head.length, body.length);
+        return request;
+    }
+
+    /**
+     * Encodes the head of a request with a form body up to (and including) the "Content-Length: " header name. A
+     * request can then be completed with just its body's length and the body (see encodeControl()).
+     *
+     * @param method the HTTP method
+     * @param uri the request URI
+     *
+     * @return the head prefix bytes
+     */
+    public static byte[] encodeFormHeadPrefix(String method, URI uri) {
+        StringBuilder sb = appendRequestLine(new StringBuilder(128), method, uri);
+        sb.append("Content-Type: ").append(FORM_CONTENT_TYPE).append("\r\nContent-Length: ");
+        return sb.toString().getBytes(ASCII);
+    }
+
+    /**
+     * Encodes a control request. The head comes pre-encoded from the request's template; only the body's length and
+     * the body are written, straight into the (exactly sized) request array.
+     *
+     * @param request the request
+     *
+     * @return the request bytes
+     */
+    public static byte[] encodeControl(ControlRequest request) {
+        byte[] prefix = request.getTemplate().getHeadPrefix();
+        int bodyLength = ControlBodyEncoder.getLength(request);
+        byte[] b = new byte[prefix.length + ControlBodyEncoder.getLength(bodyLength) + 4 + bodyLength];
+        System.arraycopy(prefix, 0, b, 0, prefix.length);
+        int pos = ControlBodyEncoder.writeInt(b, prefix.length, bodyLength);
+        b[pos++] = '\r';
+        b[pos++] = '\n';
+        b[pos++] = '\r';
+        b[pos++] = '\n';
+        ControlBodyEncoder.encode(request, b, pos);
+        return b;
+    }
+
+    /**
+     * Appends the request line and the headers common to all requests.
+     *
+     * @param sb the builder to append to
+     * @param method the HTTP method
+     * @param uri the request URI
+     *
+     * @return the builder
+     */
+    private static StringBuilder appendRequestLine(StringBuilder sb, String method, URI uri) {
+        String path = uri.getRawPath();
+        sb.append(method).append(' ').append((path == null || path.length() == 0) ? "/" : path);
+        if (uri.getRawQuery() != null) {
+            sb.append('?').append(uri.getRawQuery());
+        }
+        sb.append(" HTTP/1.1\r\nHost: ").append(uri.getHost());
+        if (uri.getPort() > -1) {
+            sb.append(':').append(uri.getPort());
+        }
+        return sb.append("\r\nConnection: keep-alive\r\nAccept: application/json\r\n");
+    }
+}
@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An incremental HTTP/1.1 response parser. Bytes are fed to it as they arrive (in whatever chunks the transport
+ * happens to read) and it reports when a complete response has been received. It supports Content-Length, chunked
+ * and read-until-close bodies. Bodies larger than MAX_BODY_SIZE are rejected (a ColorTouch response is well under
+ * 1 KB) so a bad Content-Length or an endless body can't exhaust memory.
+ *
+ * A parser can be reset and reused for the next response on the same connection.
+ *
+ * @author Dan Noguerol
+ */
+public class HttpResponseParser {
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int INITIAL_BODY_SIZE = 1024;
+    static final int MAX_BODY_SIZE = 64 * 1024;
+
+    private enum State {
+        STATUS_LINE,
+        HEADERS,
+        BODY,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_END,
+        TRAILERS,
+        BODY_TO_EOF,
+        DONE
+    }
+
+    private State state = State.STATUS_LINE;
+    private final StringBuilder line = new StringBuilder();
+    private String version;
+    private int statusCode;
+    private final Map<String,String> headers = new HashMap<>();
+    private long remaining;
+    private byte[] body = new byte[INITIAL_BODY_SIZE];
+    private int bodyLength;
+    private boolean bodyReadToEof;
+
+    /**
+     * Resets the parser so it can parse a new response.
+     */
+    public void reset() {
+        state = State.STATUS_LINE;
+        line.setLength(0);
+        version = null;
+        statusCode = 0;
+        headers.clear();
+        remaining = 0;
+        bodyLength = 0;
+        bodyReadToEof = false;
+    }
+
+    /**
+     * Parses bytes received from the connection. Only the bytes that belong to the current response are consumed.
+     *
+     * @param in the received bytes
+     *
+     * @return true if the response is complete
+     *
+     * @throws IOException if the response is malformed
+     */
+    public boolean parse(ByteBuffer in) throws IOException {
+        while (in.hasRemaining() && state != State.DONE) {
+            switch (state) {
+                case BODY:
+                case CHUNK_DATA: {
+                    int n = (int)Math.min(remaining, in.remaining());
+                    appendBody(in, n);
+                    remaining -= n;
+                    if (remaining == 0) {
+                        state = (state == State.BODY) ? State.DONE : State.CHUNK_END;
+                    }
+                    break;
+                }
+                case BODY_TO_EOF:
+                    appendBody(in, in.remaining());
+                    break;
+                default:
+                    if (readLine(in)) {
+                        onLine(line.toString());
+                        line.setLength(0);
+                    }
+                    break;
+            }
+        }
+        return (state == State.DONE);
+    }
+
+    /**
+     * Signals that the connection was closed by the server.
+     *
+     * @return true if the response is complete
+     *
+     * @throws IOException if the connection closed before the response was complete
+     */
+    public boolean onEof() throws IOException {
+        if (state == State.BODY_TO_EOF) {
+            state = State.DONE;
+        } else if (state != State.DONE) {
+            throw new EOFException("Connection closed before response was complete");
+        }
+        return true;
+    }
+
+    public boolean isComplete() {
+        return (state == State.DONE);
+    }
+
+    /**
+     * Indicates whether any part of a response has been received.
+     *
+     * @return a boolean
+     */
+    public boolean hasStarted() {
+        return (state != State.STATUS_LINE || line.length() > 0);
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a response header value.
+     *
+     * @param name the header name (case-insensitive)
+     *
+     * @return the header value (or null if it wasn't present)
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    /**
+     * Returns the response body. The buffer is only valid until the parser is reset.
+     *
+     * @return a ByteBuffer
+     */
+    public ByteBuffer getBody() {
+        return ByteBuffer.wrap(body, 0, bodyLength);
+    }
+
+    /**
+     * Indicates whether the connection the response was received on can be reused for another request.
+     *
+     * @return a boolean
+     */
+    public boolean isKeepAlive() {
+        if (state != State.DONE || bodyReadToEof) {
+            return false;
+        }
+        String connection = getHeader("connection");
+        if (connection != null && connection.toLowerCase().contains("close")) {
+            return false;
+        }
+        if ("HTTP/1.0".equals(version)) {
+            return (connection != null && connection.toLowerCase().contains("keep-alive"));
+        }
+        return true;
+    }
+
+    private boolean readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            char c = (char)(in.get() & 0xff);
+            if (c == '\n') {
+                return true;
+            } else if (c != '\r') {
+                if (line.length() >= MAX_LINE_LENGTH) {
+                    throw new IOException("HTTP response line too long");
+                }
+                line.append(c);
+            }
+        }
+        return false;
+    }
+
+    private void onLine(String s) throws IOException {
+        switch (state) {
+            case STATUS_LINE:
+                // tolerate stray blank lines before the status line
+                if (s.length() > 0) {
+                    parseStatusLine(s);
+                    state = State.HEADERS;
+                }
+                break;
+            case HEADERS:
+                if (s.length() == 0) {
+                    onHeadersComplete();
+                } else {
+                    int ix = s.indexOf(':');
+                    if (ix <= 0) {
+                        throw new IOException("Invalid HTTP header: " + s);
+                    }
+                    String name = s.substring(0, ix).trim().toLowerCase();
+                    String value = s.substring(ix + 1).trim();
+                    String existing = headers.get(name);
+                    headers.put(name, (existing != null) ? existing + ", " + value : value);
+                }
+                break;
+            case CHUNK_SIZE: {
+                int ix = s.indexOf(';');
+                try {
+                    remaining = Long.parseLong((ix > -1 ? s.substring(0, ix) : s).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size: " + s);
+                }
+                if (remaining < 0) {
+                    throw new IOException("Invalid chunk size: " + s);
+                }
+                state = (remaining == 0) ? State.TRAILERS : State.CHUNK_DATA;
+                break;
+            }
+            case CHUNK_END:
+                if (s.length() > 0) {
+                    throw new IOException("Invalid chunk terminator");
+                }
+                state = State.CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if (s.length() == 0) {
+                    state = State.DONE;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void parseStatusLine(String s) throws IOException {
+        String[] parts = s.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid HTTP status line: " + s);
+        }
+        version = parts[0];
+        try {
+            statusCode = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid HTTP status code: " + s);
+        }
+    }
+
+    private void onHeadersComplete() throws IOException {
+        bodyReadToEof = false;
+        if (statusCode >= 100 && statusCode < 200) {
+            // an interim response; the real one follows
+            headers.clear();
+            state = State.STATUS_LINE;
+        } else if (statusCode == 204 || statusCode == 304) {
+            state = State.DONE;
+        } else {
+            String te = getHeader("transfer-encoding");
+            String cl = getHeader("content-length");
+            if (te != null && te.toLowerCase().contains("chunked")) {
+                state = State.CHUNK_SIZE;
+            } else if (cl != null) {
+                try {
+                    remaining = Long.parseLong(cl.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid content length: " + cl);
+                }
+                if (remaining < 0) {
+                    throw new IOException("Invalid content length: " + cl);
+                } else if (remaining > MAX_BODY_SIZE) {
+                    throw new IOException("HTTP response body too large: " + remaining);
+                }
+                state = (remaining > 0) ? State.BODY : State.DONE;
+            } else {
+                bodyReadToEof = true;
+                state = State.BODY_TO_EOF;
+            }
+        }
+    }
+
+    private void appendBody(ByteBuffer in, int n) throws IOException {
+        if (n > MAX_BODY_SIZE - bodyLength) {
+            throw new IOException("HTTP response body too large");
+        }
+        if (bodyLength + n > body.length) {
+            byte[] b = new byte[Math.min(Math.max(body.length * 2, bodyLength + n), MAX_BODY_SIZE)];
+            System.arraycopy(body, 0, b, 0, bodyLength);
+            body = b;
+        }
+        in.get(body, bodyLength, n);
+        bodyLength += n;
+    }
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import com.whizzosoftware.hobson.venstar.api.ColorTouchChannel;
+import com.whizzosoftware.hobson.venstar.api.RequestHandle;
+import com.whizzosoftware.hobson.venstar.api.dto.ControlRequest;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoRequest;
+import com.whizzosoftware.hobson.venstar.api.dto.RootRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * A ColorTouchChannel that sends requests over persistent HTTP/1.1 connections taken from an HttpConnectionPool.
+ * Requests are executed on an Executor and their results are delivered to a ColorTouchResponseListener.
+ *
+ * Cancelling a request closes the connection it's executing on (so the thermostat isn't left holding it) and the
+ * listener still receives a failure for it.
+ *
+ * @author Dan Noguerol
+ */
+public class KeepAliveColorTouchChannel implements ColorTouchChannel {
+    private final HttpConnectionPool pool;
+    private final Executor executor;
+    private final ColorTouchResponseListener listener;
+    private final ByteBufferPool buffers = new ByteBufferPool();
+
+    /**
+     * Constructor.
+     *
+     * @param pool the connection pool
+     * @param executor the executor that performs the blocking request I/O
+     * @param listener the listener to deliver responses to
+     */
+    public KeepAliveColorTouchChannel(HttpConnectionPool pool, Executor executor, ColorTouchResponseListener listener) {
+        this.pool = pool;
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    public HttpConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    @Override
+    public RequestHandle sendRootRequest(RootRequest request) {
+        return execute(request, request.getURI(), HttpRequestEncoder.encode("GET", request.getURI(), null), true);
+    }
+
+    @Override
+    public RequestHandle sendInfoRequest(InfoRequest request) {
+        return execute(request, request.getURI(), request.getRequestBytes(), true);
+    }
+
+    @Override
+    public RequestHandle sendControlRequest(ControlRequest request) {
+        // a control request is never retried since the thermostat may already have acted on it
+        return execute(request, request.getURI(), HttpRequestEncoder.encodeControl(request), false);
+    }
+
+    private RequestHandle execute(Object context, URI uri, byte[] request, boolean idempotent) {
+        Exchange ex = new Exchange(context, uri, request, idempotent);
+        executor.execute(ex);
+        return ex;
+    }
+
+    /**
+     * A single request/response exchange.
+     */
+    private class Exchange implements Runnable, RequestHandle {
+        private final Object context;
+        private final URI uri;
+        private final byte[] request;
+        private final boolean idempotent;
+        private HttpConnection connection;
+        private boolean done;
+        private boolean cancelled;
+
+        Exchange(Object context, URI uri, byte[] request, boolean idempotent) {
+            this.context = context;
+            this.uri = uri;
+            this.request = request;
+            this.idempotent = idempotent;
+        }
+
+        @Override
+        public void run() {
+            HttpConnection c = null;
+            ByteBuffer body;
+            int statusCode;
+            try {
+                c = attach(pool.acquire(uri, System.currentTimeMillis()));
+                HttpResponseParser response;
+                try {
+                    response = c.execute(request);
+                } catch (IOException e) {
+                    // a reused connection may have been closed by the thermostat while the request was being written;
+                    // if nothing came back it's safe to retry a GET once on a fresh connection
+                    if (idempotent && c.getRequestCount() > 1 && !c.hasReceivedResponse() && !isCancelled()) {
+                        pool.release(c, false, System.currentTimeMillis());
+                        c = attach(pool.acquire(uri, System.currentTimeMillis()));
+                        response = c.execute(request);
+                    } else {
+                        throw e;
+                    }
+                }
+
+                // the body has to be copied since the connection (and its parser) is about to be handed to another request
+                ByteBuffer b = response.getBody();
+                body = buffers.acquire(b.remaining());
+                body.put(b);
+                body.flip();
+                statusCode = response.getStatusCode();
+                pool.release(c, response.isKeepAlive(), System.currentTimeMillis());
+            } catch (Throwable t) {
+                if (c != null) {
+                    pool.release(c, false, System.currentTimeMillis());
+                }
+                fail(t);
+                return;
+            }
+
+            // the listener is called outside the try block so that an exception it throws can't cause a second callback
+            try {
+                if (finish()) {
+                    listener.onResponse(context, statusCode, body);
+                } else {
+                    listener.onFailure(context, new CancellationException("Request to " + uri + " was cancelled"));
+                }
+            } finally {
+                buffers.release(body);
+            }
+        }
+
+        void fail(Throwable t) {
+            if (finish()) {
+                listener.onFailure(context, t);
+            } else {
+                listener.onFailure(context, new CancellationException("Request to " + uri + " was cancelled"));
+            }
+        }
+
+        /**
+         * Attaches a connection to the exchange so it can be closed by a cancel.
+         *
+         * @param c the connection
+         *
+         * @return the connection
+         *
+         * @throws CancellationException if the exchange has already been cancelled
+         */
+        private synchronized HttpConnection attach(HttpConnection c) {
+            if (cancelled) {
+                c.close();
+                throw new CancellationException("Request to " + uri + " was cancelled");
+            }
+            connection = c;
+            return c;
+        }
+
+        /**
+         * Marks the exchange as done.
+         *
+         * @return false if it had been cancelled
+         */
+        private synchronized boolean finish() {
+            connection = null;
+            done = true;
+            return !cancelled;
+        }
+
+        @Override
+        public long getTimeout() {
+            return pool.getReadTimeout();
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public synchronized boolean cancel() {
+            if (done || cancelled) {
+                return false;
+            }
+            cancelled = true;
+            if (connection != null) {
+                connection.close();
+            }
+            return true;
+        }
+    }
+}
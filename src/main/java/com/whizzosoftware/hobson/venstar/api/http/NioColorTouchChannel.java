@@ -0,0 +1,585 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import com.whizzosoftware.hobson.venstar.api.ColorTouchChannel;
+import com.whizzosoftware.hobson.venstar.api.RequestHandle;
+import com.whizzosoftware.hobson.venstar.api.dto.ControlRequest;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoRequest;
+import com.whizzosoftware.hobson.venstar.api.dto.RootRequest;
+import com.whizzosoftware.hobson.venstar.poll.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A ColorTouchChannel that performs all request I/O without blocking on a single selector thread. Every in-flight
+ * request costs a socket and a small amount of state rather than a thread, so tens of thousands of requests can be
+ * outstanding at once.
+ *
+ * Idle connections are kept per host for reuse (HTTP/1.1 keep-alive). Since an idle connection stays registered
+ * for reads, one that the thermostat closes is noticed and discarded by the selector rather than by a health check.
+ *
+ * Results are delivered to a ColorTouchResponseListener on the selector thread (so a listener must not block). Every
+ * request receives exactly one callback, including requests that time out (SocketTimeoutException), are cancelled
+ * (CancellationException) or are outstanding when the channel is closed.
+ *
+ * @author Dan Noguerol
+ */
+public class NioColorTouchChannel implements ColorTouchChannel, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(NioColorTouchChannel.class);
+
+    public static final int DEFAULT_MAX_IDLE_PER_HOST = 2;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    public static final long DEFAULT_REQUEST_TIMEOUT = 30000;
+    private static final int READ_BUFFER_SIZE = 16384;
+    private static final long TICK_IN_MS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private final ColorTouchResponseListener listener;
+    private final int maxIdlePerHost;
+    private final long idleTimeout;
+    private final long requestTimeout;
+    private final Selector selector;
+    private final Queue<Exchange> submissions = new ConcurrentLinkedQueue<>();
+    private final Queue<Exchange> cancellations = new ConcurrentLinkedQueue<>();
+    private Thread thread;
+    private volatile boolean running;
+
+    // the following are only touched by the selector thread
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Map<String,Deque<Connection>> idle = new HashMap<>();
+    private final TimingWheel<Exchange> deadlines = new TimingWheel<>(TICK_IN_MS, WHEEL_SIZE);
+    private final List<Exchange> expired = new ArrayList<>();
+    private long nextEvictionTime;
+
+    // written only by the selector thread
+    private volatile int inFlightCount;
+    private volatile long connectionsCreated;
+    private volatile long connectionsReused;
+
+    public NioColorTouchChannel(ColorTouchResponseListener listener) throws IOException {
+        this(listener, DEFAULT_MAX_IDLE_PER_HOST, DEFAULT_IDLE_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param listener the listener to deliver results to
+     * @param maxIdlePerHost the maximum number of idle connections kept per host
+     * @param idleTimeout the time (in milliseconds) after which an idle connection is closed
+     * @param requestTimeout the time (in milliseconds) after which an outstanding request fails
+     *
+     * @throws IOException if the selector can't be opened
+     */
+    public NioColorTouchChannel(ColorTouchResponseListener listener, int maxIdlePerHost, long idleTimeout, long requestTimeout) throws IOException {
+        this.listener = listener;
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.idleTimeout = idleTimeout;
+        this.requestTimeout = requestTimeout;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Starts the selector thread.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runSelector();
+                }
+            }, "ColorTouch NIO");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the selector thread. Outstanding requests fail and all connections are closed.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (thread != null) {
+            selector.wakeup();
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            thread = null;
+        } else {
+            closeAll();
+        }
+    }
+
+    /**
+     * Returns the number of requests that have been submitted and not yet completed.
+     *
+     * @return an int
+     */
+    public int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    public long getConnectionsCreated() {
+        return connectionsCreated;
+    }
+
+    public long getConnectionsReused() {
+        return connectionsReused;
+    }
+
+    @Override
+    public RequestHandle sendRootRequest(RootRequest request) {
+        return submit(new Exchange(request, request.getURI(), HttpRequestEncoder.encode("GET", request.getURI(), null), true));
+    }
+
+    @Override
+    public RequestHandle sendInfoRequest(InfoRequest request) {
+        return submit(new Exchange(request, request.getURI(), request.getRequestBytes(), true));
+    }
+
+    @Override
+    public RequestHandle sendControlRequest(ControlRequest request) {
+        return submit(new Exchange(request, request.getURI(), HttpRequestEncoder.encodeControl(request), false));
+    }
+
+    private Exchange submit(Exchange ex) {
+        submissions.add(ex);
+        if (running) {
+            selector.wakeup();
+        } else if (submissions.remove(ex)) {
+            // the selector thread has stopped (or was never started) so it won't pick up the request
+            ex.finish();
+            listener.onFailure(ex.context, new IOException("Channel is not running"));
+        }
+        return ex;
+    }
+
+    private void runSelector() {
+        try {
+            while (running) {
+                selector.select(TICK_IN_MS);
+                long now = System.currentTimeMillis();
+
+                Set<SelectionKey> keys = selector.selectedKeys();
+                for (SelectionKey key : keys) {
+                    Connection c = (Connection)key.attachment();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isConnectable() && c.channel.finishConnect()) {
+                            key.interestOps(SelectionKey.OP_WRITE);
+                        }
+                        if (key.isWritable()) {
+                            onWritable(c);
+                        }
+                        if (key.isReadable()) {
+                            onReadable(c, now);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        onConnectionError(c, e, now);
+                    }
+                }
+                keys.clear();
+
+                processCancellations();
+                processSubmissions(now);
+                expireRequests(now);
+                if (now >= nextEvictionTime) {
+                    evictIdle(now);
+                    nextEvictionTime = now + 1000;
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            logger.debug("Selector closed");
+        } catch (Throwable t) {
+            logger.error("NIO channel selector failed", t);
+        } finally {
+            running = false;
+            closeAll();
+        }
+    }
+
+    private void processSubmissions(long now) {
+        Exchange ex;
+        while ((ex = submissions.poll()) != null) {
+            inFlightCount++;
+            if (ex.isCancelled()) {
+                complete(ex, new CancellationException("Request to " + ex.uri + " was cancelled"));
+            } else {
+                deadlines.schedule(ex, now + requestTimeout);
+                execute(ex, now, true);
+            }
+        }
+    }
+
+    /**
+     * Executes an exchange on an idle connection to its host or, if there isn't one, on a new connection.
+     *
+     * @param ex the exchange
+     * @param now the current time
+     * @param allowReuse whether an idle connection may be used
+     */
+    private void execute(Exchange ex, long now, boolean allowReuse) {
+        String hostKey = HttpConnectionPool.getKey(ex.uri);
+        Connection c = allowReuse ? pollIdle(hostKey, now) : null;
+        if (c != null) {
+            connectionsReused++;
+            c.reused = true;
+            start(c, ex);
+        } else {
+            SocketChannel sc = null;
+            try {
+                sc = SocketChannel.open();
+                sc.configureBlocking(false);
+                sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                sc.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                c = new Connection(hostKey, sc);
+                connectionsCreated++;
+                boolean connected = sc.connect(new InetSocketAddress(ex.uri.getHost(), HttpConnection.getPort(ex.uri)));
+                c.key = sc.register(selector, SelectionKey.OP_CONNECT, c);
+                if (connected) {
+                    start(c, ex);
+                } else {
+                    attach(c, ex);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (sc != null) {
+                    try {
+                        sc.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                complete(ex, e);
+            }
+        }
+    }
+
+    private void attach(Connection c, Exchange ex) {
+        c.exchange = ex;
+        ex.connection = c;
+        c.parser.reset();
+        c.out = ByteBuffer.wrap(ex.request);
+    }
+
+    private void start(Connection c, Exchange ex) {
+        attach(c, ex);
+        c.key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void onWritable(Connection c) throws IOException {
+        c.channel.write(c.out);
+        if (!c.out.hasRemaining()) {
+            c.out = null;
+            c.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void onReadable(Connection c, long now) throws IOException {
+        readBuffer.clear();
+        int n = c.channel.read(readBuffer);
+        if (c.exchange == null) {
+            // an idle connection was closed by the thermostat (or sent something unsolicited)
+            if (n != 0) {
+                removeIdle(c);
+                closeConnection(c);
+            }
+        } else if (n == -1) {
+            c.parser.onEof();
+            onResponse(c, now);
+        } else if (n > 0) {
+            readBuffer.flip();
+            if (c.parser.parse(readBuffer)) {
+                onResponse(c, now);
+            }
+        }
+    }
+
+    private void onResponse(Connection c, long now) {
+        Exchange ex = c.exchange;
+        c.exchange = null;
+        ex.connection = null;
+        if (c.parser.isKeepAlive() && running) {
+            release(c, now);
+        } else {
+            closeConnection(c);
+        }
+
+        // the parser isn't reset until the connection's next exchange starts, so the body can be handed over as-is
+        deadlines.cancel(ex);
+        inFlightCount--;
+        if (ex.finish()) {
+            try {
+                listener.onResponse(ex.context, c.parser.getStatusCode(), c.parser.getBody());
+            } catch (RuntimeException e) {
+                logger.error("Error delivering response", e);
+            }
+        } else {
+            notifyFailure(ex, new CancellationException("Request to " + ex.uri + " was cancelled"));
+        }
+    }
+
+    private void onConnectionError(Connection c, Throwable cause, long now) {
+        Exchange ex = c.exchange;
+        closeConnection(c);
+        if (ex != null) {
+            c.exchange = null;
+            ex.connection = null;
+            // a reused connection may have been closed by the thermostat just as the request was sent; if nothing
+            // came back it's safe to retry a GET once on a fresh connection
+            if (ex.idempotent && c.reused && !ex.retried && !c.parser.hasStarted() && !ex.isCancelled()) {
+                ex.retried = true;
+                execute(ex, now, false);
+            } else {
+                complete(ex, cause);
+            }
+        } else {
+            removeIdle(c);
+        }
+    }
+
+    private void processCancellations() {
+        Exchange ex;
+        while ((ex = cancellations.poll()) != null) {
+            // an exchange that hasn't been picked up yet is failed when it is
+            Connection c = ex.connection;
+            if (c != null) {
+                c.exchange = null;
+                ex.connection = null;
+                closeConnection(c);
+                complete(ex, new CancellationException("Request to " + ex.uri + " was cancelled"));
+            }
+        }
+    }
+
+    private void expireRequests(long now) {
+        deadlines.expire(now, expired);
+        for (Exchange ex : expired) {
+            Connection c = ex.connection;
+            if (c != null) {
+                c.exchange = null;
+                ex.connection = null;
+                closeConnection(c);
+            }
+            complete(ex, new SocketTimeoutException("Request to " + ex.uri + " timed out"));
+        }
+        expired.clear();
+    }
+
+    /**
+     * Completes an exchange with a failure.
+     *
+     * @param ex the exchange
+     * @param cause the cause of the failure
+     */
+    private void complete(Exchange ex, Throwable cause) {
+        deadlines.cancel(ex);
+        inFlightCount--;
+        if (!ex.finish() && !(cause instanceof CancellationException)) {
+            cause = new CancellationException("Request to " + ex.uri + " was cancelled");
+        }
+        notifyFailure(ex, cause);
+    }
+
+    private void notifyFailure(Exchange ex, Throwable cause) {
+        try {
+            listener.onFailure(ex.context, cause);
+        } catch (RuntimeException e) {
+            logger.error("Error delivering failure", e);
+        }
+    }
+
+    private Connection pollIdle(String hostKey, long now) {
+        Deque<Connection> q = idle.get(hostKey);
+        if (q != null) {
+            Connection c;
+            while ((c = q.pollFirst()) != null) {
+                if (now - c.lastUsed < idleTimeout && c.channel.isOpen()) {
+                    return c;
+                }
+                closeConnection(c);
+            }
+        }
+        return null;
+    }
+
+    private void release(Connection c, long now) {
+        Deque<Connection> q = idle.get(c.hostKey);
+        if (q == null) {
+            q = new ArrayDeque<>(maxIdlePerHost);
+            idle.put(c.hostKey, q);
+        }
+        if (q.size() >= maxIdlePerHost) {
+            closeConnection(c);
+        } else {
+            c.lastUsed = now;
+            q.addFirst(c);
+        }
+    }
+
+    private void removeIdle(Connection c) {
+        Deque<Connection> q = idle.get(c.hostKey);
+        if (q != null) {
+            q.remove(c);
+        }
+    }
+
+    private void evictIdle(long now) {
+        for (Iterator<Deque<Connection>> it = idle.values().iterator(); it.hasNext();) {
+            Deque<Connection> q = it.next();
+            for (Iterator<Connection> it2 = q.iterator(); it2.hasNext();) {
+                Connection c = it2.next();
+                if (now - c.lastUsed >= idleTimeout) {
+                    it2.remove();
+                    closeConnection(c);
+                }
+            }
+            if (q.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private void closeConnection(Connection c) {
+        if (c.key != null) {
+            c.key.cancel();
+        }
+        try {
+            c.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void closeAll() {
+        IOException closed = new IOException("Channel closed");
+        try {
+            for (SelectionKey key : selector.keys()) {
+                Connection c = (Connection)key.attachment();
+                closeConnection(c);
+                if (c.exchange != null) {
+                    Exchange ex = c.exchange;
+                    c.exchange = null;
+                    complete(ex, closed);
+                }
+            }
+        } catch (ClosedSelectorException ignored) {
+        }
+        Exchange ex;
+        while ((ex = submissions.poll()) != null) {
+            inFlightCount++;
+            complete(ex, closed);
+        }
+        idle.clear();
+        deadlines.clear();
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * A connection to a thermostat.
+     */
+    private static class Connection {
+        private final String hostKey;
+        private final SocketChannel channel;
+        private final HttpResponseParser parser = new HttpResponseParser();
+        private SelectionKey key;
+        private Exchange exchange;
+        private ByteBuffer out;
+        private long lastUsed;
+        private boolean reused;
+
+        Connection(String hostKey, SocketChannel channel) {
+            this.hostKey = hostKey;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * A single request/response exchange.
+     */
+    private class Exchange implements RequestHandle {
+        private final Object context;
+        private final URI uri;
+        private final byte[] request;
+        private final boolean idempotent;
+        // only touched by the selector thread
+        private Connection connection;
+        private boolean retried;
+        private boolean done;
+        private boolean cancelled;
+
+        Exchange(Object context, URI uri, byte[] request, boolean idempotent) {
+            this.context = context;
+            this.uri = uri;
+            this.request = request;
+            this.idempotent = idempotent;
+        }
+
+        /**
+         * Marks the exchange as done.
+         *
+         * @return false if it had been cancelled
+         */
+        synchronized boolean finish() {
+            done = true;
+            return !cancelled;
+        }
+
+        @Override
+        public long getTimeout() {
+            return requestTimeout;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean cancel() {
+            synchronized (this) {
+                if (done || cancelled) {
+                    return false;
+                }
+                cancelled = true;
+            }
+            cancellations.add(this);
+            selector.wakeup();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,487 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.json;
+
+import com.whizzosoftware.hobson.venstar.api.Tenths;
+import org.json.JSONException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A pull reader for the flat JSON objects returned by thermostats. It works directly on the UTF-8 bytes of a
+ * response body: member names are matched against pre-encoded names without creating Strings, numbers are parsed
+ * from their digits and values that aren't needed are skipped without being materialized.
+ *
+ * Only the members of the top-level object can be read; nested objects and arrays can only be skipped. Errors are
+ * reported with the same (unchecked) JSONException that org.json uses.
+ *
+ * @author Dan Noguerol
+ */
+public class JsonByteReader {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * The maximum number of significant digits that can be converted to a double exactly (the mantissa stays below
+     * 2^53 and the power of ten is exactly representable)
+     */
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private boolean first;
+
+    // the last number parsed
+    private long mantissa;
+    private int scale;
+    private boolean negative;
+    private int numberStart;
+    private boolean slowNumber;
+
+    public JsonByteReader() {
+    }
+
+    public JsonByteReader(ByteBuffer json) {
+        reset(json);
+    }
+
+    /**
+     * Encodes member names for use with nextName().
+     *
+     * @param names the names
+     *
+     * @return the encoded names
+     */
+    public static byte[][] names(String... names) {
+        byte[][] b = new byte[names.length][];
+        for (int i=0; i < names.length; i++) {
+            b[i] = names[i].getBytes(UTF8);
+        }
+        return b;
+    }
+
+    /**
+     * Resets the reader to read a new document. The buffer's contents are read in place and its position is not
+     * changed.
+     *
+     * @param json the UTF-8 encoded document
+     *
+     * @return this reader
+     */
+    public JsonByteReader reset(ByteBuffer json) {
+        if (json.hasArray()) {
+            buf = json.array();
+            pos = json.arrayOffset() + json.position();
+            limit = json.arrayOffset() + json.limit();
+        } else {
+            buf = new byte[json.remaining()];
+            json.duplicate().get(buf);
+            pos = 0;
+            limit = buf.length;
+        }
+        // skip a UTF-8 byte order mark
+        if (limit - pos >= 3 && buf[pos] == (byte)0xef && buf[pos + 1] == (byte)0xbb && buf[pos + 2] == (byte)0xbf) {
+            pos += 3;
+        }
+        first = true;
+        return this;
+    }
+
+    /**
+     * Consumes the opening brace of the top-level object.
+     */
+    public void beginObject() {
+        expect('{');
+        first = true;
+    }
+
+    /**
+     * Indicates whether the object has another member. When this returns false the object's closing brace has been
+     * consumed.
+     *
+     * @return a boolean
+     */
+    public boolean hasNext() {
+        int c = peek();
+        if (c == '}') {
+            pos++;
+            return false;
+        }
+        if (!first) {
+            expect(',');
+        }
+        first = false;
+        return true;
+    }
+
+    /**
+     * Reads the next member name (and the colon that follows it).
+     *
+     * @param names the names of interest (as created by names())
+     *
+     * @return the index of the name that matched or -1 if none did
+     */
+    public int nextName(byte[][] names) {
+        expect('"');
+        int start = pos;
+        while (true) {
+            if (pos >= limit) {
+                throw error("Unterminated member name");
+            }
+            byte b = buf[pos];
+            if (b == '"') {
+                break;
+            } else if (b == '\\') {
+                // an escaped name can't match any of ours but still has to be stepped over correctly
+                pos++;
+            }
+            pos++;
+        }
+        int len = pos - start;
+        pos++;
+        expect(':');
+
+        for (int i=0; i < names.length; i++) {
+            byte[] n = names[i];
+            if (n.length == len && regionMatches(start, n)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indicates whether the next value is null, consuming it if it is.
+     *
+     * @return a boolean
+     */
+    public boolean nextNull() {
+        if (peek() == 'n') {
+            expectLiteral("null");
+            return true;
+        }
+        return false;
+    }
+
+    public boolean nextBoolean() {
+        int c = peek();
+        if (c == 't') {
+            expectLiteral("true");
+            return true;
+        } else if (c == 'f') {
+            expectLiteral("false");
+            return false;
+        } else {
+            throw error("Expected a boolean");
+        }
+    }
+
+    /**
+     * Reads a number as a double. As with org.json's getDouble(), a string containing a number is also accepted.
+     *
+     * @return a double
+     */
+    public double nextDouble() {
+        if (peek() == '"') {
+            String s = nextString();
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                throw error("Expected a number but found \"" + s + "\"");
+            }
+        }
+        parseNumber();
+        return numberValue();
+    }
+
+    /**
+     * Reads a number as a fixed-point value in tenths (see Tenths). Numbers with at most one decimal place are
+     * converted straight from their digits; others are rounded to the nearest tenth. As with nextDouble(), a string
+     * containing a number is also accepted.
+     *
+     * @return the value in tenths
+     */
+    public int nextTenths() {
+        if (peek() == '"') {
+            return toTenths(nextDouble());
+        }
+        parseNumber();
+        if (slowNumber || scale > 1) {
+            return toTenths(numberValue());
+        }
+        long t = (scale == 0) ? mantissa * 10 : mantissa;
+        if (t >= Integer.MAX_VALUE) {
+            throw error("Number out of range");
+        }
+        return (int)(negative ? -t : t);
+    }
+
+    /**
+     * Reads a number as an int. This behaves as org.json's getInt() does: any fractional part is truncated and a
+     * string containing an integer is also accepted.
+     *
+     * @return an int
+     */
+    public int nextInt() {
+        if (peek() == '"') {
+            String s = nextString();
+            try {
+                return Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                throw error("Expected an integer but found \"" + s + "\"");
+            }
+        }
+        parseNumber();
+        if (slowNumber) {
+            return (int)Double.parseDouble(new String(buf, numberStart, pos - numberStart, ASCII));
+        }
+        long l = (scale == 0) ? mantissa : (long)(mantissa / POWERS_OF_TEN[scale]);
+        return (int)(negative ? -l : l);
+    }
+
+    public String nextString() {
+        expect('"');
+        int start = pos;
+        // most strings are plain ASCII and can be decoded without a builder
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b == '"') {
+                String s = new String(buf, start, pos - start, ASCII);
+                pos++;
+                return s;
+            } else if (b == '\\' || b < 0) {
+                break;
+            }
+            pos++;
+        }
+        return readEscapedString(start);
+    }
+
+    /**
+     * Skips the next value (of any type).
+     */
+    public void skipValue() {
+        int c = peek();
+        if (c == '"') {
+            pos++;
+            skipStringBody();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            while (pos < limit) {
+                byte b = buf[pos++];
+                if (b == '"') {
+                    skipStringBody();
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+            throw error("Unterminated value");
+        } else {
+            // a number or literal
+            int start = pos;
+            while (pos < limit) {
+                byte b = buf[pos];
+                if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                    break;
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Expected a value");
+            }
+        }
+    }
+
+    private int toTenths(double d) {
+        try {
+            return Tenths.valueOf(d);
+        } catch (IllegalArgumentException e) {
+            throw error("Number out of range");
+        }
+    }
+
+    /**
+     * Returns the value of the last number parsed.
+     *
+     * @return a double
+     */
+    private double numberValue() {
+        if (slowNumber) {
+            return Double.parseDouble(new String(buf, numberStart, pos - numberStart, ASCII));
+        }
+        double d = (scale == 0) ? mantissa : mantissa / POWERS_OF_TEN[scale];
+        return negative ? -d : d;
+    }
+
+    private void parseNumber() {
+        peek();
+        numberStart = pos;
+        negative = false;
+        mantissa = 0;
+        scale = 0;
+        slowNumber = false;
+        int digits = 0;
+
+        if (pos < limit && buf[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        int intStart = pos;
+        while (pos < limit && isDigit(buf[pos])) {
+            mantissa = mantissa * 10 + (buf[pos++] - '0');
+            digits++;
+        }
+        if (pos == intStart) {
+            throw error("Expected a number");
+        }
+        if (pos < limit && buf[pos] == '.') {
+            pos++;
+            int fracStart = pos;
+            while (pos < limit && isDigit(buf[pos])) {
+                mantissa = mantissa * 10 + (buf[pos++] - '0');
+                digits++;
+                scale++;
+            }
+            if (pos == fracStart) {
+                throw error("Expected a digit");
+            }
+        }
+        if (pos < limit && (buf[pos] == 'e' || buf[pos] == 'E')) {
+            pos++;
+            if (pos < limit && (buf[pos] == '+' || buf[pos] == '-')) {
+                pos++;
+            }
+            while (pos < limit && isDigit(buf[pos])) {
+                pos++;
+            }
+            slowNumber = true;
+        }
+        if (digits > MAX_FAST_DIGITS) {
+            slowNumber = true;
+        }
+    }
+
+    private String readEscapedString(int start) {
+        // decode from the start of the string, handling escapes and multi-byte characters
+        StringBuilder sb = new StringBuilder(pos - start + 16);
+        pos = start;
+        int runStart = pos;
+        while (true) {
+            if (pos >= limit) {
+                throw error("Unterminated string");
+            }
+            byte b = buf[pos];
+            if (b == '"') {
+                sb.append(new String(buf, runStart, pos - runStart, UTF8));
+                pos++;
+                return sb.toString();
+            } else if (b == '\\') {
+                sb.append(new String(buf, runStart, pos - runStart, UTF8));
+                if (pos + 1 >= limit) {
+                    throw error("Unterminated string");
+                }
+                byte e = buf[pos + 1];
+                pos += 2;
+                switch (e) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > limit) {
+                            throw error("Invalid unicode escape");
+                        }
+                        try {
+                            sb.append((char)Integer.parseInt(new String(buf, pos, 4, ASCII), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("Invalid unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append((char)e);
+                        break;
+                }
+                runStart = pos;
+            } else {
+                pos++;
+            }
+        }
+    }
+
+    private void skipStringBody() {
+        while (pos < limit) {
+            byte b = buf[pos++];
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                pos++;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private boolean regionMatches(int start, byte[] name) {
+        for (int i=0; i < name.length; i++) {
+            if (buf[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skips whitespace and returns the next byte without consuming it.
+     *
+     * @return the next byte
+     */
+    private int peek() {
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b;
+            }
+            pos++;
+        }
+        throw error("Unexpected end of input");
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private void expectLiteral(String s) {
+        if (pos + s.length() > limit) {
+            throw error("Expected " + s);
+        }
+        for (int i=0; i < s.length(); i++) {
+            if (buf[pos + i] != s.charAt(i)) {
+                throw error("Expected " + s);
+            }
+        }
+        pos += s.length();
+    }
+
+    private static boolean isDigit(byte b) {
+        return (b >= '0' && b <= '9');
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at position " + pos);
+    }
+}
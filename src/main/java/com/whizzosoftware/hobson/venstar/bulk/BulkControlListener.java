@@ -0,0 +1,23 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.bulk;
+
+/**
+ * An interface for objects that want to be notified when a bulk control operation completes.
+ *
+ * @author Dan Noguerol
+ */
+public interface BulkControlListener {
+    /**
+     * Called when every thermostat in the operation has an outcome. This is called on a dedicated thread (not while
+     * the plugin's lock is held) that notifies every listener in turn so implementations should return quickly.
+     *
+     * @param operation the completed operation
+     */
+    void onBulkControlComplete(BulkControlOperation operation);
+}
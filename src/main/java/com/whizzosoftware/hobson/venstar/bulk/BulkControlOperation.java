@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.bulk;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Tracks a bulk control operation that applies the same settings to a set of thermostats. Each thermostat's change
+ * proceeds independently; the operation collects each one's outcome and latency and notifies its listener once all
+ * of them are known.
+ *
+ * The plugin records outcomes while holding its own lock; the accessors are synchronized so the operation can be
+ * inspected from other threads. The listener is notified through an executor so that it never runs under the
+ * plugin's lock.
+ *
+ * @author Dan Noguerol
+ */
+public class BulkControlOperation {
+    private final BulkControlTarget target;
+    private final long startTime;
+    private final long deadline;
+    private final BulkControlListener listener;
+    private final Executor listenerExecutor;
+    private final Map<DeviceContext,DeviceControlResult> results = new LinkedHashMap<>();
+    private int remaining;
+
+    /**
+     * Constructor.
+     *
+     * @param devices the thermostats the operation applies to
+     * @param target the settings to apply
+     * @param startTime the time the operation started
+     * @param timeout the time after which thermostats without an outcome are considered timed out
+     * @param listener the listener to notify on completion (may be null)
+     * @param listenerExecutor the executor the listener is notified on
+     */
+    public BulkControlOperation(Collection<DeviceContext> devices, BulkControlTarget target, long startTime, long timeout, BulkControlListener listener, Executor listenerExecutor) {
+        if (devices == null || devices.isEmpty()) {
+            throw new IllegalArgumentException("At least one device must be specified");
+        }
+        this.target = target;
+        this.startTime = startTime;
+        this.deadline = startTime + timeout;
+        this.listener = listener;
+        this.listenerExecutor = listenerExecutor;
+        for (DeviceContext ctx : devices) {
+            results.put(ctx, null);
+        }
+        this.remaining = results.size();
+    }
+
+    public BulkControlTarget getTarget() {
+        return target;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the time after which thermostats without an outcome are considered timed out.
+     *
+     * @return a time in milliseconds
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns the thermostats the operation applies to (without duplicates).
+     *
+     * @return a set of device contexts
+     */
+    public synchronized Set<DeviceContext> getDevices() {
+        return new LinkedHashSet<>(results.keySet());
+    }
+
+    public synchronized boolean isComplete() {
+        return (remaining == 0);
+    }
+
+    public synchronized int getRemainingCount() {
+        return remaining;
+    }
+
+    /**
+     * Returns the results recorded so far (in the order the devices were given).
+     *
+     * @return a list of results
+     */
+    public synchronized List<DeviceControlResult> getResults() {
+        List<DeviceControlResult> list = new ArrayList<>(results.size() - remaining);
+        for (DeviceControlResult r : results.values()) {
+            if (r != null) {
+                list.add(r);
+            }
+        }
+        return list;
+    }
+
+    public synchronized DeviceControlResult getResult(DeviceContext ctx) {
+        return results.get(ctx);
+    }
+
+    public synchronized int getOutcomeCount(ControlOutcome outcome) {
+        int count = 0;
+        for (DeviceControlResult r : results.values()) {
+            if (r != null && r.getOutcome() == outcome) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the longest latency of the results recorded so far.
+     *
+     * @return a time in milliseconds
+     */
+    public synchronized long getMaxLatency() {
+        long max = 0;
+        for (DeviceControlResult r : results.values()) {
+            if (r != null) {
+                max = Math.max(max, r.getLatency());
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Records the outcome for a thermostat. The listener is notified (on the listener executor) when the last outcome
+     * is recorded.
+     *
+     * @param ctx the thermostat's device context
+     * @param outcome the outcome
+     * @param now the current time
+     *
+     * @return true if the outcome was recorded; false if the device isn't part of the operation or already has one
+     */
+    public boolean complete(DeviceContext ctx, ControlOutcome outcome, long now) {
+        boolean done;
+        synchronized (this) {
+            if (!results.containsKey(ctx) || results.get(ctx) != null) {
+                return false;
+            }
+            results.put(ctx, new DeviceControlResult(ctx, outcome, Math.max(0, now - startTime)));
+            done = (--remaining == 0);
+        }
+        if (done && listener != null) {
+            listenerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onBulkControlComplete(BulkControlOperation.this);
+                }
+            });
+        }
+        return true;
+    }
+
+    public synchronized String toString() {
+        return "BulkControlOperation{devices=" + results.size() + ", remaining=" + remaining + ", confirmed=" + getOutcomeCount(ControlOutcome.CONFIRMED) + "}";
+    }
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.bulk;
+
+import com.whizzosoftware.hobson.api.variable.VariableConstants;
+import com.whizzosoftware.hobson.venstar.api.dto.FanMode;
+import com.whizzosoftware.hobson.venstar.api.dto.ThermostatMode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The settings to apply to every thermostat in a bulk control operation. Any setting that is null is left as it is
+ * on each thermostat.
+ *
+ * @author Dan Noguerol
+ */
+public class BulkControlTarget {
+    private final ThermostatMode mode;
+    private final FanMode fanMode;
+    private final Double coolTempF;
+    private final Double heatTempF;
+
+    public BulkControlTarget(ThermostatMode mode, FanMode fanMode, Double coolTempF, Double heatTempF) {
+        if (mode == null && fanMode == null && coolTempF == null && heatTempF == null) {
+            throw new IllegalArgumentException("At least one setting must be specified");
+        }
+        this.mode = mode;
+        this.fanMode = fanMode;
+        this.coolTempF = coolTempF;
+        this.heatTempF = heatTempF;
+    }
+
+    public ThermostatMode getMode() {
+        return mode;
+    }
+
+    public FanMode getFanMode() {
+        return fanMode;
+    }
+
+    public Double getCoolTempF() {
+        return coolTempF;
+    }
+
+    public Double getHeatTempF() {
+        return heatTempF;
+    }
+
+    /**
+     * Returns the settings as the device variables that would be set to apply them.
+     *
+     * @return a map of variable name to value
+     */
+    public Map<String,Object> getVariables() {
+        Map<String,Object> vars = new LinkedHashMap<>();
+        if (mode != null) {
+            vars.put(VariableConstants.TSTAT_MODE, mode);
+        }
+        if (fanMode != null) {
+            vars.put(VariableConstants.TSTAT_FAN_MODE, fanMode);
+        }
+        if (coolTempF != null) {
+            vars.put(VariableConstants.TARGET_COOL_TEMP_F, coolTempF);
+        }
+        if (heatTempF != null) {
+            vars.put(VariableConstants.TARGET_HEAT_TEMP_F, heatTempF);
+        }
+        return vars;
+    }
+}
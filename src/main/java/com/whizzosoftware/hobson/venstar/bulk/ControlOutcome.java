@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.bulk;
+
+/**
+ * The outcome of a bulk control operation for a single thermostat.
+ *
+ * @author Dan Noguerol
+ */
+public enum ControlOutcome {
+    /**
+     * The thermostat reported the requested settings.
+     */
+    CONFIRMED,
+    /**
+     * The thermostat didn't report the requested settings before the confirmation or operation timed out.
+     */
+    TIMED_OUT,
+    /**
+     * The thermostat couldn't be reached before the operation timed out.
+     */
+    UNREACHABLE,
+    /**
+     * The plugin couldn't accept the change (e.g. because it is still discovering thermostats).
+     */
+    REJECTED,
+    /**
+     * The device isn't a known ColorTouch thermostat.
+     */
+    NOT_FOUND,
+    /**
+     * A later bulk control operation targeted the same thermostat before this one completed.
+     */
+    SUPERSEDED
+}
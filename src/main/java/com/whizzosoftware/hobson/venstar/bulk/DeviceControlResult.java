@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.bulk;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+
+/**
+ * The result of a bulk control operation for a single thermostat.
+ *
+ * @author Dan Noguerol
+ */
+public class DeviceControlResult {
+    private final DeviceContext context;
+    private final ControlOutcome outcome;
+    private final long latency;
+
+    public DeviceControlResult(DeviceContext context, ControlOutcome outcome, long latency) {
+        this.context = context;
+        this.outcome = outcome;
+        this.latency = latency;
+    }
+
+    public DeviceContext getContext() {
+        return context;
+    }
+
+    public ControlOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Returns the time from the start of the operation until this thermostat's outcome was known.
+     *
+     * @return a time in milliseconds
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    public String toString() {
+        return context + ": " + outcome + " (" + latency + "ms)";
+    }
+}
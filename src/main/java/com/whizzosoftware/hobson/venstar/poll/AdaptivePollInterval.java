@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.poll;
+
+/**
+ * Computes a poll interval for a single thermostat based on how often its responses actually contain changes. An
+ * exponentially weighted moving average (EWMA) of the change rate is kept; a thermostat whose values haven't changed
+ * in a while backs off toward the maximum interval while one that has recently changed is polled at (or near) the
+ * minimum interval.
+ *
+ * The average reacts to a change faster than it decays so that a thermostat that starts changing is sped up
+ * immediately while a thermostat that goes quiet is only slowly backed off.
+ *
+ * @author Dan Noguerol
+ */
+public class AdaptivePollInterval {
+    public static final double DEFAULT_CHANGE_WEIGHT = 0.5;
+    public static final double DEFAULT_DECAY_WEIGHT = 0.1;
+
+    private final long minInterval;
+    private long maxInterval;
+    private final double changeWeight;
+    private final double decayWeight;
+    /**
+     * The EWMA of the fraction of responses that contained changes (starts at 1 so new thermostats are polled at
+     * the minimum interval)
+     */
+    private double changeRate = 1.0;
+
+    public AdaptivePollInterval(long minInterval, long maxInterval) {
+        this(minInterval, maxInterval, DEFAULT_CHANGE_WEIGHT, DEFAULT_DECAY_WEIGHT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param minInterval the interval to use when the thermostat is changing (in milliseconds)
+     * @param maxInterval the interval to back off to when the thermostat is stable (in milliseconds)
+     * @param changeWeight the EWMA weight applied when a response contains changes
+     * @param decayWeight the EWMA weight applied when a response contains no changes
+     */
+    public AdaptivePollInterval(long minInterval, long maxInterval, double changeWeight, double decayWeight) {
+        this.minInterval = minInterval;
+        this.changeWeight = changeWeight;
+        this.decayWeight = decayWeight;
+        setMaxInterval(maxInterval);
+    }
+
+    public long getMinInterval() {
+        return minInterval;
+    }
+
+    public long getMaxInterval() {
+        return maxInterval;
+    }
+
+    public void setMaxInterval(long maxInterval) {
+        this.maxInterval = Math.max(minInterval, maxInterval);
+    }
+
+    public double getChangeRate() {
+        return changeRate;
+    }
+
+    /**
+     * Records the outcome of a response.
+     *
+     * @param changed whether the response contained any changed values
+     */
+    public void onResponse(boolean changed) {
+        if (changed) {
+            changeRate += changeWeight * (1.0 - changeRate);
+        } else {
+            changeRate -= decayWeight * changeRate;
+        }
+    }
+
+    /**
+     * Resets the change rate so the thermostat is polled at the minimum interval (e.g. after a user has changed it).
+     */
+    public void reset() {
+        changeRate = 1.0;
+    }
+
+    /**
+     * Returns the current poll interval.
+     *
+     * @return an interval in milliseconds
+     */
+    public long getInterval() {
+        double idle = 1.0 - changeRate;
+        return minInterval + (long)((maxInterval - minInterval) * idle * idle);
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.poll;
+
+/**
+ * A circuit breaker for requests to a single thermostat host. After a number of consecutive failures the circuit
+ * opens and no requests are allowed until a backoff period has elapsed. A single probe request is then allowed
+ * (half-open); if it succeeds the circuit closes, otherwise it re-opens with double the previous backoff (up to a
+ * maximum).
+ *
+ * @author Dan Noguerol
+ */
+public class CircuitBreaker {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF = 10000;
+    public static final long DEFAULT_MAX_BACKOFF = 600000;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long backoff;
+    private long nextAttemptTime;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param failureThreshold the number of consecutive failures that opens the circuit
+     * @param initialBackoff the time (in milliseconds) the circuit stays open the first time it opens
+     * @param maxBackoff the maximum time (in milliseconds) the circuit stays open
+     */
+    public CircuitBreaker(int failureThreshold, long initialBackoff, long maxBackoff) {
+        this.failureThreshold = failureThreshold;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isOpen() {
+        return (state == State.OPEN);
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Returns the time at which an open circuit will allow a probe request.
+     *
+     * @return a time in milliseconds
+     */
+    public long getNextAttemptTime() {
+        return nextAttemptTime;
+    }
+
+    /**
+     * Indicates whether a request is allowed. If the circuit is open and its backoff has elapsed, this moves it to
+     * half-open and allows the caller to send a single probe request.
+     *
+     * @param now the current time
+     *
+     * @return a boolean
+     */
+    public boolean allowRequest(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now >= nextAttemptTime) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // a probe is already outstanding
+                return false;
+        }
+    }
+
+    /**
+     * Records a successful request. This closes the circuit.
+     */
+    public void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        backoff = 0;
+    }
+
+    /**
+     * Records a failed request.
+     *
+     * @param now the current time
+     *
+     * @return a boolean indicating whether this failure opened the circuit
+     */
+    public boolean onFailure(long now) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            open(now, Math.min(backoff * 2, maxBackoff));
+            return true;
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open(now, initialBackoff);
+            return true;
+        }
+        return false;
+    }
+
+    private void open(long now, long backoff) {
+        this.state = State.OPEN;
+        this.backoff = backoff;
+        this.nextAttemptTime = now + backoff;
+    }
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.poll;
+
+import java.util.Random;
+
+/**
+ * Spreads thermostat polls across a poll interval so that a fleet of thermostats doesn't send its requests in the
+ * same instant. Each thermostat gets a stable phase (derived from a key such as its DeviceContext) that offsets its
+ * first poll, and each subsequent poll interval is shortened by a bounded random jitter.
+ *
+ * @author Dan Noguerol
+ */
+public class PollSpread {
+    public static final double DEFAULT_MAX_JITTER = 0.1;
+
+    private final double maxJitter;
+    private final Random random;
+
+    public PollSpread() {
+        this(DEFAULT_MAX_JITTER, new Random());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxJitter the maximum jitter as a fraction of the poll interval (between 0 and 1)
+     * @param random the random number generator to draw jitter from
+     */
+    public PollSpread(double maxJitter, Random random) {
+        if (maxJitter < 0 || maxJitter >= 1) {
+            throw new IllegalArgumentException("Maximum jitter must be between 0 and 1");
+        }
+        this.maxJitter = maxJitter;
+        this.random = random;
+    }
+
+    /**
+     * Returns the stable phase offset for a key. The same key always produces the same phase for a given interval.
+     *
+     * @param key the key (e.g. a DeviceContext)
+     * @param interval the poll interval in milliseconds
+     *
+     * @return a phase offset between 0 (inclusive) and interval (exclusive)
+     */
+    public static long getPhase(Object key, long interval) {
+        if (interval <= 0) {
+            return 0;
+        }
+        // mix the hash bits since keys such as IP-based device IDs tend to differ only in a few characters
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        h *= 0xc2b2ae35;
+        h ^= (h >>> 16);
+        return (h & 0x7fffffffL) % interval;
+    }
+
+    /**
+     * Draws a new jitter factor to apply to the next poll interval.
+     *
+     * @return a factor between 0 (inclusive) and the maximum jitter (exclusive)
+     */
+    public double nextJitter() {
+        return random.nextDouble() * maxJitter;
+    }
+
+    /**
+     * Applies a jitter factor to a poll interval.
+     *
+     * @param interval the poll interval in milliseconds
+     * @param jitter a jitter factor obtained from nextJitter()
+     *
+     * @return the shortened interval
+     */
+    public static long applyJitter(long interval, double jitter) {
+        return interval - (long)(interval * jitter);
+    }
+}
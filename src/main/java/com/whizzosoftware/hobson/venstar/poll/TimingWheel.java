@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.poll;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hashed timing wheel that tracks when items are next due. Each item is placed in the bucket that corresponds
+ * to its deadline so that expiring due items only requires walking the buckets for the ticks that have elapsed
+ * since the last call rather than scanning every scheduled item.
+ *
+ * This class makes no allowances for synchronization or thread safety; the plugin serializes all calls to it.
+ *
+ * @author Dan Noguerol
+ */
+public class TimingWheel<T> {
+    private final long tickDuration;
+    private final int mask;
+    private final Entry<T>[] buckets;
+    private final Map<T,Entry<T>> entries = new HashMap<>();
+    private long currentTick = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param tickDuration the duration of a single tick in milliseconds
+     * @param wheelSize the number of buckets in the wheel (rounded up to the next power of two)
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickDuration, int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be greater than 0");
+        }
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("Wheel size must be greater than 0");
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickDuration = tickDuration;
+        this.mask = size - 1;
+        this.buckets = (Entry<T>[])new Entry[size];
+    }
+
+    /**
+     * Schedules an item to become due at a specific time. If the item is already scheduled, its previous deadline
+     * is replaced.
+     *
+     * @param item the item to schedule
+     * @param deadline the time (in milliseconds) at which the item becomes due
+     */
+    public void schedule(T item, long deadline) {
+        Entry<T> e = entries.get(item);
+        if (e != null) {
+            unlink(e);
+        } else {
+            e = new Entry<>(item);
+            entries.put(item, e);
+        }
+        e.deadline = deadline;
+
+        // an item whose deadline has already passed goes in the current bucket so it's picked up on the next expire
+        long tick = deadline / tickDuration;
+        if (currentTick >= 0 && tick < currentTick) {
+            tick = currentTick;
+        }
+        link(e, (int)(tick & mask));
+    }
+
+    /**
+     * Removes an item from the wheel.
+     *
+     * @param item the item to remove
+     *
+     * @return a boolean indicating whether the item was scheduled
+     */
+    public boolean cancel(T item) {
+        Entry<T> e = entries.remove(item);
+        if (e != null) {
+            unlink(e);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all items from the wheel.
+     */
+    public void clear() {
+        Arrays.fill(buckets, null);
+        entries.clear();
+    }
+
+    public boolean isScheduled(T item) {
+        return entries.containsKey(item);
+    }
+
+    public Long getDeadline(T item) {
+        Entry<T> e = entries.get(item);
+        return (e != null) ? e.deadline : null;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all items that are due as of a specific time.
+     *
+     * @param now the current time in milliseconds
+     * @param expired a list to which all due items are added
+     *
+     * @return the number of due items
+     */
+    public int expire(long now, List<T> expired) {
+        long nowTick = now / tickDuration;
+        int count = 0;
+
+        // walk every bucket between the last processed tick and now (inclusive of the last processed tick since
+        // it may still hold items whose deadlines hadn't yet arrived); if more than a full rotation has elapsed,
+        // visiting each bucket once is sufficient
+        long startTick = (currentTick >= 0) ? Math.min(currentTick, nowTick) : nowTick - mask;
+        if (nowTick - startTick > mask) {
+            startTick = nowTick - mask;
+        }
+        for (long tick = startTick; tick <= nowTick; tick++) {
+            Entry<T> e = buckets[(int)(tick & mask)];
+            while (e != null) {
+                Entry<T> next = e.next;
+                if (e.deadline <= now) {
+                    unlink(e);
+                    entries.remove(e.item);
+                    expired.add(e.item);
+                    count++;
+                }
+                e = next;
+            }
+        }
+
+        if (nowTick > currentTick) {
+            currentTick = nowTick;
+        }
+
+        return count;
+    }
+
+    private void link(Entry<T> e, int bucket) {
+        e.bucket = bucket;
+        e.prev = null;
+        e.next = buckets[bucket];
+        if (e.next != null) {
+            e.next.prev = e;
+        }
+        buckets[bucket] = e;
+    }
+
+    private void unlink(Entry<T> e) {
+        if (e.prev != null) {
+            e.prev.next = e.next;
+        } else {
+            buckets[e.bucket] = e.next;
+        }
+        if (e.next != null) {
+            e.next.prev = e.prev;
+        }
+        e.prev = null;
+        e.next = null;
+    }
+
+    private static class Entry<T> {
+        private final T item;
+        private long deadline;
+        private int bucket;
+        private Entry<T> prev;
+        private Entry<T> next;
+
+        Entry(T item) {
+            this.item = item;
+        }
+    }
+}
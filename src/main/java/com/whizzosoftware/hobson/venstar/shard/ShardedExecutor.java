@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.shard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.*;
+
+/**
+ * Partitions work across a fixed number of single-threaded shards by key. Tasks with the same key always run on the
+ * same shard and therefore run one at a time in the order they were submitted; tasks with different keys can run
+ * in parallel.
+ *
+ * A shard count of 0 disables sharding: tasks are run immediately on the submitting thread.
+ *
+ * @author Dan Noguerol
+ */
+public class ShardedExecutor implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedExecutor.class);
+
+    private static final Executor INLINE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final ExecutorService[] shards;
+
+    /**
+     * Constructor.
+     *
+     * @param shardCount the number of shards (0 to run tasks on the submitting thread)
+     * @param name the prefix for the shard thread names
+     */
+    public ShardedExecutor(int shardCount, final String name) {
+        if (shardCount < 0) {
+            throw new IllegalArgumentException("Shard count can't be negative");
+        }
+        shards = new ExecutorService[shardCount];
+        for (int i=0; i < shardCount; i++) {
+            final String threadName = name + " " + i;
+            shards[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, threadName);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Indicates whether tasks are run on the submitting thread.
+     *
+     * @return a boolean
+     */
+    public boolean isInline() {
+        return (shards.length == 0);
+    }
+
+    /**
+     * Returns the index of the shard a key is assigned to.
+     *
+     * @param key the key
+     *
+     * @return a shard index (or 0 if sharding is disabled)
+     */
+    public int getShardIndex(String key) {
+        if (shards.length == 0) {
+            return 0;
+        }
+        // spread the hash so keys that only differ in their last characters (e.g. IP addresses) are distributed
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return (h & 0x7fffffff) % shards.length;
+    }
+
+    /**
+     * Returns the executor for the shard a key is assigned to.
+     *
+     * @param key the key
+     *
+     * @return an Executor
+     */
+    public Executor getShard(String key) {
+        return (shards.length == 0) ? INLINE : shards[getShardIndex(key)];
+    }
+
+    /**
+     * Runs a task on the shard a key is assigned to. A task that throws an exception is logged and doesn't affect
+     * the shard's subsequent tasks.
+     *
+     * @param key the key
+     * @param task the task
+     */
+    public void execute(String key, final Runnable task) {
+        if (shards.length == 0) {
+            task.run();
+        } else {
+            try {
+                shards[getShardIndex(key)].execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } catch (Throwable t) {
+                            logger.error("Error running sharded task", t);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.debug("Dropping task submitted after shutdown");
+            }
+        }
+    }
+
+    /**
+     * Waits until every task submitted before this call has run.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     *
+     * @return true if all shards were drained; false if the timeout elapsed first
+     *
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public boolean drain(long timeout) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(shards.length);
+        for (ExecutorService shard : shards) {
+            try {
+                shard.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        latch.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                latch.countDown();
+            }
+        }
+        return latch.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the shards. Tasks that have already been submitted are still run.
+     */
+    @Override
+    public void close() {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.state;
+
+import com.whizzosoftware.hobson.venstar.ColorTouchThermostat;
+
+/**
+ * An interface for objects that want to know when a thermostat's pending confirmation is resolved.
+ *
+ * @author Dan Noguerol
+ */
+public interface ConfirmationListener {
+    /**
+     * Called when a thermostat's pending confirmation is resolved.
+     *
+     * @param thermostat the thermostat
+     * @param confirmed true if the thermostat reported the pending values; false if the confirmation timed out
+     * @param now the current time
+     */
+    void onConfirmationComplete(ColorTouchThermostat thermostat, boolean confirmed, long now);
+}
@@ -21,8 +21,8 @@ import java.util.List;
 /**
  * Represents the state when the plugin is performing discovery.
  *
- * This class assumes that all of its onXXX methods will be called from the same thread (the plugin event loop thread)
- * so it makes no allowances for synchronization or thread safety.
+ * This class assumes that its onXXX methods will only be called by one thread at a time (the plugin calls them while
+ * holding its lock) so it makes no allowances for synchronization or thread safety.
  *
  * @author Dan Noguerol
  */
@@ -38,8 +38,9 @@ public class DiscoveryState implements State {
         // check if any discovered addresses are ones without an associated thermostat
         Collection<URI> uris = context.getDiscoveredURIs();
         for (URI uri : uris) {
-            // if so, send a root request to the host for its information
-            if (!context.hasThermostatWithHost(uri.getHost())) {
+            // if so, send a root request to the host for its information (unless discovery of it is already under
+            // way; otherwise every newly found address would repeat the requests to all the others)
+            if (!context.hasThermostatWithHost(uri.getHost()) && !hasPendingRequest(uri.getHost())) {
                 try {
                     logger.trace("Sending root request to thermostat at {}", uri);
                     RootRequest rr = new RootRequest(uri);
@@ -106,12 +107,12 @@ public class DiscoveryState implements State {
             if (!context.hasThermostatWithHost(request.getURI().getHost())) {
                 context.addThermostat(request.getURI(), response);
             } else if (request.getDeviceContext() != null) {
-                context.getThermostatDevice(request.getDeviceContext()).onInfoResponse(request, response, error, System.currentTimeMillis());
+                context.deliverInfoResponse(request, response, error);
             }
         } else if (error != null) {
             logger.error("Error requesting info from host " + request.getURI(), error);
             if (request.getDeviceContext() != null) {
-                context.getThermostatDevice(request.getDeviceContext()).onInfoResponse(request, null, error, System.currentTimeMillis());
+                context.deliverInfoResponse(request, null, error);
             }
         }
 
@@ -125,6 +126,20 @@ public class DiscoveryState implements State {
         }
     }
 
+    private boolean hasPendingRequest(String host) {
+        for (RootRequest rr : pendingRootRequests) {
+            if (rr.getURI().getHost().equals(host)) {
+                return true;
+            }
+        }
+        for (InfoRequest ir : pendingInfoRequests) {
+            if (ir.getURI().getHost().equals(host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected boolean hasPendingRequests() {
         return (pendingRootRequests.size() > 0 || pendingInfoRequests.size() > 0);
     }
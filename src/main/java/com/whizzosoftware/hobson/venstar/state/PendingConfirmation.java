@@ -42,6 +42,6 @@ public class PendingConfirmation {
     }
 
     public boolean hasTimeout(long now) {
-        return (controlRequestTime > 0 && now - controlRequestTime >= PENDING_CONTROL_REQUEST_TIMEOUT);
+        return (controlRequestTime != null && now - controlRequestTime >= PENDING_CONTROL_REQUEST_TIMEOUT);
     }
 }
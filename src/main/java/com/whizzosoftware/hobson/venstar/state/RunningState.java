@@ -39,7 +39,7 @@ public class RunningState implements State {
     @Override
     public void onInfoResponse(StateContext context, InfoRequest request, InfoResponse response, Throwable error) {
         if (request.getDeviceContext() != null) {
-            context.getThermostatDevice(request.getDeviceContext()).onInfoResponse(request, response, error, System.currentTimeMillis());
+            context.deliverInfoResponse(request, response, error);
         }
     }
 
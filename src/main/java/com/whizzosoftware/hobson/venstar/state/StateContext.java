@@ -10,6 +10,7 @@ package com.whizzosoftware.hobson.venstar.state;
 import com.whizzosoftware.hobson.api.device.DeviceContext;
 import com.whizzosoftware.hobson.venstar.ColorTouchThermostat;
 import com.whizzosoftware.hobson.venstar.api.ColorTouchChannel;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoRequest;
 import com.whizzosoftware.hobson.venstar.api.dto.InfoResponse;
 
 import java.net.URI;
@@ -28,5 +29,15 @@ public interface StateContext extends ColorTouchChannel {
     void addThermostat(URI baseURI, InfoResponse info);
     void refreshAllThermostats(long now);
     void doSetDeviceVariable(DeviceContext ctx, String name, Object value);
+
+    /**
+     * Hands an info response (or failure) to the thermostat the request was sent for. The thermostat may process it
+     * on another thread after this returns.
+     *
+     * @param request the request (which must have a device context)
+     * @param response the response (or null if the request failed)
+     * @param error the failure (or null)
+     */
+    void deliverInfoResponse(InfoRequest request, InfoResponse response, Throwable error);
     ColorTouchThermostat getThermostatDevice(DeviceContext ctx);
 }
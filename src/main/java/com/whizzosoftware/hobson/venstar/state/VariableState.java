@@ -8,113 +8,249 @@
 package com.whizzosoftware.hobson.venstar.state;
 
 import com.whizzosoftware.hobson.api.variable.VariableConstants;
+import com.whizzosoftware.hobson.venstar.api.Tenths;
+import com.whizzosoftware.hobson.venstar.api.dto.FanMode;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoResponse;
+import com.whizzosoftware.hobson.venstar.api.dto.ThermostatMode;
 
 /**
  * Represents the current values of a thermostat's variables.
  *
+ * Values are kept in primitive fields (modes as enum ordinals and temperatures in tenths of a degree, see Tenths)
+ * with a bitmask recording which of them are present, so a state is a small fixed-size object and reading, comparing
+ * or updating it never allocates. Getters for values that aren't present return null (for the modes) or an undefined
+ * value (for the rest); use the hasXXX() methods.
+ *
  * @author Dan Noguerol
  */
 public class VariableState {
-    private Boolean on;
-    private String mode;
-    private String fanMode;
-    private Double tempF;
-    private Double coolTempF;
-    private Double heatTempF;
+    /**
+     * The number of variables in a state. Variable i is represented by bit (1 &lt;&lt; i) in presence and diff masks.
+     */
+    public static final int VARIABLE_COUNT = 6;
+    public static final int ON = 1;
+    public static final int MODE = 1 << 1;
+    public static final int FAN_MODE = 1 << 2;
+    public static final int TEMP_F = 1 << 3;
+    public static final int COOL_TEMP_F = 1 << 4;
+    public static final int HEAT_TEMP_F = 1 << 5;
+    private static final int ALL = (1 << VARIABLE_COUNT) - 1;
+    /**
+     * The fields that count as variable values (see hasValues())
+     */
+    private static final int VALUES = MODE | FAN_MODE | TEMP_F | COOL_TEMP_F | HEAT_TEMP_F;
+    private static final String[] VARIABLE_NAMES = {
+        VariableConstants.ON,
+        VariableConstants.TSTAT_MODE,
+        VariableConstants.TSTAT_FAN_MODE,
+        VariableConstants.INDOOR_TEMP_F,
+        VariableConstants.TARGET_COOL_TEMP_F,
+        VariableConstants.TARGET_HEAT_TEMP_F
+    };
+
+    private static final ThermostatMode[] MODES = ThermostatMode.values();
+    private static final FanMode[] FAN_MODES = FanMode.values();
+
+    private int present;
+    private boolean on;
+    private byte mode;
+    private byte fanMode;
+    private int tempF;
+    private int coolTempF;
+    private int heatTempF;
 
     public VariableState() {}
 
-    public VariableState(Boolean on, String mode, String fanMode, Double tempF, Double coolTempF, Double heatTempF) {
+    public VariableState(Boolean on, ThermostatMode mode, FanMode fanMode, Double tempF, Double coolTempF, Double heatTempF) {
         update(on, mode, fanMode, tempF, coolTempF, heatTempF);
     }
 
-    public void update(Boolean on, String mode, String fanMode, Double tempF, Double coolTempF, Double heatTempF) {
-        this.on = on;
-        this.mode = mode;
-        this.fanMode = fanMode;
-        this.tempF = tempF;
-        this.coolTempF = coolTempF;
-        this.heatTempF = heatTempF;
+    /**
+     * Replaces all values (a null argument means the value isn't present).
+     */
+    public void update(Boolean on, ThermostatMode mode, FanMode fanMode, Double tempF, Double coolTempF, Double heatTempF) {
+        present = 0;
+        if (on != null) {
+            setOn(on);
+        }
+        setMode(mode);
+        setFanMode(fanMode);
+        setTempFTenths(Tenths.valueOf(tempF));
+        setCoolTempFTenths(Tenths.valueOf(coolTempF));
+        setHeatTempFTenths(Tenths.valueOf(heatTempF));
+    }
+
+    /**
+     * Replaces all values with those of an info response.
+     *
+     * @param response the response
+     */
+    public void update(InfoResponse response) {
+        present = 0;
+        if (response.getOn() != null) {
+            setOn(response.getOn());
+        }
+        setMode(response.getMode());
+        setFanMode(response.getFanMode());
+        setTempFTenths(response.getSpaceTempTenths());
+        setCoolTempFTenths(response.getCoolTempTenths());
+        setHeatTempFTenths(response.getHeatTempTenths());
+    }
+
+    /**
+     * Replaces all values with those of another state.
+     *
+     * @param state the state to copy
+     */
+    public void update(VariableState state) {
+        this.present = state.present;
+        this.on = state.on;
+        this.mode = state.mode;
+        this.fanMode = state.fanMode;
+        this.tempF = state.tempF;
+        this.coolTempF = state.coolTempF;
+        this.heatTempF = state.heatTempF;
     }
 
     public void clear() {
-        this.mode = null;
-        this.fanMode = null;
-        this.tempF = null;
-        this.coolTempF = null;
-        this.heatTempF = null;
+        present &= ON;
     }
 
     public boolean hasOn() {
-        return (on != null);
+        return (present & ON) != 0;
     }
 
-    public Boolean getOn() {
+    public boolean getOn() {
         return on;
     }
 
-    public void setOn(Boolean on) {
+    public void setOn(boolean on) {
         this.on = on;
+        present |= ON;
     }
 
     public boolean hasMode() {
-        return (mode != null);
+        return (present & MODE) != 0;
     }
 
-    public String getMode() {
-        return mode;
+    public ThermostatMode getMode() {
+        return hasMode() ? MODES[mode] : null;
     }
 
-    public void setMode(String mode) {
-        this.mode = mode;
+    public void setMode(ThermostatMode mode) {
+        if (mode != null) {
+            this.mode = (byte)mode.ordinal();
+            present |= MODE;
+        } else {
+            present &= ~MODE;
+        }
     }
 
     public boolean hasFanMode() {
-        return (fanMode != null);
+        return (present & FAN_MODE) != 0;
     }
 
-    public String getFanMode() {
-        return fanMode;
+    public FanMode getFanMode() {
+        return hasFanMode() ? FAN_MODES[fanMode] : null;
     }
 
-    public void setFanMode(String fanMode) {
-        this.fanMode = fanMode;
+    public void setFanMode(FanMode fanMode) {
+        if (fanMode != null) {
+            this.fanMode = (byte)fanMode.ordinal();
+            present |= FAN_MODE;
+        } else {
+            present &= ~FAN_MODE;
+        }
     }
 
     public boolean hasTempF() {
-        return (tempF != null);
+        return (present & TEMP_F) != 0;
     }
 
-    public Double getTempF() {
+    public double getTempF() {
+        return Tenths.toDouble(tempF);
+    }
+
+    public int getTempFTenths() {
         return tempF;
     }
 
-    public void setTempF(Double tempF) {
-        this.tempF = tempF;
+    public void setTempF(double tempF) {
+        setTempFTenths(Tenths.valueOf(tempF));
+    }
+
+    /**
+     * Sets the value in tenths of a degree.
+     *
+     * @param tempF the value (or Tenths.NONE to clear it)
+     */
+    public void setTempFTenths(int tempF) {
+        if (tempF != Tenths.NONE) {
+            this.tempF = tempF;
+            present |= TEMP_F;
+        } else {
+            present &= ~TEMP_F;
+        }
     }
 
     public boolean hasCoolTempF() {
-        return (coolTempF != null);
+        return (present & COOL_TEMP_F) != 0;
+    }
+
+    public double getCoolTempF() {
+        return Tenths.toDouble(coolTempF);
     }
 
-    public Double getCoolTempF() {
+    public int getCoolTempFTenths() {
         return coolTempF;
     }
 
-    public void setCoolTempF(Double coolTempF) {
-        this.coolTempF = coolTempF;
+    public void setCoolTempF(double coolTempF) {
+        setCoolTempFTenths(Tenths.valueOf(coolTempF));
+    }
+
+    /**
+     * Sets the value in tenths of a degree.
+     *
+     * @param coolTempF the value (or Tenths.NONE to clear it)
+     */
+    public void setCoolTempFTenths(int coolTempF) {
+        if (coolTempF != Tenths.NONE) {
+            this.coolTempF = coolTempF;
+            present |= COOL_TEMP_F;
+        } else {
+            present &= ~COOL_TEMP_F;
+        }
     }
 
     public boolean hasHeatTempF() {
-        return (heatTempF != null);
+        return (present & HEAT_TEMP_F) != 0;
     }
 
-    public Double getHeatTempF() {
+    public double getHeatTempF() {
+        return Tenths.toDouble(heatTempF);
+    }
+
+    public int getHeatTempFTenths() {
         return heatTempF;
     }
 
-    public void setHeatTempF(Double heatTempF) {
-        this.heatTempF = heatTempF;
+    public void setHeatTempF(double heatTempF) {
+        setHeatTempFTenths(Tenths.valueOf(heatTempF));
+    }
+
+    /**
+     * Sets the value in tenths of a degree.
+     *
+     * @param heatTempF the value (or Tenths.NONE to clear it)
+     */
+    public void setHeatTempFTenths(int heatTempF) {
+        if (heatTempF != Tenths.NONE) {
+            this.heatTempF = heatTempF;
+            present |= HEAT_TEMP_F;
+        } else {
+            present &= ~HEAT_TEMP_F;
+        }
     }
 
     /**
@@ -122,19 +258,109 @@ public class VariableState {
      *
      * @param name the variable name
      * @param value the variable value
+     *
+     * @throws IllegalArgumentException if the value isn't valid for the variable
      */
     public void setValue(String name, Object value) {
         if (VariableConstants.TSTAT_MODE.equals(name)) {
-            this.mode = value.toString();
+            setMode((value instanceof ThermostatMode) ? (ThermostatMode)value : ThermostatMode.valueOf(value.toString()));
         } else if (VariableConstants.TSTAT_FAN_MODE.equals(name)) {
-            this.fanMode = value.toString();
+            setFanMode((value instanceof FanMode) ? (FanMode)value : FanMode.valueOf(value.toString()));
         } else if (VariableConstants.INDOOR_TEMP_F.equals(name)) {
-            this.tempF = (Double)value;
+            setTempFTenths(getTenths(value));
         } else if (VariableConstants.TARGET_COOL_TEMP_F.equals(name)) {
-            this.coolTempF = getDouble(value);
+            setCoolTempFTenths(getTenths(value));
         } else if (VariableConstants.TARGET_HEAT_TEMP_F.equals(name)) {
-            this.heatTempF = getDouble(value);
+            setHeatTempFTenths(getTenths(value));
+        }
+    }
+
+    /**
+     * Returns the name of a variable.
+     *
+     * @param index the variable index (0 to VARIABLE_COUNT - 1)
+     *
+     * @return the variable name
+     */
+    public static String getVariableName(int index) {
+        return VARIABLE_NAMES[index];
+    }
+
+    /**
+     * Returns a variable value based on variable name in the form it is published (modes are published by name).
+     *
+     * @param name the variable name
+     *
+     * @return the value (or null if it isn't present)
+     */
+    public Object getValue(String name) {
+        for (int i=0; i < VARIABLE_COUNT; i++) {
+            if (VARIABLE_NAMES[i].equals(name)) {
+                return getValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a variable value based on variable index in the form it is published (modes are published by name).
+     *
+     * @param index the variable index (0 to VARIABLE_COUNT - 1)
+     *
+     * @return the value (or null if it isn't present)
+     */
+    public Object getValue(int index) {
+        if ((present & (1 << index)) == 0) {
+            return null;
+        }
+        switch (index) {
+            case 0:
+                return on;
+            case 1:
+                return MODES[mode].toString();
+            case 2:
+                return FAN_MODES[fanMode].toString();
+            case 3:
+                return Tenths.toDouble(tempF);
+            case 4:
+                return Tenths.toDouble(coolTempF);
+            case 5:
+                return Tenths.toDouble(heatTempF);
+            default:
+                throw new IllegalArgumentException("Invalid variable index: " + index);
+        }
+    }
+
+    /**
+     * Compares all variables of this state with those of another state in one pass. A variable counts as changed if
+     * it is missing from either state or its values differ.
+     *
+     * @param state the state to compare with
+     *
+     * @return a mask with the bits of the changed variables set (0 if nothing changed)
+     */
+    public int diff(VariableState state) {
+        // a variable missing from either side is always a change so stale values behind missing bits don't matter
+        int changed = ~(present & state.present) & ALL;
+        if (on != state.on) {
+            changed |= ON;
+        }
+        if (mode != state.mode) {
+            changed |= MODE;
+        }
+        if (fanMode != state.fanMode) {
+            changed |= FAN_MODE;
+        }
+        if (tempF != state.tempF) {
+            changed |= TEMP_F;
+        }
+        if (coolTempF != state.coolTempF) {
+            changed |= COOL_TEMP_F;
+        }
+        if (heatTempF != state.heatTempF) {
+            changed |= HEAT_TEMP_F;
         }
+        return changed;
     }
 
     /**
@@ -143,32 +369,32 @@ public class VariableState {
      * @return a boolean
      */
     public boolean hasValues() {
-        return (getMode() != null || getFanMode() != null || getTempF() != null || getCoolTempF() != null || getHeatTempF() != null);
+        return (present & VALUES) != 0;
     }
 
     /**
-     * Indicates whether this state is equal to another state.
+     * Indicates whether this state is equal to another state. Only the mode, fan mode and target temperatures are
+     * compared and only where both states have a value.
      *
      * @param state the state to compare with
      *
      * @return a boolean
      */
     public boolean equals(VariableState state) {
+        int both = present & state.present;
         return (
-            (getMode() == null || state.getMode() == null || getMode().equals(state.getMode())) &&
-            (getFanMode() == null || state.getFanMode() == null || getFanMode().equals(state.getFanMode())) &&
-            (getCoolTempF() == null || state.getCoolTempF() == null || getCoolTempF().equals(state.getCoolTempF())) &&
-            (getHeatTempF() == null || state.getHeatTempF() == null || getHeatTempF().equals(state.getHeatTempF()))
+            ((both & MODE) == 0 || mode == state.mode) &&
+            ((both & FAN_MODE) == 0 || fanMode == state.fanMode) &&
+            ((both & COOL_TEMP_F) == 0 || coolTempF == state.coolTempF) &&
+            ((both & HEAT_TEMP_F) == 0 || heatTempF == state.heatTempF)
         );
     }
 
-    private Double getDouble(Object value) {
-        if (value instanceof Double) {
-            return (Double)value;
-        } else if (value instanceof Integer) {
-            return (double)(Integer)value;
+    private int getTenths(Object value) {
+        if (value instanceof Number) {
+            return Tenths.valueOf(((Number)value).doubleValue());
         } else {
-            return Double.parseDouble(value.toString());
+            return Tenths.valueOf(Double.parseDouble(value.toString()));
         }
     }
 }
@@ -9,16 +9,45 @@ package com.whizzosoftware.hobson.venstar;
 
 import com.whizzosoftware.hobson.api.device.MockDeviceManager;
 import com.whizzosoftware.hobson.api.disco.MockDiscoManager;
+import com.whizzosoftware.hobson.api.variable.MockVariableManager;
+import com.whizzosoftware.hobson.api.variable.VariableConstants;
+import com.whizzosoftware.hobson.api.device.DeviceContext;
 import com.whizzosoftware.hobson.api.property.PropertyContainer;
+import com.whizzosoftware.hobson.venstar.api.LatencyTracker;
+import com.whizzosoftware.hobson.venstar.api.RequestHandle;
+import com.whizzosoftware.hobson.venstar.api.RequestPriority;
+import com.whizzosoftware.hobson.venstar.api.MockColorTouchChannel;
+import com.whizzosoftware.hobson.venstar.api.dto.FanMode;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoRequest;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoResponse;
+import com.whizzosoftware.hobson.venstar.api.dto.ThermostatMode;
+import com.whizzosoftware.hobson.venstar.api.plugin.http.MockHttpResponse;
+import com.whizzosoftware.hobson.venstar.bulk.BulkControlListener;
+import com.whizzosoftware.hobson.venstar.bulk.BulkControlOperation;
+import com.whizzosoftware.hobson.venstar.bulk.BulkControlTarget;
+import com.whizzosoftware.hobson.venstar.bulk.ControlOutcome;
+import com.whizzosoftware.hobson.venstar.poll.CircuitBreaker;
+import com.whizzosoftware.hobson.venstar.state.RunningState;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class ColorTouchPluginTest {
     @Test
     public void testOnPluginConfigurationUpdated() {
         MockDiscoManager discoManager = new MockDiscoManager();
         MockDeviceManager deviceManager = new MockDeviceManager();
         ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
         plugin.setDiscoManager(discoManager);
         plugin.setDeviceManager(deviceManager);
         assertEquals(0, plugin.getDiscoveredURIs().size());
@@ -33,4 +62,459 @@ public class ColorTouchPluginTest {
         plugin.onPluginConfigurationUpdate(config);
         assertEquals(1, plugin.getDiscoveredURIs().size());
     }
+
+    @Test
+    public void testMaxRefreshIntervalConfiguration() {
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(new MockDeviceManager());
+
+        // start with no configured interval
+        PropertyContainer config = new PropertyContainer();
+        plugin.onStartup(config);
+        assertEquals(ColorTouchThermostat.DEFAULT_MAX_REFRESH_INTERVAL_IN_MS, plugin.getMaxRefreshInterval());
+
+        // configure an interval in seconds
+        config.setPropertyValue(ColorTouchPlugin.PROP_MAX_REFRESH_INTERVAL, 120);
+        plugin.onPluginConfigurationUpdate(config);
+        assertEquals(120000, plugin.getMaxRefreshInterval());
+
+        // an invalid value falls back to the default
+        config.setPropertyValue(ColorTouchPlugin.PROP_MAX_REFRESH_INTERVAL, "foo");
+        plugin.onPluginConfigurationUpdate(config);
+        assertEquals(ColorTouchThermostat.DEFAULT_MAX_REFRESH_INTERVAL_IN_MS, plugin.getMaxRefreshInterval());
+    }
+
+    @Test
+    public void testMaxInFlightRequestsConfiguration() {
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(new MockDeviceManager());
+
+        PropertyContainer config = new PropertyContainer();
+        plugin.onStartup(config);
+        assertEquals(ColorTouchPlugin.DEFAULT_MAX_IN_FLIGHT_REQUESTS, plugin.getMaxInFlightRequests());
+        assertEquals(0, plugin.getInFlightRequestCount());
+        assertEquals(0, plugin.getQueuedRequestCount());
+
+        config.setPropertyValue(ColorTouchPlugin.PROP_MAX_IN_FLIGHT_REQUESTS, 8);
+        plugin.onPluginConfigurationUpdate(config);
+        assertEquals(8, plugin.getMaxInFlightRequests());
+
+        config.setPropertyValue(ColorTouchPlugin.PROP_MAX_IN_FLIGHT_REQUESTS, 0);
+        plugin.onPluginConfigurationUpdate(config);
+        assertEquals(ColorTouchPlugin.DEFAULT_MAX_IN_FLIGHT_REQUESTS, plugin.getMaxInFlightRequests());
+    }
+
+    @Test
+    public void testMalformedRootResponseIsReportedAsError() throws Exception {
+        MockColorTouchChannel channel = new MockColorTouchChannel();
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(channel);
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(new MockDeviceManager());
+        plugin.onStartup(new PropertyContainer());
+
+        // discovery sends a root request to a mistyped host that answers with an HTML page
+        assertTrue(plugin.addDiscoveredURI(new URI("http://192.168.0.10/")));
+        plugin.onRefresh();
+        assertEquals(1, channel.getRootRequests().size());
+        plugin.onHttpResponse(new MockHttpResponse(404, "<html><body>Not Found</body></html>"), channel.getRootRequests().get(0));
+        assertEquals(0, plugin.getInFlightRequestCount());
+
+        // the failed request is no longer pending so the host is retried on the next refresh
+        plugin.onRefresh();
+        assertEquals(2, channel.getRootRequests().size());
+        plugin.onShutdown();
+    }
+
+    @Test
+    public void testInfoRequestPriority() throws Exception {
+        URI uri = new URI("http://192.168.0.10");
+        DeviceContext ctx = DeviceContext.createLocal("plugin", "device");
+        assertEquals(RequestPriority.DISCOVERY, ColorTouchPlugin.getPriority(new InfoRequest(uri)));
+        assertEquals(RequestPriority.POLL, ColorTouchPlugin.getPriority(new InfoRequest(uri, ctx)));
+        assertEquals(RequestPriority.CONFIRMATION, ColorTouchPlugin.getPriority(new InfoRequest(uri, ctx, true)));
+    }
+
+    @Test
+    public void testSingleFlightInfoRequests() throws Exception {
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(new MockDeviceManager());
+        plugin.onStartup(new PropertyContainer());
+
+        // requests to the same thermostat share a single in-flight request
+        URI uri = new URI("http://192.168.0.10");
+        InfoRequest r1 = new InfoRequest(uri);
+        InfoRequest r2 = new InfoRequest(uri);
+        InfoRequest r3 = new InfoRequest(new URI("http://192.168.0.11"));
+        plugin.sendInfoRequest(r1);
+        plugin.sendInfoRequest(r2);
+        plugin.sendInfoRequest(r3);
+        assertEquals(2, plugin.getInFlightRequestCount());
+        assertEquals(2, plugin.getInfoRequestCallerCount(r1.getURI()));
+        assertEquals(1, plugin.getInfoRequestCallerCount(r3.getURI()));
+
+        // completing the request releases every attached caller
+        plugin.onHttpRequestFailure(new Exception(), r1);
+        assertEquals(1, plugin.getInFlightRequestCount());
+        assertEquals(0, plugin.getInfoRequestCallerCount(r1.getURI()));
+
+        // the next request starts a new flight
+        plugin.sendInfoRequest(new InfoRequest(uri));
+        assertEquals(2, plugin.getInFlightRequestCount());
+    }
+
+    @Test
+    public void testTickerLifecycle() {
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(new MockDeviceManager());
+        assertFalse(plugin.isTickerRunning());
+
+        plugin.onStartup(new PropertyContainer());
+        assertTrue(plugin.isTickerRunning());
+
+        // a tick with no thermostats is a no-op
+        plugin.onTick(System.currentTimeMillis());
+
+        plugin.onShutdown();
+        assertFalse(plugin.isTickerRunning());
+    }
+
+    @Test
+    public void testCancelRequest() throws Exception {
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(new MockDeviceManager());
+        PropertyContainer config = new PropertyContainer();
+        config.setPropertyValue(ColorTouchPlugin.PROP_MAX_IN_FLIGHT_REQUESTS, 1);
+        plugin.onStartup(config);
+        plugin.onShutdown();
+
+        // an attached info request is only aborted once every caller has cancelled
+        URI uri = new URI("http://192.168.0.10");
+        InfoRequest r1 = new InfoRequest(uri);
+        RequestHandle h1 = plugin.sendInfoRequest(r1);
+        RequestHandle h2 = plugin.sendInfoRequest(new InfoRequest(uri));
+        assertTrue(h1.cancel());
+        assertFalse(h1.cancel());
+        assertTrue(h1.isCancelled());
+        assertEquals(1, plugin.getInFlightRequestCount());
+
+        // a queued request is dropped from the queue when cancelled
+        RequestHandle h3 = plugin.sendInfoRequest(new InfoRequest(new URI("http://192.168.0.11")));
+        assertEquals(1, plugin.getQueuedRequestCount());
+        h3.cancel();
+        assertEquals(0, plugin.getQueuedRequestCount());
+
+        assertTrue(h2.cancel());
+        assertEquals(0, plugin.getInFlightRequestCount());
+
+        // a late failure for the aborted request is ignored and doesn't release another request's slot
+        plugin.sendInfoRequest(new InfoRequest(new URI("http://192.168.0.12")));
+        plugin.onHttpRequestFailure(new Exception(), r1);
+        assertEquals(1, plugin.getInFlightRequestCount());
+    }
+
+    @Test
+    public void testRequestTimeout() throws Exception {
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(new MockDeviceManager());
+        plugin.onStartup(new PropertyContainer());
+        plugin.onShutdown();
+
+        URI uri = new URI("http://192.168.0.10");
+        assertEquals(LatencyTracker.DEFAULT_TIMEOUT, plugin.getRequestTimeout(uri));
+        long now = System.currentTimeMillis();
+        InfoRequest r1 = new InfoRequest(uri);
+        RequestHandle h1 = plugin.sendInfoRequest(r1);
+        assertEquals(LatencyTracker.DEFAULT_TIMEOUT, h1.getTimeout());
+
+        // nothing happens before the timeout
+        plugin.onTick(now);
+        assertEquals(1, plugin.getInFlightRequestCount());
+        assertFalse(h1.isDone());
+
+        // the request is aborted and its caller notified once the timeout has elapsed
+        plugin.onTick(now + h1.getTimeout() + 1000);
+        assertEquals(0, plugin.getInFlightRequestCount());
+        assertTrue(h1.isDone());
+        assertFalse(h1.isCancelled());
+        assertEquals(0, plugin.getInfoRequestCallerCount(uri));
+
+        // a late response is ignored
+        plugin.onHttpRequestFailure(new Exception(), r1);
+        assertEquals(0, plugin.getInFlightRequestCount());
+    }
+
+    @Test
+    public void testQueuedInfoRequestIsNotCountedAsFailure() throws Exception {
+        MockDeviceManager dm = new MockDeviceManager();
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(dm);
+        plugin.setVariableManager(new MockVariableManager());
+        PropertyContainer config = new PropertyContainer();
+        config.setPropertyValue(ColorTouchPlugin.PROP_MAX_IN_FLIGHT_REQUESTS, 1);
+        plugin.onStartup(config);
+        plugin.onShutdown();
+
+        // another host holds the only in-flight slot
+        plugin.sendInfoRequest(new InfoRequest(new URI("http://192.168.0.11")));
+        assertEquals(1, plugin.getInFlightRequestCount());
+
+        URI uri = new URI("http://192.168.0.10");
+        ColorTouchThermostat ctt = new ColorTouchThermostat(plugin, plugin, uri, null);
+        dm.publishDevice(ctt);
+
+        // the thermostat's info requests stay queued well past their timeout without opening its circuit
+        long now = System.currentTimeMillis();
+        for (int i=0; i < CircuitBreaker.DEFAULT_FAILURE_THRESHOLD + 1; i++) {
+            ctt.onRefresh(now);
+            assertEquals(1, plugin.getQueuedRequestCount());
+            now += 2 * ColorTouchThermostat.DEFAULT_MAX_REFRESH_INTERVAL_IN_MS;
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, ctt.getCircuitState());
+        assertEquals(1, plugin.getInFlightRequestCount());
+    }
+
+    @Test
+    public void testHedgedInfoRequests() throws Exception {
+        MockDeviceManager dm = new MockDeviceManager();
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(dm);
+        plugin.setVariableManager(new MockVariableManager());
+        PropertyContainer config = new PropertyContainer();
+        config.setPropertyValue(ColorTouchPlugin.PROP_HEDGE_REQUESTS, true);
+        plugin.onStartup(config);
+        plugin.onShutdown();
+        assertTrue(plugin.isHedgingRequests());
+
+        URI uri = new URI("http://192.168.0.10");
+        ColorTouchThermostat ctt = new ColorTouchThermostat(plugin, new MockColorTouchChannel(), uri, null);
+        dm.publishDevice(ctt);
+
+        // build up a latency history (and hedge budget) with fast responses
+        for (int i=0; i < 20; i++) {
+            InfoRequest r = new InfoRequest(uri, ctt.getContext());
+            plugin.sendInfoRequest(r);
+            plugin.onHttpResponse(new MockHttpResponse(200, INFO_JSON), r);
+        }
+        assertEquals(0, plugin.getInFlightRequestCount());
+
+        // a slow request gets hedged (before it times out)
+        long now = System.currentTimeMillis();
+        InfoRequest r1 = new InfoRequest(uri, ctt.getContext());
+        RequestHandle h1 = plugin.sendInfoRequest(r1);
+        assertEquals(LatencyTracker.MIN_TIMEOUT, h1.getTimeout());
+        plugin.onTick(now + 500);
+        Object hedge = plugin.getHedgedRequest(r1);
+        assertNotNull(hedge);
+        assertEquals(2, plugin.getInFlightRequestCount());
+
+        // the original failing doesn't fail the caller while the hedge can still answer
+        plugin.onHttpRequestFailure(new Exception(), r1);
+        assertFalse(h1.isDone());
+        assertEquals(1, plugin.getInFlightRequestCount());
+
+        // the hedge answering completes the caller
+        plugin.onHttpResponse(new MockHttpResponse(200, INFO_JSON), hedge);
+        assertTrue(h1.isDone());
+        assertFalse(h1.isCancelled());
+        assertEquals(0, plugin.getInFlightRequestCount());
+        assertNull(plugin.getHedgedRequest(r1));
+
+        // the budget doesn't allow another hedge right away
+        InfoRequest r2 = new InfoRequest(uri, ctt.getContext());
+        plugin.sendInfoRequest(r2);
+        plugin.onTick(now + 600);
+        assertNull(plugin.getHedgedRequest(r2));
+        assertEquals(1, plugin.getInFlightRequestCount());
+    }
+
+    @Test
+    public void testUnchangedInfoResponseReusesLastResponse() throws Exception {
+        MockDeviceManager dm = new MockDeviceManager();
+        MockVariableManager vm = new MockVariableManager();
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(dm);
+        plugin.setVariableManager(vm);
+        plugin.onStartup(new PropertyContainer());
+        plugin.onShutdown();
+
+        URI uri = new URI("http://192.168.0.10");
+        ColorTouchThermostat ctt = new ColorTouchThermostat(plugin, new MockColorTouchChannel(), uri, null);
+        dm.publishDevice(ctt);
+
+        // the first response is parsed and diffed
+        InfoRequest r = new InfoRequest(uri, ctt.getContext());
+        plugin.sendInfoRequest(r);
+        plugin.onHttpResponse(new MockHttpResponse(200, INFO_JSON), r);
+        InfoResponse first = ctt.getLastInfoResponse();
+        assertNotNull(first);
+        int updates = vm.getVariableUpdates().size();
+        assertTrue(updates > 0);
+
+        // an identical body reuses the last response and produces no updates
+        r = new InfoRequest(uri, ctt.getContext());
+        plugin.sendInfoRequest(r);
+        plugin.onHttpResponse(new MockHttpResponse(200, INFO_JSON), r);
+        assertSame(first, ctt.getLastInfoResponse());
+        assertEquals(updates, vm.getVariableUpdates().size());
+
+        // a different body is parsed again
+        r = new InfoRequest(uri, ctt.getContext());
+        plugin.sendInfoRequest(r);
+        plugin.onHttpResponse(new MockHttpResponse(200, INFO_JSON.replace("\"spacetemp\": 79", "\"spacetemp\": 80")), r);
+        assertNotSame(first, ctt.getLastInfoResponse());
+        assertEquals(80.0, ctt.getCurrentState().getTempF(), 0);
+        assertTrue(vm.getVariableUpdates().size() > updates);
+
+        // a failure forgets the last response
+        r = new InfoRequest(uri, ctt.getContext());
+        plugin.sendInfoRequest(r);
+        plugin.onHttpRequestFailure(new Exception(), r);
+        assertNull(ctt.getLastInfoResponse());
+    }
+
+    @Test
+    public void testBulkControl() throws Exception {
+        MockDeviceManager dm = new MockDeviceManager();
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(dm);
+        plugin.setVariableManager(new MockVariableManager());
+
+        MockColorTouchChannel channel = new MockColorTouchChannel();
+        InfoResponse info = new InfoResponse(null, "thermo", ThermostatMode.HEAT, FanMode.AUTO, 0, 72.0, 78.0, 68.0, 2.0);
+        ColorTouchThermostat t1 = new ColorTouchThermostat(plugin, channel, new URI("http://192.168.0.10"), info);
+        ColorTouchThermostat t2 = new ColorTouchThermostat(plugin, channel, new URI("http://192.168.0.11"), info);
+        dm.publishDevice(t1);
+        dm.publishDevice(t2);
+        DeviceContext unknown = DeviceContext.create(plugin.getContext(), "unknown");
+        final ColorTouchPlugin p = plugin;
+        final BlockingQueue<BulkControlOperation> completed = new LinkedBlockingQueue<>();
+        final AtomicBoolean listenerHeldLock = new AtomicBoolean();
+        BulkControlListener listener = new BulkControlListener() {
+            @Override
+            public void onBulkControlComplete(BulkControlOperation operation) {
+                listenerHeldLock.compareAndSet(false, Thread.holdsLock(p));
+                completed.add(operation);
+            }
+        };
+        BulkControlTarget target = new BulkControlTarget(ThermostatMode.COOL, null, 74.0, null);
+
+        // changes are refused while discovering thermostats
+        BulkControlOperation op = plugin.setDeviceVariables(Arrays.asList(t1.getContext(), unknown), target, 1000, listener);
+        assertTrue(op.isComplete());
+        assertEquals(ControlOutcome.REJECTED, op.getResult(t1.getContext()).getOutcome());
+        assertEquals(ControlOutcome.NOT_FOUND, op.getResult(unknown).getOutcome());
+        assertSame(op, completed.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, plugin.getBulkControlCount());
+
+        // each thermostat starts its own read-modify-write cycle
+        plugin.setState(new RunningState());
+        long now = System.currentTimeMillis();
+        op = plugin.setDeviceVariables(Arrays.asList(t1.getContext(), t2.getContext(), t1.getContext()), target, 1000, listener);
+        assertEquals(2, op.getDevices().size());
+        assertEquals(2, op.getRemainingCount());
+        assertEquals(2, channel.getInfoRequests().size());
+        assertEquals(2, plugin.getBulkControlCount());
+
+        // the first thermostat applies the change and confirms it
+        t1.onInfoResponse(channel.getInfoRequests().get(0), info, null, now);
+        assertEquals(1, channel.getControlRequests().size());
+        t1.onInfoResponse(channel.getInfoRequests().get(0), new InfoResponse(null, "thermo", ThermostatMode.COOL, FanMode.AUTO, 0, 72.0, 74.0, 68.0, 2.0), null, now);
+        assertEquals(ControlOutcome.CONFIRMED, op.getResult(t1.getContext()).getOutcome());
+        assertFalse(op.isComplete());
+
+        // the second thermostat never confirms
+        t2.onInfoResponse(channel.getInfoRequests().get(1), info, null, now);
+        assertEquals(2, channel.getControlRequests().size());
+        plugin.onTick(now + 999);
+        assertFalse(op.isComplete());
+        plugin.onTick(now + 2000);
+        assertTrue(op.isComplete());
+        assertEquals(ControlOutcome.TIMED_OUT, op.getResult(t2.getContext()).getOutcome());
+        assertEquals(1, op.getOutcomeCount(ControlOutcome.CONFIRMED));
+        assertEquals(2, op.getResults().size());
+        assertSame(op, completed.poll(5, TimeUnit.SECONDS));
+        assertTrue(completed.isEmpty());
+        assertEquals(0, plugin.getBulkControlCount());
+
+        // the listener is never called while the plugin's lock is held
+        assertFalse(listenerHeldLock.get());
+
+        // a later operation supersedes an earlier one for the same thermostat
+        BulkControlOperation op1 = plugin.setDeviceVariables(Collections.singletonList(t1.getContext()), target, 1000, null);
+        BulkControlOperation op2 = plugin.setDeviceVariables(Collections.singletonList(t1.getContext()), new BulkControlTarget(null, null, 75.0, null), 1000, null);
+        assertEquals(ControlOutcome.SUPERSEDED, op1.getResult(t1.getContext()).getOutcome());
+        assertFalse(op2.isComplete());
+    }
+
+    @Test
+    public void testShardedThermostatProcessing() throws Exception {
+        MockDeviceManager dm = new MockDeviceManager();
+        ColorTouchPlugin plugin = new ColorTouchPlugin("id");
+        plugin.setTransport(new MockColorTouchChannel());
+        plugin.setDiscoManager(new MockDiscoManager());
+        plugin.setDeviceManager(dm);
+        plugin.setVariableManager(new MockVariableManager());
+        PropertyContainer config = new PropertyContainer();
+        config.setPropertyValue(ColorTouchPlugin.PROP_EVENT_SHARDS, 4);
+        plugin.onStartup(config);
+        assertEquals(4, plugin.getEventShardCount());
+
+        try {
+            List<ColorTouchThermostat> thermostats = new ArrayList<>();
+            for (int i=0; i < 16; i++) {
+                URI uri = new URI("http://192.168.0." + (10 + i));
+                plugin.addThermostat(uri, new InfoResponse(null, "t" + i, ThermostatMode.OFF, FanMode.AUTO, 0, 70.0, 75.0, 68.0, 2.0));
+                thermostats.add(plugin.getThermostatDevice(DeviceContext.create(plugin.getContext(), "192-168-0-" + (10 + i))));
+            }
+
+            // the shard count can't change once there are thermostats
+            config.setPropertyValue(ColorTouchPlugin.PROP_EVENT_SHARDS, 2);
+            plugin.onStartup(config);
+            assertEquals(4, plugin.getEventShardCount());
+
+            // responses are diffed on the thermostats' shards
+            for (ColorTouchThermostat t : thermostats) {
+                InfoRequest r = new InfoRequest(t.getBaseURI(), t.getContext());
+                plugin.sendInfoRequest(r);
+                plugin.onHttpResponse(new MockHttpResponse(200, INFO_JSON), r);
+            }
+            assertTrue(plugin.drainEventShards(5000));
+            for (ColorTouchThermostat t : thermostats) {
+                assertEquals(79.0, t.getCurrentState().getTempF(), 0);
+                assertEquals(ThermostatMode.AUTO, t.getCurrentState().getMode());
+                assertNotNull(t.getLastInfoResponse());
+            }
+
+            // variable changes run on the shards too
+            plugin.setState(new RunningState());
+            plugin.onSetDeviceVariable(thermostats.get(0).getContext(), VariableConstants.TSTAT_MODE, "COOL");
+            assertTrue(plugin.drainEventShards(5000));
+            assertTrue(thermostats.get(0).hasPendingControlConfirmation());
+        } finally {
+            plugin.onShutdown();
+        }
+    }
+
+    private static final String INFO_JSON = "{\"name\": \"Office\",\"mode\": 3,\"state\": 0,\"fan\": 0,\"fanstate\": 0,\"tempunits\": 0,\"schedule\": 0,\"schedulepart\": 0,\"away\": 0,\"holiday\": 0,\"override\": 0,\"overridetime\": 0,\"forceunocc\": 0,\"spacetemp\": 79,\"heattemp\": 78,\"cooltemp\": 75,\"cooltempmin\": 35,\"cooltempmax\": 99,\"heattempmin\": 35,\"heattempmax\": 99,\"setpointdelta\": 2,\"availablemodes\": 0}";
 }
@@ -16,6 +16,7 @@ import com.whizzosoftware.hobson.api.variable.*;
 import com.whizzosoftware.hobson.venstar.api.MockColorTouchChannel;
 import com.whizzosoftware.hobson.venstar.api.dto.*;
 import com.whizzosoftware.hobson.venstar.api.plugin.http.MockHttpResponse;
+import com.whizzosoftware.hobson.venstar.poll.CircuitBreaker;
 import com.whizzosoftware.hobson.venstar.state.PendingConfirmation;
 import org.junit.Test;
 
@@ -33,8 +34,8 @@ public class ColorTouchThermostatTest {
         ColorTouchThermostat t = new ColorTouchThermostat(plugin, null, new URI("http://192.168.0.129"), info);
         assertEquals("192-168-0-129", t.getContext().getDeviceId());
         assertEquals("thermo", t.getDefaultName());
-        assertEquals("AUTO", t.getCurrentState().getMode());
-        assertEquals("ON", t.getCurrentState().getFanMode());
+        assertEquals(ThermostatMode.AUTO, t.getCurrentState().getMode());
+        assertEquals(FanMode.ON, t.getCurrentState().getFanMode());
         assertEquals(1.0, t.getCurrentState().getTempF(), 0);
         assertEquals(2.0, t.getCurrentState().getCoolTempF(), 0);
         assertEquals(3.0, t.getCurrentState().getHeatTempF(), 0);
@@ -330,6 +331,7 @@ public class ColorTouchThermostatTest {
         assertEquals(0, channel.getInfoRequests().size());
         tstat.onRefresh(now);
         assertEquals(1, channel.getInfoRequests().size());
+        assertFalse(channel.getInfoRequests().get(0).isConfirmation());
 
         // perform three additional (1ms apart) refreshes and make sure an info request was not sent
         tstat.onRefresh(now + 1);
@@ -337,7 +339,9 @@ public class ColorTouchThermostatTest {
         tstat.onRefresh(now + 3);
         assertEquals(1, channel.getInfoRequests().size());
 
-        // perform a fourth refresh after the 10 second interval and make sure an info request was sent
+        // perform a fourth refresh after the first request was answered and the 10 second interval has elapsed and
+        // make sure an info request was sent
+        tstat.onInfoResponse(channel.getInfoRequests().get(0), info, null, now + 3);
         tstat.onRefresh(now + 10001);
         assertEquals(2, channel.getInfoRequests().size());
     }
@@ -371,9 +375,69 @@ public class ColorTouchThermostatTest {
         tstat.onRefresh(now + 3);
         assertEquals(1, channel.getInfoRequests().size());
 
-        // perform a fourth refresh after the default info response timeout interval and make sure an info request was sent
+        // a refresh after the refresh interval doesn't send another request while the first is still outstanding
+        // (the channel reports it if it times out)
         tstat.onRefresh(now + ColorTouchThermostat.DEFAULT_REFRESH_INTERVAL_IN_MS_NO_PENDING_CONFIRMS);
+        assertEquals(1, channel.getInfoRequests().size());
+        assertEquals(now + ColorTouchThermostat.LOST_INFO_REQUEST_TIMEOUT_IN_MS, tstat.getNextRefreshTime());
+
+        // perform a refresh once the request is assumed lost and make sure an info request was sent
+        tstat.onRefresh(now + ColorTouchThermostat.LOST_INFO_REQUEST_TIMEOUT_IN_MS);
         assertEquals(2, channel.getInfoRequests().size());
+
+        // the lost request should have been cancelled
+        assertTrue(channel.getInfoHandles().get(0).isCancelled());
+        assertFalse(channel.getInfoHandles().get(1).isDone());
+    }
+
+    @Test
+    public void testInitialRefreshTime() throws Exception {
+        ColorTouchPlugin plugin = new ColorTouchPlugin("foo");
+        plugin.setDeviceManager(new MockDeviceManager());
+        ColorTouchThermostat t1 = new ColorTouchThermostat(plugin, null, new URI("http://192.168.0.10"), null);
+        ColorTouchThermostat t2 = new ColorTouchThermostat(plugin, null, new URI("http://192.168.0.10"), null);
+
+        // the initial refresh is offset by a stable phase that falls within the refresh interval
+        long now = System.currentTimeMillis();
+        long t = t1.getInitialRefreshTime(now);
+        assertTrue(t >= now && t < now + ColorTouchThermostat.DEFAULT_REFRESH_INTERVAL_IN_MS_NO_PENDING_CONFIRMS);
+        assertEquals(t, t2.getInitialRefreshTime(now));
+    }
+
+    @Test
+    public void testAdaptiveRefreshInterval() throws Exception {
+        URI baseURI = new URI("http://localhost");
+        MockColorTouchChannel channel = new MockColorTouchChannel();
+        ColorTouchPlugin plugin = new ColorTouchPlugin("foo");
+        plugin.setDeviceManager(new MockDeviceManager());
+        plugin.setVariableManager(new MockVariableManager());
+
+        InfoResponse info = new InfoResponse(true, "thermo", ThermostatMode.COOL, FanMode.ON, 100, 1.0, 2.0, 3.0, 2.0);
+        ColorTouchThermostat tstat = new ColorTouchThermostat(plugin, channel, baseURI, info);
+        assertEquals(ColorTouchThermostat.DEFAULT_REFRESH_INTERVAL_IN_MS_NO_PENDING_CONFIRMS, tstat.getRefreshInterval());
+
+        // a stream of identical responses should back the refresh interval off
+        for (int i=0; i < 30; i++) {
+            tstat.onInfoResponse(new InfoRequest(baseURI), info, null, System.currentTimeMillis());
+        }
+        long stableInterval = tstat.getRefreshInterval();
+        assertTrue(stableInterval > ColorTouchThermostat.DEFAULT_REFRESH_INTERVAL_IN_MS_NO_PENDING_CONFIRMS * 3);
+        assertTrue(stableInterval <= ColorTouchThermostat.DEFAULT_MAX_REFRESH_INTERVAL_IN_MS);
+
+        // a response with a change should speed it back up
+        tstat.onInfoResponse(new InfoRequest(baseURI), new InfoResponse(true, "thermo", ThermostatMode.COOL, FanMode.ON, 100, 1.5, 2.0, 3.0, 2.0), null, System.currentTimeMillis());
+        assertTrue(tstat.getRefreshInterval() < stableInterval);
+
+        // a set variable request should go straight back to the minimum interval
+        tstat.onSetVariable(VariableConstants.TARGET_COOL_TEMP_F, 72.0);
+        assertEquals(ColorTouchThermostat.DEFAULT_REFRESH_INTERVAL_IN_MS_NO_PENDING_CONFIRMS, tstat.getRefreshInterval());
+
+        // a lower configured maximum should cap the interval
+        tstat.setMaxRefreshInterval(20000);
+        for (int i=0; i < 30; i++) {
+            tstat.onInfoResponse(new InfoRequest(baseURI), new InfoResponse(true, "thermo", ThermostatMode.COOL, FanMode.ON, 100, 1.5, 72.0, 3.0, 2.0), null, System.currentTimeMillis());
+        }
+        assertTrue(tstat.getRefreshInterval() <= 20000);
     }
 
     @Test
@@ -433,6 +497,46 @@ public class ColorTouchThermostatTest {
         }
     }
 
+    @Test
+    public void testUnreachableThermostatBackoff() throws Exception {
+        URI uri = new URI("http://192.168.0.129");
+        MockColorTouchChannel channel = new MockColorTouchChannel();
+        MockVariableManager vm = new MockVariableManager();
+        ColorTouchPlugin plugin = new ColorTouchPlugin("pluginId");
+        plugin.setDeviceManager(new MockDeviceManager());
+        plugin.setVariableManager(vm);
+        InfoResponse info = new InfoResponse(true, "thermo", ThermostatMode.COOL, FanMode.ON, 100, 1.0, 2.0, 3.0, 2.0);
+        ColorTouchThermostat tstat = new ColorTouchThermostat(plugin, channel, uri, info);
+
+        // fail enough requests to open the circuit
+        long now = System.currentTimeMillis();
+        for (int i=0; i < CircuitBreaker.DEFAULT_FAILURE_THRESHOLD; i++) {
+            now += ColorTouchThermostat.DEFAULT_REFRESH_INTERVAL_IN_MS_NO_PENDING_CONFIRMS;
+            tstat.onRefresh(now);
+            assertEquals(i + 1, channel.getInfoRequests().size());
+            tstat.onInfoResponse(channel.getInfoRequests().get(i), null, new RuntimeException(), now);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, tstat.getCircuitState());
+
+        // the null variable updates should only have been posted once
+        assertEquals(4, vm.getVariableUpdates().size());
+
+        // no requests are sent while the circuit is open and the next refresh is pushed out to the probe time
+        int count = channel.getInfoRequests().size();
+        tstat.onRefresh(now);
+        tstat.onSetVariable(VariableConstants.TARGET_COOL_TEMP_F, 72.0);
+        assertEquals(count, channel.getInfoRequests().size());
+        long probeTime = tstat.getNextRefreshTime();
+        assertEquals(now + CircuitBreaker.DEFAULT_INITIAL_BACKOFF, probeTime);
+
+        // a probe is sent once the backoff has elapsed and a successful response closes the circuit
+        tstat.onRefresh(probeTime);
+        assertEquals(count + 1, channel.getInfoRequests().size());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, tstat.getCircuitState());
+        tstat.onInfoResponse(channel.getInfoRequests().get(count), info, null, probeTime);
+        assertEquals(CircuitBreaker.State.CLOSED, tstat.getCircuitState());
+    }
+
     public void testOnSetVariableWithValue(Object value) throws Exception {
         MockColorTouchChannel channel = new MockColorTouchChannel();
         MockVariableManager vm = new MockVariableManager();
@@ -447,6 +551,7 @@ public class ColorTouchThermostatTest {
         // send a set variable request; we expect this to trigger an info request and no control request
         tstat.onSetVariable(VariableConstants.TARGET_COOL_TEMP_F, value);
         assertEquals(1, channel.getInfoRequests().size());
+        assertTrue(channel.getInfoRequests().get(0).isConfirmation());
         assertEquals(0, channel.getControlRequests().size());
         assertTrue(tstat.hasPendingControlConfirmation());
 
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar;
+
+import com.whizzosoftware.hobson.api.HobsonNotFoundException;
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.device.MockDeviceManager;
+import com.whizzosoftware.hobson.api.disco.MockDiscoManager;
+import com.whizzosoftware.hobson.api.property.PropertyContainer;
+import com.whizzosoftware.hobson.api.variable.MockVariableManager;
+import com.whizzosoftware.hobson.venstar.bulk.BulkControlListener;
+import com.whizzosoftware.hobson.venstar.bulk.BulkControlOperation;
+import com.whizzosoftware.hobson.venstar.bulk.BulkControlTarget;
+import com.whizzosoftware.hobson.venstar.bulk.ControlOutcome;
+import com.whizzosoftware.hobson.venstar.bulk.DeviceControlResult;
+import com.whizzosoftware.hobson.venstar.sim.ColorTouchSimulator;
+import com.whizzosoftware.hobson.venstar.sim.SimulatedThermostat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Runs the plugin (with its real transport) against a simulated thermostat fleet and ramps the number of
+ * thermostats. At each step the new thermostats are discovered and the plugin is then left to poll the fleet for a
+ * measurement window while variable changes are made at a steady rate. Each step reports:
+ *
+ * - the sustained rate of info requests (polls) the fleet received
+ * - the utilization of the plugin's ticker thread (its event loop) and the CPU used by all of its threads
+ * - heap growth over the window and the heap retained per thermostat
+ * - latency percentiles for a variable change to be confirmed (the time from the change being requested, through
+ *   the control request, to the info response that confirms it)
+ *
+ * Variable changes are made through setDeviceVariables() with a single thermostat so that the confirmation time is
+ * recorded by the plugin itself; each one takes the same path as onSetDeviceVariable().
+ *
+ * Each simulated thermostat has its own loopback address since the plugin identifies thermostats by host (see
+ * ColorTouchSimulator). Run it with "mvn -P loadtest verify" or directly with options such as:
+ *
+ * FleetLoadTester steps=100,250,500,1000 window=30 controls=5 shards=4 inflight=64 latency=50 jitter=20
+ */
+public class FleetLoadTester {
+    private final int[] steps;
+    private final long window;
+    private final double controlsPerSecond;
+    private final PropertyContainer config = new PropertyContainer();
+    private final long latency;
+    private final long jitter;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    public FleetLoadTester(int[] steps, long window, double controlsPerSecond, int eventShards, int maxInFlight, long latency, long jitter) {
+        this.steps = steps;
+        this.window = window;
+        this.controlsPerSecond = controlsPerSecond;
+        this.latency = latency;
+        this.jitter = jitter;
+        config.setPropertyValue(ColorTouchPlugin.PROP_EVENT_SHARDS, eventShards);
+        config.setPropertyValue(ColorTouchPlugin.PROP_MAX_IN_FLIGHT_REQUESTS, maxInFlight);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String,String> opts = new HashMap<>();
+        for (String arg : args) {
+            int ix = arg.indexOf('=');
+            if (ix > 0) {
+                opts.put(arg.substring(0, ix), arg.substring(ix + 1));
+            }
+        }
+        String[] s = get(opts, "steps", "50,100,200,400").split(",");
+        int[] steps = new int[s.length];
+        for (int i=0; i < s.length; i++) {
+            steps[i] = Integer.parseInt(s[i].trim());
+        }
+
+        FleetLoadTester tester = new FleetLoadTester(
+            steps,
+            Long.parseLong(get(opts, "window", "30")) * 1000,
+            Double.parseDouble(get(opts, "controls", "2")),
+            Integer.parseInt(get(opts, "shards", "0")),
+            Integer.parseInt(get(opts, "inflight", Integer.toString(ColorTouchPlugin.DEFAULT_MAX_IN_FLIGHT_REQUESTS))),
+            Long.parseLong(get(opts, "latency", "20")),
+            Long.parseLong(get(opts, "jitter", "10"))
+        );
+
+        System.out.println(StepResult.HEADER);
+        for (StepResult r : tester.run()) {
+            System.out.println(r);
+        }
+    }
+
+    /**
+     * Runs every step of the ramp.
+     *
+     * @return the result of each step
+     *
+     * @throws Exception on failure
+     */
+    public List<StepResult> run() throws Exception {
+        List<StepResult> results = new ArrayList<>();
+        int max = 0;
+        for (int n : steps) {
+            max = Math.max(max, n);
+        }
+
+        ColorTouchSimulator simulator = new ColorTouchSimulator(max, ColorTouchSimulator.Addressing.VIRTUAL_HOSTS);
+        ColorTouchPlugin plugin = new ColorTouchPlugin("loadtest");
+        MockVariableManager variableManager = new MockVariableManager();
+        try {
+            simulator.setLatency(latency);
+            simulator.setJitter(jitter);
+            simulator.start();
+
+            plugin.setDiscoManager(new MockDiscoManager());
+            plugin.setDeviceManager(new MockDeviceManager());
+            plugin.setVariableManager(variableManager);
+            plugin.onStartup(config);
+
+            List<SimulatedThermostat> fleet = simulator.getThermostats();
+            List<DeviceContext> contexts = new ArrayList<>();
+            for (int n : steps) {
+                // discover the step's new thermostats
+                long start = System.currentTimeMillis();
+                for (int i=contexts.size(); i < n; i++) {
+                    URI uri = fleet.get(i).getURI();
+                    contexts.add(DeviceContext.create(plugin.getContext(), uri.getHost().replace('.', '-')));
+                    plugin.addDiscoveredURI(uri);
+                }
+                long discoveryTime = awaitDiscovery(plugin, contexts, start + 60000) - start;
+                results.add(measure(plugin, variableManager, fleet.subList(0, n), contexts, discoveryTime));
+            }
+        } finally {
+            plugin.onShutdown();
+            simulator.close();
+        }
+
+        return results;
+    }
+
+    private long awaitDiscovery(ColorTouchPlugin plugin, List<DeviceContext> contexts, long deadline) throws InterruptedException {
+        for (DeviceContext ctx : contexts) {
+            while (true) {
+                try {
+                    plugin.getThermostatDevice(ctx);
+                    break;
+                } catch (HobsonNotFoundException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IllegalStateException("Thermostat was not discovered: " + ctx);
+                    }
+                    Thread.sleep(10);
+                }
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    private StepResult measure(ColorTouchPlugin plugin, MockVariableManager variableManager, List<SimulatedThermostat> fleet, List<DeviceContext> contexts, long discoveryTime) throws InterruptedException {
+        final StepResult result = new StepResult(fleet.size(), discoveryTime);
+        final List<Long> latencies = new ArrayList<>();
+        final Map<ControlOutcome,Integer> outcomes = new EnumMap<>(ControlOutcome.class);
+        final BulkControlListener listener = new BulkControlListener() {
+            @Override
+            public void onBulkControlComplete(BulkControlOperation op) {
+                synchronized (latencies) {
+                    for (DeviceControlResult r : op.getResults()) {
+                        Integer c = outcomes.get(r.getOutcome());
+                        outcomes.put(r.getOutcome(), (c != null) ? c + 1 : 1);
+                        if (r.getOutcome() == ControlOutcome.CONFIRMED) {
+                            latencies.add(r.getLatency());
+                        }
+                    }
+                    latencies.notifyAll();
+                }
+            }
+        };
+
+        // the mock variable manager's recorded updates are discarded so they don't show up as heap growth
+        variableManager.clearVariableUpdates();
+        long heapBefore = usedHeap();
+        int pollsBefore = getInfoRequestCount(fleet);
+        Map<String,Long> cpuBefore = getThreadCpuTimes();
+        long start = System.currentTimeMillis();
+
+        // make variable changes at a steady rate, round robin across the fleet
+        long controlInterval = (controlsPerSecond > 0) ? (long)(1000 / controlsPerSecond) : 0;
+        long nextControl = (controlInterval > 0) ? start : Long.MAX_VALUE;
+        int next = 0;
+        int controls = 0;
+        long end = start + window;
+        long now;
+        while ((now = System.currentTimeMillis()) < end) {
+            if (now >= nextControl) {
+                SimulatedThermostat t = fleet.get(next);
+                double cool = (t.getCoolTemp() == 76.0) ? 77.0 : 76.0;
+                plugin.setDeviceVariables(Collections.singletonList(contexts.get(next)), new BulkControlTarget(null, null, cool, null), listener);
+                controls++;
+                next = (next + 1) % fleet.size();
+                nextControl += controlInterval;
+            }
+            variableManager.clearVariableUpdates();
+            Thread.sleep(Math.max(1, Math.min(Math.min(nextControl, end), now + 100) - System.currentTimeMillis()));
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        int polls = getInfoRequestCount(fleet) - pollsBefore;
+        Map<String,Long> cpuAfter = getThreadCpuTimes();
+
+        // give outstanding changes a chance to be confirmed
+        synchronized (latencies) {
+            long deadline = System.currentTimeMillis() + ColorTouchPlugin.DEFAULT_BULK_CONTROL_TIMEOUT_IN_MS;
+            while (count(outcomes) < controls && System.currentTimeMillis() < deadline) {
+                latencies.wait(100);
+            }
+        }
+        variableManager.clearVariableUpdates();
+        long heapAfter = usedHeap();
+
+        result.pollsPerSecond = polls * 1000.0 / elapsed;
+        result.tickerUtilization = cpuDelta(cpuBefore, cpuAfter, "ColorTouch Ticker") / (elapsed * 1000000.0);
+        result.shardUtilization = cpuDelta(cpuBefore, cpuAfter, "ColorTouch shard") / (elapsed * 1000000.0);
+        result.pluginCpu = (cpuDelta(cpuBefore, cpuAfter, "ColorTouch Ticker") + cpuDelta(cpuBefore, cpuAfter, "ColorTouch shard") + cpuDelta(cpuBefore, cpuAfter, "ColorTouch I/O")) / (elapsed * 1000000.0);
+        result.heapGrowth = heapAfter - heapBefore;
+        result.heapPerThermostat = heapAfter / fleet.size();
+        result.controls = controls;
+        synchronized (latencies) {
+            Integer confirmed = outcomes.get(ControlOutcome.CONFIRMED);
+            result.confirmed = (confirmed != null) ? confirmed : 0;
+            Collections.sort(latencies);
+            result.p50 = percentile(latencies, 0.50);
+            result.p90 = percentile(latencies, 0.90);
+            result.p99 = percentile(latencies, 0.99);
+            result.max = latencies.isEmpty() ? 0 : latencies.get(latencies.size() - 1);
+        }
+        return result;
+    }
+
+    private int getInfoRequestCount(List<SimulatedThermostat> fleet) {
+        int count = 0;
+        for (SimulatedThermostat t : fleet) {
+            count += t.getInfoRequestCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the CPU time used so far by each live thread, keyed by thread name and id.
+     *
+     * @return a Map
+     */
+    private Map<String,Long> getThreadCpuTimes() {
+        Map<String,Long> times = new HashMap<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            long cpu = threads.getThreadCpuTime(t.getId());
+            if (cpu > -1) {
+                times.put(t.getName() + "#" + t.getId(), cpu);
+            }
+        }
+        return times;
+    }
+
+    private static long cpuDelta(Map<String,Long> before, Map<String,Long> after, String prefix) {
+        long total = 0;
+        for (Map.Entry<String,Long> e : after.entrySet()) {
+            if (e.getKey().startsWith(prefix)) {
+                Long b = before.get(e.getKey());
+                total += e.getValue() - ((b != null) ? b : 0);
+            }
+        }
+        return total;
+    }
+
+    private static int count(Map<ControlOutcome,Integer> outcomes) {
+        int count = 0;
+        for (Integer i : outcomes.values()) {
+            count += i;
+        }
+        return count;
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get(Math.min(sorted.size() - 1, (int)Math.ceil(p * sorted.size()) - 1));
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i=0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static String get(Map<String,String> opts, String name, String def) {
+        String s = opts.get(name);
+        return (s != null) ? s : def;
+    }
+
+    /**
+     * The measurements taken at one step of the ramp.
+     */
+    public static class StepResult {
+        static final String HEADER = String.format("%8s %10s %10s %8s %8s %8s %12s %10s %9s %7s %7s %7s %7s", "tstats", "discovery", "polls/s", "ticker", "shards", "cpu", "heap growth", "heap/tstat", "confirmed", "p50", "p90", "p99", "max");
+
+        public final int thermostats;
+        public final long discoveryTime;
+        public double pollsPerSecond;
+        public double tickerUtilization;
+        public double shardUtilization;
+        public double pluginCpu;
+        public long heapGrowth;
+        public long heapPerThermostat;
+        public int controls;
+        public int confirmed;
+        public long p50;
+        public long p90;
+        public long p99;
+        public long max;
+
+        StepResult(int thermostats, long discoveryTime) {
+            this.thermostats = thermostats;
+            this.discoveryTime = discoveryTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%8d %8dms %10.1f %7.1f%% %7.1f%% %7.2fc %12d %10d %4d/%-4d %5dms %5dms %5dms %5dms", thermostats, discoveryTime, pollsPerSecond, tickerUtilization * 100, shardUtilization * 100, pluginCpu, heapGrowth, heapPerThermostat, confirmed, controls, p50, p90, p99, max);
+        }
+    }
+}
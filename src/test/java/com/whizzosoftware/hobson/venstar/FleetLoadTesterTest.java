@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar;
+
+import com.whizzosoftware.hobson.venstar.sim.ColorTouchSimulator;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FleetLoadTesterTest {
+    @Test
+    public void testSmallRamp() throws Exception {
+        try {
+            new ColorTouchSimulator(1, ColorTouchSimulator.Addressing.VIRTUAL_HOSTS).close();
+        } catch (IOException e) {
+            // the platform doesn't route all of 127.0.0.0/8 to the loopback interface
+            Assume.assumeNoException(e);
+        }
+
+        List<FleetLoadTester.StepResult> results = new FleetLoadTester(new int[] {2, 4}, 1500, 2, 0, 8, 0, 0).run();
+        assertEquals(2, results.size());
+        assertEquals(2, results.get(0).thermostats);
+        assertEquals(4, results.get(1).thermostats);
+        for (FleetLoadTester.StepResult r : results) {
+            assertTrue(r.pollsPerSecond > 0);
+            assertEquals(3, r.controls);
+            assertEquals(r.controls, r.confirmed);
+            assertTrue(r.p50 > 0);
+            assertTrue(r.max >= r.p99);
+        }
+    }
+}
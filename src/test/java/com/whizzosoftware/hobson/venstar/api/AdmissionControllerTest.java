@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControllerTest {
+    @Test
+    public void testCapAndQueue() {
+        final List<Object> dispatched = new ArrayList<>();
+        AdmissionController ac = new AdmissionController(2, new AdmissionController.Dispatcher() {
+            @Override
+            public void dispatch(Object request) {
+                dispatched.add(request);
+            }
+        });
+
+        ac.submit("r1", RequestPriority.POLL, 0);
+        ac.submit("r2", RequestPriority.POLL, 0);
+        ac.submit("r3", RequestPriority.POLL, 0);
+        ac.submit("r4", RequestPriority.POLL, 0);
+
+        // only two should have been sent
+        assertEquals(2, dispatched.size());
+        assertEquals(2, ac.getInFlightCount());
+        assertEquals(2, ac.getQueueDepth());
+
+        // completing one should send the next queued request in order
+        assertTrue(ac.onComplete("r1", 0));
+        assertEquals(3, dispatched.size());
+        assertEquals("r3", dispatched.get(2));
+        assertEquals(2, ac.getInFlightCount());
+        assertEquals(1, ac.getQueueDepth());
+
+        // completing an unknown request shouldn't release a slot
+        assertFalse(ac.onComplete("foo", 0));
+        assertEquals(3, dispatched.size());
+        assertEquals(2, ac.getInFlightCount());
+
+        ac.onComplete("r2", 0);
+        ac.onComplete("r3", 0);
+        ac.onComplete("r4", 0);
+        assertEquals(4, dispatched.size());
+        assertEquals(0, ac.getInFlightCount());
+        assertEquals(0, ac.getQueueDepth());
+    }
+
+    @Test
+    public void testRaiseMaxDispatchesQueued() {
+        final List<Object> dispatched = new ArrayList<>();
+        AdmissionController ac = new AdmissionController(1, new AdmissionController.Dispatcher() {
+            @Override
+            public void dispatch(Object request) {
+                dispatched.add(request);
+            }
+        });
+        ac.submit("r1", RequestPriority.POLL, 0);
+        ac.submit("r2", RequestPriority.POLL, 0);
+        ac.submit("r3", RequestPriority.POLL, 0);
+        assertEquals(1, dispatched.size());
+
+        ac.setMaxInFlight(3);
+        assertEquals(3, dispatched.size());
+        assertEquals(0, ac.getQueueDepth());
+    }
+
+    @Test
+    public void testSynchronousCompletion() {
+        // a dispatcher that fails immediately (e.g. an unresolvable host) must not leak in-flight slots
+        final List<Object> dispatched = new ArrayList<>();
+        final AdmissionController[] ac = new AdmissionController[1];
+        ac[0] = new AdmissionController(1, new AdmissionController.Dispatcher() {
+            @Override
+            public void dispatch(Object request) {
+                dispatched.add(request);
+                ac[0].onComplete(request, 0);
+            }
+        });
+        ac[0].submit("r1", RequestPriority.POLL, 0);
+        ac[0].submit("r2", RequestPriority.POLL, 0);
+        assertEquals(2, dispatched.size());
+        assertEquals(0, ac[0].getInFlightCount());
+        assertEquals(0, ac[0].getQueueDepth());
+    }
+
+    @Test
+    public void testPriorityOrder() {
+        final List<Object> dispatched = new ArrayList<>();
+        AdmissionController ac = new AdmissionController(1, new AdmissionController.Dispatcher() {
+            @Override
+            public void dispatch(Object request) {
+                dispatched.add(request);
+            }
+        });
+
+        // fill the single slot and queue one request of each class in reverse priority order
+        ac.submit("busy", RequestPriority.POLL, 0);
+        ac.submit("poll", RequestPriority.POLL, 0);
+        ac.submit("discovery", RequestPriority.DISCOVERY, 0);
+        ac.submit("confirm", RequestPriority.CONFIRMATION, 0);
+        ac.submit("control", RequestPriority.CONTROL, 0);
+        assertEquals(4, ac.getQueueDepth());
+        assertEquals(1, ac.getQueueDepth(RequestPriority.POLL));
+
+        ac.onComplete("busy", 1);
+        ac.onComplete("control", 2);
+        ac.onComplete("confirm", 3);
+        ac.onComplete("discovery", 4);
+        assertEquals(5, dispatched.size());
+        assertEquals("control", dispatched.get(1));
+        assertEquals("confirm", dispatched.get(2));
+        assertEquals("discovery", dispatched.get(3));
+        assertEquals("poll", dispatched.get(4));
+    }
+
+    @Test
+    public void testStarvationProtection() {
+        final List<Object> dispatched = new ArrayList<>();
+        AdmissionController ac = new AdmissionController(1, new AdmissionController.Dispatcher() {
+            @Override
+            public void dispatch(Object request) {
+                dispatched.add(request);
+            }
+        });
+
+        ac.submit("busy", RequestPriority.CONTROL, 0);
+        ac.submit("poll", RequestPriority.POLL, 0);
+
+        // a steady stream of control requests ahead of the poll's maximum wait
+        ac.submit("control1", RequestPriority.CONTROL, 100);
+        ac.onComplete("busy", 200);
+        assertEquals("control1", dispatched.get(1));
+
+        // once the poll has waited longer than its maximum wait it goes ahead of newer control requests
+        ac.submit("control2", RequestPriority.CONTROL, RequestPriority.POLL.getMaxWait() - 1);
+        ac.onComplete("control1", RequestPriority.POLL.getMaxWait());
+        assertEquals("poll", dispatched.get(2));
+        ac.onComplete("poll", RequestPriority.POLL.getMaxWait() + 1);
+        assertEquals("control2", dispatched.get(3));
+    }
+
+    @Test
+    public void testPromote() {
+        final List<Object> dispatched = new ArrayList<>();
+        AdmissionController ac = new AdmissionController(1, new AdmissionController.Dispatcher() {
+            @Override
+            public void dispatch(Object request) {
+                dispatched.add(request);
+            }
+        });
+        ac.submit("r1", RequestPriority.POLL, 0);
+        ac.submit("r2", RequestPriority.POLL, 0);
+        ac.submit("r3", RequestPriority.DISCOVERY, 0);
+
+        // promoting a queued request moves it ahead of lower priority ones
+        assertTrue(ac.promote("r2", RequestPriority.CONFIRMATION));
+        assertEquals(1, ac.getQueueDepth(RequestPriority.CONFIRMATION));
+        assertEquals(0, ac.getQueueDepth(RequestPriority.POLL));
+
+        // in-flight, unknown or already higher priority requests aren't moved
+        assertFalse(ac.promote("r1", RequestPriority.CONFIRMATION));
+        assertFalse(ac.promote("foo", RequestPriority.CONFIRMATION));
+        assertFalse(ac.promote("r2", RequestPriority.POLL));
+
+        ac.onComplete("r1", 0);
+        assertEquals("r2", dispatched.get(1));
+        assertEquals(1, ac.getQueueDepth(RequestPriority.DISCOVERY));
+    }
+
+    @Test
+    public void testCancel() {
+        final List<Object> dispatched = new ArrayList<>();
+        AdmissionController ac = new AdmissionController(1, new AdmissionController.Dispatcher() {
+            @Override
+            public void dispatch(Object request) {
+                dispatched.add(request);
+            }
+        });
+        ac.submit("r1", RequestPriority.POLL, 0);
+        ac.submit("r2", RequestPriority.POLL, 0);
+        ac.submit("r3", RequestPriority.POLL, 0);
+
+        // cancelling a queued request removes it without dispatching anything
+        assertTrue(ac.cancel("r2", 0));
+        assertEquals(1, ac.getQueueDepth());
+        assertEquals(1, dispatched.size());
+
+        // cancelling an in-flight request releases its slot
+        assertTrue(ac.isInFlight("r1"));
+        assertTrue(ac.cancel("r1", 0));
+        assertFalse(ac.isInFlight("r1"));
+        assertEquals("r3", dispatched.get(1));
+        assertFalse(ac.cancel("foo", 0));
+    }
+}
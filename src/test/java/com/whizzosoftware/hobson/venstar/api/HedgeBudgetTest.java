@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HedgeBudgetTest {
+    @Test
+    public void testRatio() {
+        HedgeBudget budget = new HedgeBudget(0.1, 5);
+        assertFalse(budget.tryAcquire());
+
+        // ten requests earn one hedge
+        for (int i=0; i < 10; i++) {
+            budget.onRequest();
+        }
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    public void testBurstCap() {
+        HedgeBudget budget = new HedgeBudget(0.5, 2);
+        for (int i=0; i < 100; i++) {
+            budget.onRequest();
+        }
+        assertEquals(2.0, budget.getTokens(), 0.0001);
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyTrackerTest {
+    @Test
+    public void testDefaultTimeoutUntilEnoughSamples() {
+        LatencyTracker lt = new LatencyTracker();
+        assertEquals(LatencyTracker.DEFAULT_TIMEOUT, lt.getTimeout());
+        for (int i=0; i < LatencyTracker.MIN_SAMPLES - 1; i++) {
+            lt.record(100);
+        }
+        assertEquals(LatencyTracker.DEFAULT_TIMEOUT, lt.getTimeout());
+        lt.record(100);
+        assertEquals(LatencyTracker.MIN_TIMEOUT, lt.getTimeout());
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyTracker lt = new LatencyTracker(100);
+        for (int i=1; i <= 100; i++) {
+            lt.record(i * 10);
+        }
+        assertEquals(500, lt.getPercentile(0.5));
+        assertEquals(990, lt.getPercentile(0.99));
+        assertEquals(1000, lt.getPercentile(1.0));
+        assertEquals(10, lt.getPercentile(0.0));
+        assertEquals(2970, lt.getTimeout());
+    }
+
+    @Test
+    public void testOldSamplesAreDropped() {
+        LatencyTracker lt = new LatencyTracker(10);
+        for (int i=0; i < 10; i++) {
+            lt.record(20000);
+        }
+        assertEquals(LatencyTracker.MAX_TIMEOUT, lt.getTimeout());
+
+        // once the slow samples have been replaced the timeout comes back down
+        for (int i=0; i < 10; i++) {
+            lt.record(500);
+        }
+        assertEquals(10, lt.getSampleCount());
+        assertEquals(1500, lt.getTimeout());
+    }
+}
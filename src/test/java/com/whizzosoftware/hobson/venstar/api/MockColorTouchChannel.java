@@ -16,28 +16,45 @@ import java.util.List;
 
 public class MockColorTouchChannel implements ColorTouchChannel {
     private final List<InfoRequest> infoRequests = new ArrayList<>();
+    private final List<PendingRequest> infoHandles = new ArrayList<>();
     private final List<ControlRequest> controlRequests = new ArrayList<>();
+    private final List<RootRequest> rootRequests = new ArrayList<>();
 
     @Override
-    public void sendRootRequest(RootRequest request) {
+    public RequestHandle sendRootRequest(RootRequest request) {
+        rootRequests.add(request);
+        return new PendingRequest(request, LatencyTracker.DEFAULT_TIMEOUT, null);
     }
 
     @Override
-    public void sendInfoRequest(InfoRequest request) {
+    public RequestHandle sendInfoRequest(InfoRequest request) {
         infoRequests.add(request);
+        PendingRequest pr = new PendingRequest(request, LatencyTracker.DEFAULT_TIMEOUT, null);
+        infoHandles.add(pr);
+        return pr;
     }
 
     @Override
-    public void sendControlRequest(ControlRequest request) {
+    public RequestHandle sendControlRequest(ControlRequest request) {
         controlRequests.add(request);
+        return new PendingRequest(request, LatencyTracker.DEFAULT_TIMEOUT, null);
+    }
+
+    public List<RootRequest> getRootRequests() {
+        return rootRequests;
     }
 
     public List<InfoRequest> getInfoRequests() {
         return infoRequests;
     }
 
+    public List<PendingRequest> getInfoHandles() {
+        return infoHandles;
+    }
+
     public void clearInfoRequests() {
         infoRequests.clear();
+        infoHandles.clear();
     }
 
     public List<ControlRequest> getControlRequests() {
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ResponseFingerprintTest {
+    @Test
+    public void testHash() throws Exception {
+        // FNV-1a 64-bit reference values
+        assertEquals(0xcbf29ce484222325L, ResponseFingerprint.hash(ByteBuffer.allocate(0)));
+        assertEquals(0xaf63dc4c8601ec8cL, ResponseFingerprint.hash(ByteBuffer.wrap("a".getBytes("UTF-8"))));
+        assertEquals(0x85944171f73967e8L, ResponseFingerprint.hash(ByteBuffer.wrap("foobar".getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void testHashIgnoresBufferLayout() throws Exception {
+        byte[] b = "xx{\"a\":1}yy".getBytes("UTF-8");
+        long expected = ResponseFingerprint.hash(ByteBuffer.wrap("{\"a\":1}".getBytes("UTF-8")));
+
+        ByteBuffer slice = ByteBuffer.wrap(b, 2, 7).slice();
+        assertEquals(expected, ResponseFingerprint.hash(slice));
+        assertEquals(0, slice.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(7);
+        direct.put(b, 2, 7).flip();
+        assertEquals(expected, ResponseFingerprint.hash(direct));
+        assertNotEquals(expected, ResponseFingerprint.hash(ByteBuffer.wrap("{\"a\":2}".getBytes("UTF-8"))));
+    }
+}
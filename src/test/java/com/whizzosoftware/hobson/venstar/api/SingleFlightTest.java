@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    @Test
+    public void testJoinAndComplete() {
+        SingleFlight<String,String> sf = new SingleFlight<>();
+
+        // the first caller leads and subsequent callers attach
+        assertTrue(sf.join("host1", "r1"));
+        assertFalse(sf.join("host1", "r2"));
+        assertFalse(sf.join("host1", "r3"));
+        assertTrue(sf.join("host2", "r4"));
+        assertEquals("r1", sf.getLeader("host1"));
+        assertEquals(3, sf.getCallerCount("host1"));
+        assertEquals(2, sf.size());
+
+        // completing the leader returns all callers and ends the flight
+        List<String> callers = sf.complete("host1", "r1");
+        assertEquals(3, callers.size());
+        assertEquals("r1", callers.get(0));
+        assertEquals("r3", callers.get(2));
+        assertFalse(sf.isInFlight("host1"));
+        assertTrue(sf.isInFlight("host2"));
+
+        // the next caller starts a new flight
+        assertTrue(sf.join("host1", "r5"));
+    }
+
+    @Test
+    public void testCompleteNonLeader() {
+        SingleFlight<String,String> sf = new SingleFlight<>();
+        sf.join("host1", "r1");
+        sf.join("host1", "r2");
+
+        // a stale request only gets itself back and doesn't disturb the current flight
+        List<String> callers = sf.complete("host1", "r0");
+        assertEquals(1, callers.size());
+        assertEquals("r0", callers.get(0));
+        assertEquals(2, sf.getCallerCount("host1"));
+    }
+
+    @Test
+    public void testLeave() {
+        SingleFlight<String,String> sf = new SingleFlight<>();
+        sf.join("host1", "r1");
+        sf.join("host1", "r2");
+
+        // the leader leaving doesn't end the flight while another caller is attached
+        assertNull(sf.leave("host1", "r1"));
+        assertEquals(1, sf.getCallerCount("host1"));
+        assertEquals("r1", sf.getLeader("host1"));
+
+        // the last caller leaving ends the flight and returns the leader so it can be aborted
+        assertEquals("r1", sf.leave("host1", "r2"));
+        assertFalse(sf.isInFlight("host1"));
+        assertNull(sf.leave("host1", "r2"));
+    }
+
+    @Test
+    public void testCompleteAfterLeaderLeaves() {
+        SingleFlight<String,String> sf = new SingleFlight<>();
+        sf.join("host1", "r1");
+        sf.join("host1", "r2");
+        sf.leave("host1", "r1");
+
+        List<String> callers = sf.complete("host1", "r1");
+        assertEquals(1, callers.size());
+        assertEquals("r2", callers.get(0));
+    }
+}
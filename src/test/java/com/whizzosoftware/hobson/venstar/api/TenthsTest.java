@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TenthsTest {
+    @Test
+    public void testValueOf() {
+        assertEquals(725, Tenths.valueOf(72.5));
+        assertEquals(720, Tenths.valueOf(72.0));
+        assertEquals(723, Tenths.valueOf(72.3));
+        assertEquals(723, Tenths.valueOf(72.34));
+        assertEquals(-5, Tenths.valueOf(-0.5));
+        assertEquals(Tenths.NONE, Tenths.valueOf((Double)null));
+        assertEquals(20, Tenths.valueOf(Double.valueOf(2.0)));
+    }
+
+    @Test
+    public void testValueOfOutOfRange() {
+        try {
+            Tenths.valueOf(1e10);
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+        double[] invalid = {-1e10, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double d : invalid) {
+            try {
+                Tenths.valueOf(d);
+                fail("Should have thrown exception for " + d);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testToDouble() {
+        assertEquals(72.5, Tenths.toDouble(725), 0);
+        assertEquals(72.3, Tenths.toDouble(723), 0);
+        assertEquals(Double.valueOf(72.3), Tenths.toNullableDouble(723));
+        assertNull(Tenths.toNullableDouble(Tenths.NONE));
+    }
+
+    @Test
+    public void testToString() {
+        // the same form Double.toString() produces
+        int[] values = {0, 5, -5, 720, 725, -725, 1000, 999999};
+        for (int v : values) {
+            assertEquals(Double.toString(v / 10.0), Tenths.toString(v));
+        }
+        assertEquals("pre72.5", Tenths.append(new StringBuilder("pre"), 725).toString());
+    }
+}
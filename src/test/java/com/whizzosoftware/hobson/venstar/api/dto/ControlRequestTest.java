@@ -9,6 +9,7 @@ package com.whizzosoftware.hobson.venstar.api.dto;
 
 import com.whizzosoftware.hobson.api.HobsonRuntimeException;
 import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.venstar.api.Tenths;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -125,4 +126,34 @@ public class ControlRequestTest {
         } catch (HobsonRuntimeException ignored) {
         }
     }
+
+    @Test
+    public void testTenths() throws Exception {
+        ControlRequest request = new ControlRequest(new URI("http://192.168.0.129"), null, ThermostatMode.AUTO, FanMode.ON, 705, 725, 20, null);
+        assertEquals(705, request.getHeatTempTenths());
+        assertEquals(725, request.getCoolTempTenths());
+        assertEquals(70.5, request.getHeatTemp(), 0);
+        Map<String,String> map = request.getRequestBodyMap();
+        assertEquals("70.5", map.get("heattemp"));
+        assertEquals("72.5", map.get("cooltemp"));
+
+        // absent temperatures aren't sent
+        request = new ControlRequest(new URI("http://192.168.0.129"), null, ThermostatMode.COOL, null, Tenths.NONE, 725, Tenths.NONE, null);
+        assertNull(request.getHeatTemp());
+        map = request.getRequestBodyMap();
+        assertEquals(2, map.size());
+        assertEquals("72.5", map.get("cooltemp"));
+
+        // the set point delta is checked exactly
+        try {
+            new ControlRequest(new URI("http://192.168.0.129"), null, ThermostatMode.AUTO, null, 705, 724, 20, null);
+            fail("Should have thrown exception");
+        } catch (HobsonRuntimeException ignored) {
+        }
+        try {
+            new ControlRequest(new URI("http://192.168.0.129"), null, ThermostatMode.AUTO, null, Tenths.NONE, 724, 20, null);
+            fail("Should have thrown exception");
+        } catch (HobsonRuntimeException ignored) {
+        }
+    }
 }
@@ -7,6 +7,7 @@
  *******************************************************************************/
 package com.whizzosoftware.hobson.venstar.api.dto;
 
+import com.whizzosoftware.hobson.api.device.DeviceContext;
 import org.junit.Test;
 
 import java.net.URI;
@@ -18,5 +19,25 @@ public class InfoRequestTest {
     public void testConstructor() throws Exception {
         InfoRequest request = new InfoRequest(new URI("http://192.168.0.129"));
         assertEquals("http://192.168.0.129/query/info", request.getURI().toString());
+
+        request = new InfoRequest(new URI("http://192.168.0.129:8080/"));
+        assertEquals("http://192.168.0.129:8080/query/info", request.getURI().toString());
+    }
+
+    @Test
+    public void testTemplate() throws Exception {
+        DeviceContext ctx = DeviceContext.createLocal("plugin", "device");
+        InfoRequestTemplate template = new InfoRequestTemplate(new URI("http://192.168.0.129"), ctx);
+        InfoRequest r1 = new InfoRequest(template, false);
+        InfoRequest r2 = new InfoRequest(template, true);
+
+        // requests created from a template share its URIs and encoded request
+        assertSame(template.getURI(), r1.getURI());
+        assertSame(r1.getRequestBytes(), r2.getRequestBytes());
+        assertSame(ctx, r2.getDeviceContext());
+        assertTrue(r2.hasDeviceId());
+        assertFalse(r1.isConfirmation());
+        assertTrue(r2.isConfirmation());
+        assertTrue(new String(r1.getRequestBytes(), "US-ASCII").startsWith("GET /query/info HTTP/1.1\r\nHost: 192.168.0.129\r\n"));
     }
 }
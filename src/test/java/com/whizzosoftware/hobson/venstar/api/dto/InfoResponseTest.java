@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.dto;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class InfoResponseTest {
+    @Test
+    public void testFromBytes() throws Exception {
+        String json = "{\"name\":\"Thermostat\",\"mode\":1,\"state\":1,\"fan\":0,\"fanstate\":0,\"tempunits\":0,\"schedule\":0,\"schedulepart\":255,\"away\":0,\"spacetemp\":72.5,\"heattemp\":70,\"cooltemp\":75,\"cooltempmin\":35,\"cooltempmax\":99,\"heattempmin\":35,\"heattempmax\":99,\"setpointdelta\":2,\"hum\":0,\"availablemodes\":0}";
+        InfoResponse expected = new InfoResponse(new JSONObject(json));
+        InfoResponse ir = new InfoResponse(ByteBuffer.wrap(json.getBytes("UTF-8")));
+
+        assertEquals(expected.getName(), ir.getName());
+        assertEquals(expected.getOn(), ir.getOn());
+        assertEquals(ThermostatMode.HEAT, ir.getMode());
+        assertEquals(expected.getFanMode(), ir.getFanMode());
+        assertEquals(expected.getTempUnits(), ir.getTempUnits());
+        assertEquals(72.5, ir.getSpaceTemp(), 0);
+        assertEquals(725, ir.getSpaceTempTenths());
+        assertEquals(700, ir.getHeatTempTenths());
+        assertEquals(expected.getHeatTemp(), ir.getHeatTemp());
+        assertEquals(expected.getCoolTemp(), ir.getCoolTemp());
+        assertEquals(expected.getSetPointDelta(), ir.getSetPointDelta());
+    }
+
+    @Test
+    public void testMatchesJSONObjectOnRecordedPayloads() throws Exception {
+        String[] payloads = {
+            "api3-residential.json",
+            "api5-residential.json",
+            "api5-commercial.json",
+            "api6-celsius-pretty.json",
+            "quoted-numbers.json",
+            "missing-temperatures.json"
+        };
+        for (String payload : payloads) {
+            byte[] body = readPayload(payload);
+            InfoResponse expected = new InfoResponse(new JSONObject(new String(body, "UTF-8")));
+            InfoResponse ir = new InfoResponse(ByteBuffer.wrap(body));
+
+            assertEquals(payload, expected.getName(), ir.getName());
+            assertEquals(payload, expected.getOn(), ir.getOn());
+            assertEquals(payload, expected.getMode(), ir.getMode());
+            assertEquals(payload, expected.getFanMode(), ir.getFanMode());
+            assertEquals(payload, expected.getTempUnits(), ir.getTempUnits());
+            assertEquals(payload, expected.getSpaceTemp(), ir.getSpaceTemp());
+            assertEquals(payload, expected.getCoolTemp(), ir.getCoolTemp());
+            assertEquals(payload, expected.getHeatTemp(), ir.getHeatTemp());
+            assertEquals(payload, expected.getSetPointDelta(), ir.getSetPointDelta());
+            assertEquals(payload, expected.getSpaceTempTenths(), ir.getSpaceTempTenths());
+            assertEquals(payload, expected.getCoolTempTenths(), ir.getCoolTempTenths());
+            assertEquals(payload, expected.getHeatTempTenths(), ir.getHeatTempTenths());
+            assertEquals(payload, expected.getSetPointDeltaTenths(), ir.getSetPointDeltaTenths());
+        }
+
+        // spot check a payload with escapes, non-ASCII characters, nested values and nulls
+        InfoResponse ir = new InfoResponse(ByteBuffer.wrap(readPayload("api6-celsius-pretty.json")));
+        assertEquals("Chambre \u00e0 coucher \"Nord\"", ir.getName());
+        assertEquals(ThermostatMode.OFF, ir.getMode());
+        assertEquals(1, (int)ir.getTempUnits());
+        assertEquals(1.5, ir.getSetPointDelta(), 0);
+        assertEquals(15, ir.getSetPointDeltaTenths());
+    }
+
+    @Test
+    public void testControlAndRootResponsesFromBytes() throws Exception {
+        ControlResponse cr = new ControlResponse(ByteBuffer.wrap("{\"success\":true}".getBytes("UTF-8")));
+        assertFalse(cr.isError());
+
+        cr = new ControlResponse(ByteBuffer.wrap("{\"error\":true,\"reason\":\"Bad mode\"}".getBytes("UTF-8")));
+        assertTrue(cr.isError());
+        assertEquals("Bad mode", cr.getErrorReason());
+
+        cr = new ControlResponse(ByteBuffer.wrap("{}".getBytes("UTF-8")));
+        assertTrue(cr.isError());
+
+        RootResponse rr = new RootResponse(ByteBuffer.wrap("{\"api_ver\":5,\"type\":\"residential\",\"model\":\"COLORTOUCH\"}".getBytes("UTF-8")));
+        assertEquals(5, (int)rr.getApiVersion());
+        assertEquals("residential", rr.getThermostatType());
+    }
+
+    @Test
+    public void testInvalidModeCodes() throws Exception {
+        String[] bodies = {
+            "{\"mode\":" + ThermostatMode.values().length + "}",
+            "{\"mode\":-1}",
+            "{\"fan\":" + FanMode.values().length + "}",
+            "{\"fan\":-1}"
+        };
+        for (String json : bodies) {
+            try {
+                new InfoResponse(ByteBuffer.wrap(json.getBytes("UTF-8")));
+                fail("Should have thrown exception for " + json);
+            } catch (JSONException ignored) {
+            }
+            try {
+                new InfoResponse(new JSONObject(json));
+                fail("Should have thrown exception for " + json);
+            } catch (JSONException ignored) {
+            }
+        }
+    }
+
+    private byte[] readPayload(String name) throws IOException {
+        InputStream is = getClass().getResourceAsStream("info/" + name);
+        assertNotNull("Missing payload " + name, is);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int len;
+            while ((len = is.read(buf)) > -1) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ByteBufferPoolTest {
+    @Test
+    public void testReuse() {
+        ByteBufferPool pool = new ByteBufferPool(64, 2);
+        ByteBuffer b1 = pool.acquire(10);
+        assertEquals(64, b1.capacity());
+        b1.put((byte)1);
+        pool.release(b1);
+        assertEquals(1, pool.getPooledCount());
+
+        ByteBuffer b2 = pool.acquire(64);
+        assertSame(b1, b2);
+        assertEquals(0, b2.position());
+        assertEquals(0, pool.getPooledCount());
+
+        // oversized buffers are one-offs
+        ByteBuffer b3 = pool.acquire(65);
+        assertEquals(65, b3.capacity());
+        pool.release(b3);
+        assertEquals(0, pool.getPooledCount());
+
+        // the pool is bounded
+        pool.release(b2);
+        pool.release(ByteBuffer.allocate(64));
+        pool.release(ByteBuffer.allocate(64));
+        assertEquals(2, pool.getPooledCount());
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(16, 2);
+        ByteBuffer b = pool.read(new ByteArrayInputStream("{\"a\":1}".getBytes("UTF-8")));
+        assertEquals(7, b.remaining());
+        assertEquals('{', b.get(0));
+        pool.release(b);
+
+        // a body larger than a pooled buffer is read into a larger one
+        byte[] large = new byte[100];
+        for (int i=0; i < large.length; i++) {
+            large[i] = (byte)i;
+        }
+        b = pool.read(new ByteArrayInputStream(large));
+        assertEquals(100, b.remaining());
+        assertEquals(99, b.get(99));
+    }
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import com.whizzosoftware.hobson.venstar.api.dto.ControlRequest;
+import com.whizzosoftware.hobson.venstar.api.dto.FanMode;
+import com.whizzosoftware.hobson.venstar.api.dto.ThermostatMode;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ControlBodyEncoderTest {
+    private static final URI BASE_URI = URI.create("http://192.168.0.10");
+
+    @Test
+    public void testFieldOrder() throws Exception {
+        ControlRequest request = new ControlRequest(BASE_URI, null, ThermostatMode.AUTO, FanMode.ON, 705, 765, 20, 1234);
+        byte[] body = ControlBodyEncoder.encode(request);
+        assertEquals("mode=3&fan=1&heattemp=70.5&cooltemp=76.5&pin=1234", new String(body, "US-ASCII"));
+        assertEquals(body.length, ControlBodyEncoder.getLength(request));
+    }
+
+    @Test
+    public void testMatchesRequestBodyMap() throws Exception {
+        ControlRequest[] requests = {
+            new ControlRequest(BASE_URI, null, ThermostatMode.COOL, FanMode.AUTO, 72.0, 76.0, 2.0, null),
+            new ControlRequest(BASE_URI, null, ThermostatMode.HEAT, null, -0.5, null, 2.0, 0),
+            new ControlRequest(BASE_URI, null, (ThermostatMode)null, null, null, 100.0, null, -7),
+            new ControlRequest(BASE_URI, null, (ThermostatMode)null, null, null, null, null, null)
+        };
+        for (ControlRequest request : requests) {
+            byte[] body = ControlBodyEncoder.encode(request);
+            assertEquals(request.getRequestBodyMap(), parse(new String(body, "US-ASCII")));
+            assertEquals(body.length, ControlBodyEncoder.getLength(request));
+        }
+    }
+
+    @Test
+    public void testMinimumPin() throws Exception {
+        ControlRequest request = new ControlRequest(BASE_URI, null, ThermostatMode.AUTO, FanMode.AUTO, 700, 760, 20, Integer.MIN_VALUE);
+        assertEquals("mode=3&fan=0&heattemp=70.0&cooltemp=76.0&pin=-2147483648", new String(ControlBodyEncoder.encode(request), "US-ASCII"));
+    }
+
+    @Test
+    public void testEncodeControl() throws Exception {
+        ControlRequest request = new ControlRequest(BASE_URI, null, ThermostatMode.COOL, FanMode.AUTO, 720, 760, 20, null);
+        byte[] body = ControlBodyEncoder.encode(request);
+        byte[] b = HttpRequestEncoder.encodeControl(request);
+        String s = new String(b, "US-ASCII");
+        assertTrue(s.startsWith("POST /control HTTP/1.1\r\n"));
+        assertTrue(s.contains("\r\nContent-Length: " + body.length + "\r\n"));
+        assertTrue(s.endsWith("\r\n\r\nmode=2&fan=0&heattemp=72.0&cooltemp=76.0"));
+        assertArrayEquals(HttpRequestEncoder.encode("POST", request.getURI(), body), b);
+    }
+
+    private Map<String,String> parse(String body) {
+        Map<String,String> map = new HashMap<>();
+        if (body.length() > 0) {
+            for (String pair : body.split("&")) {
+                int ix = pair.indexOf('=');
+                map.put(pair.substring(0, ix), pair.substring(ix + 1));
+            }
+        }
+        return map;
+    }
+}
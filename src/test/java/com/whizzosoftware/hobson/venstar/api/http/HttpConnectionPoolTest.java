@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+public class HttpConnectionPoolTest {
+    private MockHttpServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockHttpServer("{}");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        HttpConnectionPool pool = new HttpConnectionPool(2, 30000, 1000, 1000);
+        URI uri = server.getURI();
+        byte[] request = HttpRequestEncoder.encode("GET", uri, null);
+        long now = 1000;
+
+        for (int i=0; i < 5; i++) {
+            HttpConnection c = pool.acquire(uri, now);
+            HttpResponseParser p = c.execute(request);
+            assertEquals(200, p.getStatusCode());
+            pool.release(c, p.isKeepAlive(), now);
+        }
+
+        assertEquals(1, pool.getConnectionsCreated());
+        assertEquals(4, pool.getConnectionsReused());
+        assertEquals(0.8, pool.getReuseRatio(), 0.001);
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(5, server.getRequestCount());
+        pool.close();
+    }
+
+    @Test
+    public void testMaxIdlePerHost() throws Exception {
+        HttpConnectionPool pool = new HttpConnectionPool(2, 30000, 1000, 1000);
+        URI uri = server.getURI();
+        HttpConnection c1 = pool.acquire(uri, 0);
+        HttpConnection c2 = pool.acquire(uri, 0);
+        HttpConnection c3 = pool.acquire(uri, 0);
+        pool.release(c1, true, 0);
+        pool.release(c2, true, 0);
+        pool.release(c3, true, 0);
+        assertEquals(2, pool.getIdleConnectionCount());
+        assertTrue(c3.isClosed());
+
+        // a connection that can't be reused is never pooled
+        HttpConnection c4 = pool.acquire(uri, 0);
+        pool.release(c4, false, 0);
+        assertTrue(c4.isClosed());
+        assertEquals(1, pool.getIdleConnectionCount());
+        pool.close();
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        HttpConnectionPool pool = new HttpConnectionPool(2, 5000, 1000, 1000);
+        URI uri = server.getURI();
+        HttpConnection c1 = pool.acquire(uri, 0);
+        HttpConnection c2 = pool.acquire(uri, 0);
+        pool.release(c1, true, 1000);
+        pool.release(c2, true, 3000);
+
+        assertEquals(0, pool.evictIdle(5999));
+        assertEquals(1, pool.evictIdle(6000));
+        assertTrue(c1.isClosed());
+        assertFalse(c2.isClosed());
+
+        // an expired connection is not handed out even if eviction hasn't run yet
+        assertNotSame(c2, pool.acquire(uri, 8000));
+        assertTrue(c2.isClosed());
+        assertEquals(0, pool.getConnectionsReused());
+        pool.close();
+    }
+
+    @Test
+    public void testStaleConnectionNotReused() throws Exception {
+        server.setCloseAfterResponse(true);
+        HttpConnectionPool pool = new HttpConnectionPool(2, 30000, 1000, 1000);
+        URI uri = server.getURI();
+        byte[] request = HttpRequestEncoder.encode("GET", uri, null);
+
+        HttpConnection c1 = pool.acquire(uri, 0);
+        HttpResponseParser p = c1.execute(request);
+        assertTrue(p.isKeepAlive());
+        pool.release(c1, true, 0);
+
+        // wait for the server's close to arrive
+        long start = System.currentTimeMillis();
+        while (server.getConnectionCount() > 0 && c1.isHealthy(HttpConnection.PROBE_IDLE_TIME) && System.currentTimeMillis() - start < 2000) {
+            Thread.sleep(10);
+        }
+
+        // the connection has been idle long enough to be probed for the close
+        HttpConnection c2 = pool.acquire(uri, HttpConnection.PROBE_IDLE_TIME);
+        assertNotSame(c1, c2);
+        assertTrue(c1.isClosed());
+        assertEquals(2, pool.getConnectionsCreated());
+        assertEquals(0, pool.getConnectionsReused());
+        assertEquals(200, c2.execute(request).getStatusCode());
+        pool.close();
+    }
+
+    @Test
+    public void testRecentConnectionNotProbed() throws Exception {
+        server.setCloseAfterResponse(true);
+        HttpConnectionPool pool = new HttpConnectionPool(2, 30000, 1000, 1000);
+        URI uri = server.getURI();
+        byte[] request = HttpRequestEncoder.encode("GET", uri, null);
+
+        HttpConnection c1 = pool.acquire(uri, 0);
+        c1.execute(request);
+        pool.release(c1, true, 0);
+        long start = System.currentTimeMillis();
+        while (server.getConnectionCount() > 0 && System.currentTimeMillis() - start < 2000) {
+            Thread.sleep(10);
+        }
+
+        // a recently used connection only gets the non-blocking checks so the server's close isn't seen (the request
+        // sent on it fails and is retried by the channel)
+        assertTrue(c1.isHealthy(HttpConnection.PROBE_IDLE_TIME - 1));
+        assertSame(c1, pool.acquire(uri, HttpConnection.PROBE_IDLE_TIME - 1));
+        assertEquals(1, pool.getConnectionsReused());
+        c1.close();
+        pool.close();
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class HttpResponseParserTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void testContentLength() throws Exception {
+        HttpResponseParser p = new HttpResponseParser();
+        assertTrue(p.parse(buffer("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 14\r\n\r\n{\"name\":\"foo\"}")));
+        assertEquals(200, p.getStatusCode());
+        assertEquals("application/json", p.getHeader("Content-Type"));
+        assertEquals("{\"name\":\"foo\"}", body(p));
+        assertTrue(p.isKeepAlive());
+    }
+
+    @Test
+    public void testChunkedSplitAcrossBuffers() throws Exception {
+        String response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5;ext=1\r\n{\"a\":\r\n3\r\n12}\r\n0\r\nX-Trailer: 1\r\n\r\n";
+
+        // the result must be the same no matter how the bytes are split up
+        for (int size=1; size <= response.length(); size++) {
+            HttpResponseParser p = new HttpResponseParser();
+            boolean complete = false;
+            for (int i=0; i < response.length(); i += size) {
+                complete = p.parse(buffer(response.substring(i, Math.min(i + size, response.length()))));
+            }
+            assertTrue(complete);
+            assertEquals("{\"a\":12}", body(p));
+            assertTrue(p.isKeepAlive());
+        }
+    }
+
+    @Test
+    public void testBodyToEof() throws Exception {
+        HttpResponseParser p = new HttpResponseParser();
+        assertFalse(p.parse(buffer("HTTP/1.1 200 OK\r\n\r\n{}")));
+        assertTrue(p.onEof());
+        assertEquals("{}", body(p));
+        assertFalse(p.isKeepAlive());
+    }
+
+    @Test
+    public void testPrematureEof() throws Exception {
+        HttpResponseParser p = new HttpResponseParser();
+        assertFalse(p.hasStarted());
+        assertFalse(p.parse(buffer("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n{}")));
+        assertTrue(p.hasStarted());
+        try {
+            p.onEof();
+            fail("Should have thrown exception");
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        HttpResponseParser p = new HttpResponseParser();
+        p.parse(buffer("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 0\r\n\r\n"));
+        assertTrue(p.isComplete());
+        assertFalse(p.isKeepAlive());
+
+        p.reset();
+        p.parse(buffer("HTTP/1.0 200 OK\r\nContent-Length: 0\r\n\r\n"));
+        assertFalse(p.isKeepAlive());
+
+        p.reset();
+        p.parse(buffer("HTTP/1.0 200 OK\r\nConnection: Keep-Alive\r\nContent-Length: 0\r\n\r\n"));
+        assertTrue(p.isKeepAlive());
+    }
+
+    @Test
+    public void testInterimResponse() throws Exception {
+        HttpResponseParser p = new HttpResponseParser();
+        assertTrue(p.parse(buffer("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 204 No Content\r\n\r\n")));
+        assertEquals(204, p.getStatusCode());
+        assertEquals("", body(p));
+    }
+
+    @Test
+    public void testPipelinedBytesNotConsumed() throws Exception {
+        HttpResponseParser p = new HttpResponseParser();
+        ByteBuffer b = buffer("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n{}HTTP/1.1");
+        assertTrue(p.parse(b));
+        assertEquals(8, b.remaining());
+    }
+
+    @Test
+    public void testInvalidStatusLine() throws Exception {
+        try {
+            new HttpResponseParser().parse(buffer("FOO 200 OK\r\n"));
+            fail("Should have thrown exception");
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Test
+    public void testInvalidContentLength() throws Exception {
+        assertParseFails("HTTP/1.1 200 OK\r\nContent-Length: -1\r\n\r\n");
+        assertParseFails("HTTP/1.1 200 OK\r\nContent-Length: " + (HttpResponseParser.MAX_BODY_SIZE + 1) + "\r\n\r\n");
+        assertParseFails("HTTP/1.1 200 OK\r\nContent-Length: 9999999999999\r\n\r\n");
+        assertParseFails("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n-1\r\n");
+    }
+
+    @Test
+    public void testMaxBodySize() throws Exception {
+        byte[] b = new byte[HttpResponseParser.MAX_BODY_SIZE];
+        Arrays.fill(b, (byte)'a');
+        String chunk = new String(b, ASCII);
+
+        // a body of exactly the maximum size is accepted
+        HttpResponseParser p = new HttpResponseParser();
+        assertTrue(p.parse(buffer("HTTP/1.1 200 OK\r\nContent-Length: " + b.length + "\r\n\r\n" + chunk)));
+        assertEquals(b.length, p.getBody().remaining());
+
+        // chunked and read-until-close bodies can't grow past it
+        assertParseFails("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" + Integer.toHexString(b.length) + "\r\n" + chunk + "\r\n1\r\na");
+        assertParseFails("HTTP/1.1 200 OK\r\n\r\n" + chunk + "a");
+    }
+
+    private void assertParseFails(String response) {
+        HttpResponseParser p = new HttpResponseParser();
+        try {
+            p.parse(buffer(response));
+            fail("Should have thrown exception");
+        } catch (IOException ignored) {
+        }
+    }
+
+    private ByteBuffer buffer(String s) {
+        return ByteBuffer.wrap(s.getBytes(ASCII));
+    }
+
+    private String body(HttpResponseParser p) {
+        ByteBuffer b = p.getBody();
+        return new String(b.array(), b.position(), b.remaining(), ASCII);
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import com.whizzosoftware.hobson.venstar.api.RequestHandle;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class KeepAliveColorTouchChannelTest {
+    private MockHttpServer server;
+    private ExecutorService executor;
+    private HttpConnectionPool pool;
+    private RecordingListener listener;
+    private KeepAliveColorTouchChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockHttpServer("{\"name\":\"foo\"}");
+        executor = Executors.newCachedThreadPool();
+        pool = new HttpConnectionPool(2, 30000, 1000, 1000);
+        listener = new RecordingListener();
+        channel = new KeepAliveColorTouchChannel(pool, executor, listener);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        executor.shutdownNow();
+        server.close();
+    }
+
+    @Test
+    public void testInfoRequest() throws Exception {
+        for (int i=0; i < 3; i++) {
+            InfoRequest request = new InfoRequest(server.getURI());
+            RequestHandle h = channel.sendInfoRequest(request);
+            assertSame(request, listener.results.poll(2, TimeUnit.SECONDS));
+            assertEquals("{\"name\":\"foo\"}", listener.bodies.poll());
+            assertTrue(h.isDone());
+            assertFalse(h.isCancelled());
+        }
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(2, pool.getConnectionsReused());
+    }
+
+    @Test
+    public void testRetryOnClosedConnection() throws Exception {
+        server.setCloseAfterResponse(true);
+        channel.sendInfoRequest(new InfoRequest(server.getURI()));
+        assertNotNull(listener.results.poll(2, TimeUnit.SECONDS));
+
+        // the next request still succeeds since a stale connection is either detected or the request is retried
+        InfoRequest request = new InfoRequest(server.getURI());
+        channel.sendInfoRequest(request);
+        assertSame(request, listener.results.poll(2, TimeUnit.SECONDS));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        // a server that accepts connections but never responds
+        ServerSocket silent = new ServerSocket(0, 50, java.net.InetAddress.getByName("127.0.0.1"));
+        try {
+            InfoRequest request = new InfoRequest(URI.create("http://127.0.0.1:" + silent.getLocalPort() + "/"));
+            RequestHandle h = channel.sendInfoRequest(request);
+            Thread.sleep(100);
+            assertTrue(h.cancel());
+            assertTrue(h.isCancelled());
+            assertFalse(h.cancel());
+
+            // the listener is still told about the cancelled request
+            assertSame(request, listener.results.poll(2, TimeUnit.SECONDS));
+            assertTrue(listener.failures.poll() instanceof CancellationException);
+        } finally {
+            silent.close();
+        }
+    }
+
+    private static class RecordingListener implements ColorTouchResponseListener {
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> bodies = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> failures = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onResponse(Object context, int statusCode, ByteBuffer body) {
+            bodies.add(Charset.forName("UTF-8").decode(body).toString());
+            results.add(context);
+        }
+
+        @Override
+        public void onFailure(Object context, Throwable cause) {
+            failures.add(cause);
+            results.add(context);
+        }
+    }
+}
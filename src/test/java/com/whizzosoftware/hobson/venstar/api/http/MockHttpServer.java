@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal loopback HTTP/1.1 server that answers every request with a fixed JSON body.
+ */
+public class MockHttpServer {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final ServerSocket serverSocket;
+    private final String body;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile boolean closeAfterResponse;
+
+    public MockHttpServer(String body) throws IOException {
+        this.body = body;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket s = serverSocket.accept();
+                        connectionCount.incrementAndGet();
+                        Thread ct = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(s);
+                            }
+                        });
+                        ct.setDaemon(true);
+                        ct.start();
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public URI getURI() {
+        return URI.create("http://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Makes the server silently close each connection after responding (while still advertising keep-alive), as a
+     * thermostat with a short idle timeout would.
+     *
+     * @param closeAfterResponse a boolean
+     */
+    public void setCloseAfterResponse(boolean closeAfterResponse) {
+        this.closeAfterResponse = closeAfterResponse;
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void serve(Socket s) {
+        try {
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            while (readRequest(in)) {
+                requestCount.incrementAndGet();
+                byte[] b = body.getBytes(ASCII);
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + b.length + "\r\n\r\n").getBytes(ASCII));
+                out.write(b);
+                out.flush();
+                if (closeAfterResponse) {
+                    break;
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private boolean readRequest(InputStream in) throws IOException {
+        // read the request head (and body if there's a content length)
+        StringBuilder head = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            head.append((char)c);
+            if (head.length() >= 4 && head.substring(head.length() - 4).equals("\r\n\r\n")) {
+                String h = head.toString().toLowerCase();
+                int ix = h.indexOf("content-length:");
+                if (ix > -1) {
+                    int len = Integer.parseInt(h.substring(ix + 15, h.indexOf("\r\n", ix)).trim());
+                    for (int i=0; i < len; i++) {
+                        in.read();
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
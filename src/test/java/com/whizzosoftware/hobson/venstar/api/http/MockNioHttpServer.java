@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A loopback HTTP/1.1 server that handles any number of connections on a single selector thread and answers every
+ * request with a fixed JSON body. Responses can be withheld until a given number of requests are outstanding, which
+ * proves that a client really has that many requests in flight at once.
+ */
+public class MockNioHttpServer {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final byte[] response;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final List<SocketChannel> held = new ArrayList<>();
+    private volatile int holdUntil;
+    private volatile boolean silent;
+
+    public MockNioHttpServer(String body) throws IOException {
+        byte[] b = body.getBytes(ASCII);
+        String head = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + b.length + "\r\n\r\n";
+        response = new byte[head.length() + b.length];
+        System.arraycopy(head.getBytes(ASCII), 0, response, 0, head.length());
+        System.arraycopy(b, 0, response, head.length(), b.length);
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 20000);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "Mock NIO HTTP Server");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public URI getURI() throws IOException {
+        return URI.create("http://127.0.0.1:" + ((InetSocketAddress)serverChannel.getLocalAddress()).getPort() + "/");
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Withholds responses until the given number of requests are waiting for one.
+     *
+     * @param holdUntil the number of requests
+     */
+    public void setHoldUntil(int holdUntil) {
+        this.holdUntil = holdUntil;
+    }
+
+    /**
+     * Makes the server read requests but never respond.
+     *
+     * @param silent a boolean
+     */
+    public void setSilent(boolean silent) {
+        this.silent = silent;
+    }
+
+    public void close() throws IOException {
+        selector.close();
+        serverChannel.close();
+    }
+
+    private void serve() {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            SocketChannel sc;
+                            while ((sc = serverChannel.accept()) != null) {
+                                sc.configureBlocking(false);
+                                sc.register(selector, SelectionKey.OP_READ, new StringBuilder());
+                                connectionCount.incrementAndGet();
+                            }
+                        } else if (key.isReadable()) {
+                            onReadable(key, buf);
+                        }
+                    } catch (IOException e) {
+                        key.channel().close();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException ignored) {
+        }
+    }
+
+    private void onReadable(SelectionKey key, ByteBuffer buf) throws IOException {
+        SocketChannel sc = (SocketChannel)key.channel();
+        StringBuilder sb = (StringBuilder)key.attachment();
+        buf.clear();
+        if (sc.read(buf) == -1) {
+            sc.close();
+            return;
+        }
+        buf.flip();
+        while (buf.hasRemaining()) {
+            sb.append((char)buf.get());
+        }
+
+        // this server only handles bodiless requests or form bodies that arrive with their head
+        int ix;
+        while ((ix = sb.indexOf("\r\n\r\n")) > -1) {
+            int end = ix + 4;
+            String head = sb.substring(0, end).toLowerCase();
+            int cl = head.indexOf("content-length:");
+            if (cl > -1) {
+                end += Integer.parseInt(head.substring(cl + 15, head.indexOf("\r\n", cl)).trim());
+            }
+            if (sb.length() < end) {
+                break;
+            }
+            sb.delete(0, end);
+            requestCount.incrementAndGet();
+            if (!silent) {
+                held.add(sc);
+            }
+        }
+
+        if (held.size() >= holdUntil) {
+            for (SocketChannel c : held) {
+                write(c);
+            }
+            held.clear();
+        }
+    }
+
+    private void write(SocketChannel sc) throws IOException {
+        // responses are small enough that a blocking flush is fine for a test server
+        ByteBuffer b = ByteBuffer.wrap(response);
+        while (b.hasRemaining()) {
+            if (sc.write(b) == 0) {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.http;
+
+import com.whizzosoftware.hobson.venstar.api.RequestHandle;
+import com.whizzosoftware.hobson.venstar.api.dto.ControlRequest;
+import com.whizzosoftware.hobson.venstar.api.dto.InfoRequest;
+import com.whizzosoftware.hobson.venstar.api.dto.ThermostatMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NioColorTouchChannelTest {
+    private static final String BODY = "{\"name\":\"foo\"}";
+
+    private MockNioHttpServer server;
+    private RecordingListener listener;
+    private NioColorTouchChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockNioHttpServer(BODY);
+        listener = new RecordingListener();
+        channel = new NioColorTouchChannel(listener, 2, 30000, 1000);
+        channel.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channel.close();
+        server.close();
+    }
+
+    @Test
+    public void testInfoRequestReusesConnection() throws Exception {
+        for (int i=0; i < 3; i++) {
+            InfoRequest request = new InfoRequest(server.getURI());
+            RequestHandle h = channel.sendInfoRequest(request);
+            assertSame(request, listener.results.poll(2, TimeUnit.SECONDS));
+            assertEquals(BODY, listener.bodies.poll());
+            assertTrue(h.isDone());
+        }
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(1, channel.getConnectionsCreated());
+        assertEquals(2, channel.getConnectionsReused());
+        assertEquals(0, channel.getInFlightCount());
+    }
+
+    @Test
+    public void testControlRequest() throws Exception {
+        ControlRequest request = new ControlRequest(server.getURI(), null, ThermostatMode.HEAT, null, 72.0, null, null, null);
+        channel.sendControlRequest(request);
+        assertSame(request, listener.results.poll(2, TimeUnit.SECONDS));
+        assertEquals(BODY, listener.bodies.poll());
+    }
+
+    @Test
+    public void testManyConcurrentRequests() throws Exception {
+        int count = 2000;
+
+        // the server won't respond until every request has arrived so they must all be in flight at once
+        server.setHoldUntil(count);
+        URI uri = server.getURI();
+        for (int i=0; i < count; i++) {
+            channel.sendInfoRequest(new InfoRequest(uri));
+        }
+        for (int i=0; i < count; i++) {
+            assertNotNull(listener.results.poll(10, TimeUnit.SECONDS));
+        }
+        assertEquals(count, listener.responseCount.get());
+        assertEquals(count, server.getConnectionCount());
+        assertEquals(0, channel.getInFlightCount());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        server.setSilent(true);
+        InfoRequest request = new InfoRequest(server.getURI());
+        channel.sendInfoRequest(request);
+        assertSame(request, listener.results.poll(3, TimeUnit.SECONDS));
+        assertTrue(listener.failures.poll() instanceof SocketTimeoutException);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        server.setSilent(true);
+        InfoRequest request = new InfoRequest(server.getURI());
+        RequestHandle h = channel.sendInfoRequest(request);
+        assertTrue(h.cancel());
+        assertFalse(h.cancel());
+        assertSame(request, listener.results.poll(2, TimeUnit.SECONDS));
+        assertTrue(listener.failures.poll() instanceof CancellationException);
+        assertEquals(0, channel.getInFlightCount());
+    }
+
+    @Test
+    public void testConnectionRefused() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        int port = ss.getLocalPort();
+        ss.close();
+        InfoRequest request = new InfoRequest(URI.create("http://127.0.0.1:" + port + "/"));
+        channel.sendInfoRequest(request);
+        assertSame(request, listener.results.poll(2, TimeUnit.SECONDS));
+        assertTrue(listener.failures.poll() instanceof IOException);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        server.setSilent(true);
+        InfoRequest request = new InfoRequest(server.getURI());
+        channel.sendInfoRequest(request);
+        Thread.sleep(100);
+        channel.close();
+        assertSame(request, listener.results.poll(2, TimeUnit.SECONDS));
+        assertTrue(listener.failures.poll() instanceof IOException);
+
+        // requests sent after close fail immediately
+        channel.sendInfoRequest(request);
+        assertSame(request, listener.results.poll());
+    }
+
+    private static class RecordingListener implements ColorTouchResponseListener {
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> bodies = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> failures = new LinkedBlockingQueue<>();
+        final AtomicInteger responseCount = new AtomicInteger();
+
+        @Override
+        public void onResponse(Object context, int statusCode, ByteBuffer body) {
+            bodies.add(Charset.forName("UTF-8").decode(body).toString());
+            responseCount.incrementAndGet();
+            results.add(context);
+        }
+
+        @Override
+        public void onFailure(Object context, Throwable cause) {
+            failures.add(cause);
+            results.add(context);
+        }
+    }
+}
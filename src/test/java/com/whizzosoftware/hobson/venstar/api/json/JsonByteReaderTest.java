@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.api.json;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class JsonByteReaderTest {
+    private static final byte[][] NAMES = JsonByteReader.names("a", "b", "c");
+
+    @Test
+    public void testReadMembers() {
+        JsonByteReader r = reader(" {\"a\": 1, \"skip\": {\"x\": [1, \"}\", {}]}, \"b\" : \"foo\", \"c\":true, \"d\": null}");
+        r.beginObject();
+        assertTrue(r.hasNext());
+        assertEquals(0, r.nextName(NAMES));
+        assertEquals(1, r.nextInt());
+        assertTrue(r.hasNext());
+        assertEquals(-1, r.nextName(NAMES));
+        r.skipValue();
+        assertTrue(r.hasNext());
+        assertEquals(1, r.nextName(NAMES));
+        assertEquals("foo", r.nextString());
+        assertTrue(r.hasNext());
+        assertEquals(2, r.nextName(NAMES));
+        assertTrue(r.nextBoolean());
+        assertTrue(r.hasNext());
+        assertEquals(-1, r.nextName(NAMES));
+        assertTrue(r.nextNull());
+        assertFalse(r.hasNext());
+    }
+
+    @Test
+    public void testNumbers() {
+        assertEquals(72.5, number("72.5"), 0);
+        assertEquals(-3.0, number("-3"), 0);
+        assertEquals(0.1, number("0.1"), 0);
+        assertEquals(1.5e3, number("1.5e3"), 0);
+        assertEquals(12345678901234567890.0, number("12345678901234567890"), 0);
+
+        // the fast path must agree exactly with Double.parseDouble
+        String[] values = {"70.3", "68.9", "0.7", "99.99", "1.1", "123.456", "-40.1"};
+        for (String v : values) {
+            assertEquals(Double.parseDouble(v), number(v), 0);
+        }
+
+        JsonByteReader r = reader("{\"a\":2.9}");
+        r.beginObject();
+        r.hasNext();
+        r.nextName(NAMES);
+        assertEquals(2, r.nextInt());
+    }
+
+    @Test
+    public void testQuotedNumbers() {
+        JsonByteReader r = reader("{\"a\":\"72.5\",\"b\":\"3\",\"c\":\"3.5\"}");
+        r.beginObject();
+        r.hasNext();
+        r.nextName(NAMES);
+        assertEquals(72.5, r.nextDouble(), 0);
+        r.hasNext();
+        r.nextName(NAMES);
+        assertEquals(3, r.nextInt());
+
+        // as with org.json, a quoted int can't have a fractional part
+        r.hasNext();
+        r.nextName(NAMES);
+        try {
+            r.nextInt();
+            fail("Should have thrown exception");
+        } catch (JSONException ignored) {
+        }
+    }
+
+    @Test
+    public void testTenths() {
+        JsonByteReader r = reader("{\"a\":72,\"b\":72.5,\"c\":-3.5,\"d\":\"71.5\",\"a\":72.25,\"b\":7.2e1}");
+        r.beginObject();
+        int[] expected = {720, 725, -35, 715, 722, 720};
+        for (int e : expected) {
+            assertTrue(r.hasNext());
+            r.nextName(NAMES);
+            assertEquals(e, r.nextTenths());
+        }
+        assertFalse(r.hasNext());
+    }
+
+    @Test
+    public void testStrings() {
+        JsonByteReader r = reader("{\"a\":\"Living \\\"Room\\\" \\u00e9\\n\",\"b\":\"Caf\u00e9\"}");
+        r.beginObject();
+        r.hasNext();
+        r.nextName(NAMES);
+        assertEquals("Living \"Room\" \u00e9\n", r.nextString());
+        r.hasNext();
+        r.nextName(NAMES);
+        assertEquals("Caf\u00e9", r.nextString());
+        assertFalse(r.hasNext());
+    }
+
+    @Test
+    public void testBufferOffset() {
+        byte[] b = "xx{\"a\":5}yy".getBytes(Charset.forName("UTF-8"));
+        ByteBuffer buf = ByteBuffer.wrap(b, 2, 7).slice();
+        JsonByteReader r = new JsonByteReader(buf);
+        r.beginObject();
+        r.hasNext();
+        assertEquals(0, r.nextName(NAMES));
+        assertEquals(5, r.nextInt());
+        assertFalse(r.hasNext());
+        assertEquals(0, buf.position());
+    }
+
+    @Test
+    public void testMalformed() {
+        String[] docs = {"", "[1]", "{\"a\" 1}", "{\"a\":1 \"b\":2}", "{\"a\":\"foo", "{\"a\":tru}"};
+        for (String doc : docs) {
+            try {
+                JsonByteReader r = reader(doc);
+                r.beginObject();
+                while (r.hasNext()) {
+                    if (r.nextName(NAMES) == 0) {
+                        r.nextBoolean();
+                    } else {
+                        r.nextString();
+                    }
+                }
+                fail("Should have thrown exception for " + doc);
+            } catch (JSONException ignored) {
+            }
+        }
+    }
+
+    private double number(String s) {
+        JsonByteReader r = reader("{\"a\":" + s + "}");
+        r.beginObject();
+        r.hasNext();
+        r.nextName(NAMES);
+        return r.nextDouble();
+    }
+
+    private JsonByteReader reader(String s) {
+        return new JsonByteReader(ByteBuffer.wrap(s.getBytes(Charset.forName("UTF-8"))));
+    }
+}
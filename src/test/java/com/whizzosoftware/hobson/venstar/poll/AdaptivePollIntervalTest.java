@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.poll;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptivePollIntervalTest {
+    @Test
+    public void testStartsAtMinimum() {
+        AdaptivePollInterval api = new AdaptivePollInterval(10000, 60000);
+        assertEquals(10000, api.getInterval());
+    }
+
+    @Test
+    public void testBacksOffWhenStable() {
+        AdaptivePollInterval api = new AdaptivePollInterval(10000, 60000);
+        long last = api.getInterval();
+        for (int i=0; i < 50; i++) {
+            api.onResponse(false);
+            long interval = api.getInterval();
+            assertTrue(interval >= last);
+            assertTrue(interval <= 60000);
+            last = interval;
+        }
+        assertTrue(last > 55000);
+    }
+
+    @Test
+    public void testSpeedsUpOnChange() {
+        AdaptivePollInterval api = new AdaptivePollInterval(10000, 60000);
+        for (int i=0; i < 50; i++) {
+            api.onResponse(false);
+        }
+        long stable = api.getInterval();
+
+        // a single change should cut the interval substantially
+        api.onResponse(true);
+        assertTrue(api.getInterval() < stable / 2);
+
+        // a run of changes should bring it back close to the minimum
+        api.onResponse(true);
+        api.onResponse(true);
+        assertTrue(api.getInterval() < 11000);
+    }
+
+    @Test
+    public void testReset() {
+        AdaptivePollInterval api = new AdaptivePollInterval(10000, 60000);
+        for (int i=0; i < 50; i++) {
+            api.onResponse(false);
+        }
+        api.reset();
+        assertEquals(10000, api.getInterval());
+    }
+
+    @Test
+    public void testMaxIntervalNotBelowMin() {
+        AdaptivePollInterval api = new AdaptivePollInterval(10000, 5000);
+        assertEquals(10000, api.getMaxInterval());
+        api.onResponse(false);
+        assertEquals(10000, api.getInterval());
+    }
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.poll;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    @Test
+    public void testOpensAfterThreshold() {
+        CircuitBreaker cb = new CircuitBreaker(3, 1000, 8000);
+        assertTrue(cb.allowRequest(0));
+        assertFalse(cb.onFailure(0));
+        assertFalse(cb.onFailure(0));
+        assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+        assertTrue(cb.onFailure(100));
+        assertEquals(CircuitBreaker.State.OPEN, cb.getState());
+        assertEquals(1100, cb.getNextAttemptTime());
+        assertFalse(cb.allowRequest(1099));
+    }
+
+    @Test
+    public void testSuccessResetsFailureCount() {
+        CircuitBreaker cb = new CircuitBreaker(3, 1000, 8000);
+        cb.onFailure(0);
+        cb.onFailure(0);
+        cb.onSuccess();
+        assertEquals(0, cb.getConsecutiveFailures());
+        assertFalse(cb.onFailure(0));
+        assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+    }
+
+    @Test
+    public void testHalfOpenProbeAndBackoff() {
+        CircuitBreaker cb = new CircuitBreaker(1, 1000, 3000);
+        cb.onFailure(0);
+        assertTrue(cb.isOpen());
+
+        // after the backoff, a single probe is allowed
+        assertTrue(cb.allowRequest(1000));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, cb.getState());
+        assertFalse(cb.allowRequest(1000));
+
+        // a failed probe doubles the backoff
+        assertTrue(cb.onFailure(1000));
+        assertEquals(3000, cb.getNextAttemptTime());
+
+        // the backoff is capped at the maximum
+        assertTrue(cb.allowRequest(3000));
+        cb.onFailure(3000);
+        assertEquals(6000, cb.getNextAttemptTime());
+
+        // a successful probe closes the circuit
+        assertTrue(cb.allowRequest(6000));
+        cb.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+        assertTrue(cb.allowRequest(6000));
+    }
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.poll;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PollSpreadTest {
+    @Test
+    public void testPhaseIsStableAndBounded() {
+        DeviceContext ctx = DeviceContext.createLocal("plugin", "192-168-0-10");
+        long phase = PollSpread.getPhase(ctx, 10000);
+        assertTrue(phase >= 0 && phase < 10000);
+        assertEquals(phase, PollSpread.getPhase(DeviceContext.createLocal("plugin", "192-168-0-10"), 10000));
+        assertEquals(0, PollSpread.getPhase(ctx, 0));
+    }
+
+    @Test
+    public void testPhasesAreSpread() {
+        // sequential IP-based device IDs should land in most of the ten 1-second slots of a 10-second interval
+        boolean[] slots = new boolean[10];
+        for (int i=1; i <= 50; i++) {
+            slots[(int)(PollSpread.getPhase(DeviceContext.createLocal("plugin", "192-168-0-" + i), 10000) / 1000)] = true;
+        }
+        int used = 0;
+        for (boolean b : slots) {
+            if (b) {
+                used++;
+            }
+        }
+        assertTrue(used >= 8);
+    }
+
+    @Test
+    public void testJitterIsBounded() {
+        PollSpread spread = new PollSpread(0.1, new Random(1));
+        for (int i=0; i < 1000; i++) {
+            double jitter = spread.nextJitter();
+            assertTrue(jitter >= 0 && jitter < 0.1);
+            long interval = PollSpread.applyJitter(10000, jitter);
+            assertTrue(interval > 9000 && interval <= 10000);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxJitter() {
+        new PollSpread(1.0, new Random());
+    }
+}
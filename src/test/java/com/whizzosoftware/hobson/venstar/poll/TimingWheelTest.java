@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.poll;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+    @Test
+    public void testExpireOnlyDueItems() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 16);
+        List<String> expired = new ArrayList<>();
+
+        wheel.schedule("a", 1000);
+        wheel.schedule("b", 1500);
+        wheel.schedule("c", 2550);
+        assertEquals(3, wheel.size());
+
+        // nothing is due yet
+        assertEquals(0, wheel.expire(900, expired));
+        assertEquals(0, expired.size());
+
+        // only "a" is due
+        assertEquals(1, wheel.expire(1000, expired));
+        assertEquals("a", expired.get(0));
+        assertFalse(wheel.isScheduled("a"));
+        expired.clear();
+
+        // "b" is due
+        assertEquals(1, wheel.expire(1550, expired));
+        assertEquals("b", expired.get(0));
+        expired.clear();
+
+        // "c" is not due until the end of its tick
+        assertEquals(0, wheel.expire(2500, expired));
+        assertEquals(1, wheel.expire(2550, expired));
+        assertEquals("c", expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testDeadlineBeyondOneRotation() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 4);
+        List<String> expired = new ArrayList<>();
+
+        // a deadline several rotations out shares a bucket with earlier ticks but must not expire early
+        wheel.schedule("a", 2000);
+        assertEquals(0, wheel.expire(0, expired));
+        assertEquals(0, wheel.expire(400, expired));
+        assertEquals(0, wheel.expire(1200, expired));
+        assertEquals(0, wheel.expire(1999, expired));
+        assertEquals(1, wheel.expire(2000, expired));
+    }
+
+    @Test
+    public void testLargeGapBetweenExpires() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 8);
+        List<String> expired = new ArrayList<>();
+
+        wheel.expire(0, expired);
+        for (int i=0; i < 20; i++) {
+            wheel.schedule("item" + i, i * 150);
+        }
+
+        // jumping far ahead should expire everything in a single call
+        assertEquals(20, wheel.expire(100000, expired));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testScheduleInPast() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 8);
+        List<String> expired = new ArrayList<>();
+
+        wheel.expire(5000, expired);
+        wheel.schedule("a", 1000);
+        assertEquals(1, wheel.expire(5001, expired));
+    }
+
+    @Test
+    public void testReschedule() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 16);
+        List<String> expired = new ArrayList<>();
+
+        wheel.schedule("a", 1000);
+        wheel.schedule("a", 3000);
+        assertEquals(1, wheel.size());
+        assertEquals(3000, (long)wheel.getDeadline("a"));
+        assertEquals(0, wheel.expire(1000, expired));
+
+        wheel.schedule("a", 1200);
+        assertEquals(1, wheel.expire(1200, expired));
+    }
+
+    @Test
+    public void testCancel() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 16);
+        List<String> expired = new ArrayList<>();
+
+        wheel.schedule("a", 1000);
+        wheel.schedule("b", 1000);
+        assertTrue(wheel.cancel("a"));
+        assertFalse(wheel.cancel("a"));
+        assertNull(wheel.getDeadline("a"));
+        assertEquals(1, wheel.expire(1000, expired));
+        assertEquals("b", expired.get(0));
+    }
+
+    @Test
+    public void testClear() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 16);
+        List<String> expired = new ArrayList<>();
+
+        wheel.schedule("a", 1000);
+        wheel.schedule("b", 2000);
+        wheel.clear();
+        assertEquals(0, wheel.size());
+        assertFalse(wheel.isScheduled("a"));
+        assertEquals(0, wheel.expire(5000, expired));
+    }
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.shard;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ShardedExecutorTest {
+    @Test
+    public void testInline() throws Exception {
+        ShardedExecutor se = new ShardedExecutor(0, "test");
+        assertTrue(se.isInline());
+        final List<Thread> threads = new ArrayList<>();
+        se.execute("host", new Runnable() {
+            @Override
+            public void run() {
+                threads.add(Thread.currentThread());
+            }
+        });
+        assertEquals(1, threads.size());
+        assertSame(Thread.currentThread(), threads.get(0));
+        assertEquals(0, se.getShardIndex("host"));
+        assertTrue(se.drain(1000));
+    }
+
+    @Test
+    public void testPerKeyOrdering() throws Exception {
+        ShardedExecutor se = new ShardedExecutor(4, "test");
+        try {
+            final Map<String,List<Integer>> seen = new HashMap<>();
+            for (int h=0; h < 20; h++) {
+                seen.put("192.168.0." + h, Collections.synchronizedList(new ArrayList<Integer>()));
+            }
+            for (int i=0; i < 100; i++) {
+                for (final Map.Entry<String,List<Integer>> e : seen.entrySet()) {
+                    final int n = i;
+                    se.execute(e.getKey(), new Runnable() {
+                        @Override
+                        public void run() {
+                            e.getValue().add(n);
+                        }
+                    });
+                }
+            }
+            assertTrue(se.drain(5000));
+            for (List<Integer> l : seen.values()) {
+                assertEquals(100, l.size());
+                for (int i=0; i < 100; i++) {
+                    assertEquals(i, (int)l.get(i));
+                }
+            }
+        } finally {
+            se.close();
+        }
+    }
+
+    @Test
+    public void testKeysSpreadAcrossShards() {
+        ShardedExecutor se = new ShardedExecutor(4, "test");
+        try {
+            int[] counts = new int[4];
+            for (int h=0; h < 256; h++) {
+                String host = "192.168.1." + h;
+                int idx = se.getShardIndex(host);
+                assertEquals(idx, se.getShardIndex(host));
+                counts[idx]++;
+            }
+            for (int c : counts) {
+                assertTrue(c > 32);
+            }
+        } finally {
+            se.close();
+        }
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopShard() throws Exception {
+        ShardedExecutor se = new ShardedExecutor(1, "test");
+        try {
+            final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+            se.execute("a", new Runnable() {
+                @Override
+                public void run() {
+                    throw new RuntimeException("Expected");
+                }
+            });
+            se.execute("a", new Runnable() {
+                @Override
+                public void run() {
+                    ran.add(Thread.currentThread().getName());
+                }
+            });
+            assertTrue(se.drain(1000));
+            assertEquals(1, ran.size());
+            assertEquals("test 0", ran.get(0));
+        } finally {
+            se.close();
+        }
+    }
+}
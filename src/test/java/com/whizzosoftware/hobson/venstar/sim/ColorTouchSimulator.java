@@ -0,0 +1,466 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.sim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simulates a fleet of ColorTouch thermostats over real HTTP/1.1 on the loopback interface. Each simulated
+ * thermostat answers "/" (the root API info), "/query/info" and "/control" like the real device and has its own
+ * listening socket, either on its own port of 127.0.0.1 or on its own loopback address (so each thermostat has a
+ * distinct host, which is how the plugin identifies thermostats; this relies on the whole 127.0.0.0/8 block being
+ * routed to the loopback interface, as it is on Linux).
+ *
+ * Everything is served by a single selector thread. Response latency, jitter, the rate of HTTP 500 errors and
+ * dropped connections, the reported API version and the rate at which each thermostat's temperature drifts between
+ * requests can all be changed while the simulator is running.
+ */
+public class ColorTouchSimulator implements Closeable {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int HOSTS_PER_SUBNET = 250;
+
+    public enum Addressing {
+        /**
+         * Every thermostat listens on its own port of 127.0.0.1.
+         */
+        PORTS,
+        /**
+         * Every thermostat listens on its own loopback address (127.1.x.y).
+         */
+        VIRTUAL_HOSTS
+    }
+
+    private final Selector selector;
+    private final List<SimulatedThermostat> thermostats = new ArrayList<>();
+    private final List<ServerSocketChannel> serverChannels = new ArrayList<>();
+    private final PriorityQueue<ScheduledResponse> scheduled = new PriorityQueue<>();
+    private final Random random;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger errorCount = new AtomicInteger();
+    private final AtomicInteger dropCount = new AtomicInteger();
+    private Thread thread;
+    private volatile boolean closed;
+    private long sequence;
+
+    private volatile long latency;
+    private volatile long jitter;
+    private volatile double errorRate;
+    private volatile double dropRate;
+    private volatile double driftRate;
+    private volatile int apiVersion = 5;
+    private volatile String thermostatType = "residential";
+
+    public ColorTouchSimulator(int count, Addressing addressing) throws IOException {
+        this(count, addressing, System.nanoTime());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param count the number of thermostats to simulate
+     * @param addressing how the thermostats are addressed
+     * @param seed the seed for the simulator's random choices
+     *
+     * @throws IOException on failure
+     */
+    public ColorTouchSimulator(int count, Addressing addressing, long seed) throws IOException {
+        this.random = new Random(seed);
+        this.selector = Selector.open();
+        try {
+            for (int i=0; i < count; i++) {
+                String host = (addressing == Addressing.PORTS) ? "127.0.0.1" : "127.1." + (i / HOSTS_PER_SUBNET) + "." + (i % HOSTS_PER_SUBNET + 1);
+                ServerSocketChannel ssc = ServerSocketChannel.open();
+                serverChannels.add(ssc);
+                ssc.bind(new InetSocketAddress(InetAddress.getByName(host), 0), 128);
+                ssc.configureBlocking(false);
+                SimulatedThermostat t = new SimulatedThermostat(i);
+                t.setURI(URI.create("http://" + host + ":" + ((InetSocketAddress)ssc.getLocalAddress()).getPort()));
+                ssc.register(selector, SelectionKey.OP_ACCEPT, t);
+                thermostats.add(t);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve();
+                }
+            }, "ColorTouch Simulator");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public List<SimulatedThermostat> getThermostats() {
+        return Collections.unmodifiableList(thermostats);
+    }
+
+    public List<URI> getURIs() {
+        List<URI> uris = new ArrayList<>(thermostats.size());
+        for (SimulatedThermostat t : thermostats) {
+            uris.add(t.getURI());
+        }
+        return uris;
+    }
+
+    /**
+     * Sets the base time each response is delayed by.
+     *
+     * @param latency a time in milliseconds
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Sets the maximum random amount (in either direction) added to the latency of each response.
+     *
+     * @param jitter a time in milliseconds
+     */
+    public void setJitter(long jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * Sets the fraction of requests that are answered with an HTTP 500 error.
+     *
+     * @param errorRate a value between 0 and 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Sets the fraction of requests whose connection is closed without a response.
+     *
+     * @param dropRate a value between 0 and 1
+     */
+    public void setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+    }
+
+    /**
+     * Sets the probability that a thermostat's temperature changes before it answers an info request.
+     *
+     * @param driftRate a value between 0 and 1
+     */
+    public void setDriftRate(double driftRate) {
+        this.driftRate = driftRate;
+    }
+
+    public void setApiVersion(int apiVersion) {
+        this.apiVersion = apiVersion;
+    }
+
+    public void setThermostatType(String thermostatType) {
+        this.thermostatType = thermostatType;
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public int getErrorCount() {
+        return errorCount.get();
+    }
+
+    public int getDropCount() {
+        return dropCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the selector thread is stopped before the selector is closed underneath it
+        closed = true;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key.channel());
+        }
+        selector.close();
+        for (ServerSocketChannel ssc : serverChannels) {
+            ssc.close();
+        }
+    }
+
+    private void serve() {
+        try {
+            while (!closed) {
+                ScheduledResponse next = scheduled.peek();
+                if (next == null) {
+                    selector.select();
+                } else {
+                    long wait = next.due - System.currentTimeMillis();
+                    if (wait > 0) {
+                        selector.select(wait);
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(key);
+                        } else {
+                            if (key.isReadable()) {
+                                onReadable(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                flush((Connection)key.attachment());
+                            }
+                        }
+                    } catch (IOException e) {
+                        closeQuietly(key.channel());
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                while ((next = scheduled.peek()) != null && next.due <= now) {
+                    scheduled.poll();
+                    try {
+                        send(next);
+                    } catch (IOException e) {
+                        closeQuietly(next.connection.channel);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException ignored) {
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        ServerSocketChannel ssc = (ServerSocketChannel)key.channel();
+        SocketChannel sc;
+        while ((sc = ssc.accept()) != null) {
+            sc.configureBlocking(false);
+            Connection c = new Connection(sc, (SimulatedThermostat)key.attachment());
+            c.key = sc.register(selector, SelectionKey.OP_READ, c);
+            connectionCount.incrementAndGet();
+        }
+    }
+
+    private void onReadable(SelectionKey key) throws IOException {
+        Connection c = (Connection)key.attachment();
+        if (!c.in.hasRemaining()) {
+            ByteBuffer b = ByteBuffer.allocate(c.in.capacity() * 2);
+            c.in.flip();
+            b.put(c.in);
+            c.in = b;
+        }
+        if (c.channel.read(c.in) == -1) {
+            c.channel.close();
+            return;
+        }
+
+        // handle every complete request in the buffer
+        while (true) {
+            byte[] b = c.in.array();
+            int len = c.in.position();
+            int headEnd = indexOf(b, len);
+            if (headEnd < 0) {
+                break;
+            }
+            String head = new String(b, 0, headEnd, ASCII);
+            String lower = head.toLowerCase();
+            int contentLength = 0;
+            int cl = lower.indexOf("content-length:");
+            if (cl > -1) {
+                int eol = lower.indexOf("\r\n", cl);
+                contentLength = Integer.parseInt(lower.substring(cl + 15, (eol > -1) ? eol : lower.length()).trim());
+            }
+            int end = headEnd + 4 + contentLength;
+            if (len < end) {
+                break;
+            }
+            String body = new String(b, headEnd + 4, contentLength, ASCII);
+            c.in.flip();
+            c.in.position(end);
+            c.in.compact();
+
+            requestCount.incrementAndGet();
+            handle(c, head, lower.contains("connection: close"), body);
+            if (!c.channel.isOpen()) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Connection c, String head, boolean close, String body) throws IOException {
+        if (dropRate > 0 && random.nextDouble() < dropRate) {
+            dropCount.incrementAndGet();
+            c.channel.close();
+            return;
+        }
+
+        int status = 200;
+        String json;
+        String requestLine = head.substring(0, Math.max(0, head.indexOf("\r\n")));
+        String[] parts = requestLine.split(" ");
+        String method = parts[0];
+        String path = (parts.length > 1) ? parts[1] : "";
+
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            errorCount.incrementAndGet();
+            status = 500;
+            json = "{\"error\":true,\"reason\":\"Simulated failure\"}";
+        } else if ("/".equals(path)) {
+            json = "{\"api_ver\":" + apiVersion + ",\"type\":\"" + thermostatType + "\",\"model\":\"COLORTOUCH\",\"firmware\":\"5.10\"}";
+        } else if ("/query/info".equals(path)) {
+            c.thermostat.drift(random, driftRate);
+            json = c.thermostat.toInfoJson();
+        } else if ("/control".equals(path) && "POST".equals(method)) {
+            String reason = c.thermostat.applyControl(parseForm(body));
+            json = (reason == null) ? "{\"success\":true}" : "{\"error\":true,\"reason\":\"" + reason + "\"}";
+        } else {
+            status = 404;
+            json = "{\"error\":true,\"reason\":\"Not found\"}";
+        }
+
+        byte[] jb = json.getBytes(ASCII);
+        String responseHead = "HTTP/1.1 " + status + (status == 200 ? " OK" : status == 404 ? " Not Found" : " Internal Server Error") +
+            "\r\nContent-Type: application/json\r\nContent-Length: " + jb.length + (close ? "\r\nConnection: close" : "") + "\r\n\r\n";
+        byte[] hb = responseHead.getBytes(ASCII);
+        ByteBuffer response = ByteBuffer.allocate(hb.length + jb.length);
+        response.put(hb).put(jb).flip();
+
+        // responses on a connection are never reordered by jitter
+        long delay = latency + ((jitter > 0) ? (long)((random.nextDouble() * 2 - 1) * jitter) : 0);
+        long due = Math.max(c.lastDue, System.currentTimeMillis() + Math.max(0, delay));
+        c.lastDue = due;
+        scheduled.add(new ScheduledResponse(due, sequence++, c, response, close));
+    }
+
+    private void send(ScheduledResponse r) throws IOException {
+        Connection c = r.connection;
+        if (!c.channel.isOpen()) {
+            return;
+        }
+        c.out.add(r.data);
+        if (r.close) {
+            c.closeAfterWrite = true;
+        }
+        flush(c);
+    }
+
+    private void flush(Connection c) throws IOException {
+        while (!c.out.isEmpty()) {
+            ByteBuffer b = c.out.peek();
+            c.channel.write(b);
+            if (b.hasRemaining()) {
+                c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            c.out.poll();
+        }
+        c.key.interestOps(SelectionKey.OP_READ);
+        if (c.closeAfterWrite) {
+            c.channel.close();
+        }
+    }
+
+    private static Map<String,String> parseForm(String body) throws UnsupportedEncodingException {
+        Map<String,String> params = new HashMap<>();
+        for (String pair : body.split("&")) {
+            int ix = pair.indexOf('=');
+            if (ix > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, ix), "UTF-8"), URLDecoder.decode(pair.substring(ix + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static int indexOf(byte[] b, int len) {
+        for (int i=0; i + 3 < len; i++) {
+            if (b[i] == '\r' && b[i + 1] == '\n' && b[i + 2] == '\r' && b[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void closeQuietly(Channel c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static class Connection {
+        private final SocketChannel channel;
+        private final SimulatedThermostat thermostat;
+        private final Deque<ByteBuffer> out = new ArrayDeque<>();
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(1024);
+        private long lastDue;
+        private boolean closeAfterWrite;
+
+        Connection(SocketChannel channel, SimulatedThermostat thermostat) {
+            this.channel = channel;
+            this.thermostat = thermostat;
+        }
+    }
+
+    private static class ScheduledResponse implements Comparable<ScheduledResponse> {
+        private final long due;
+        private final long sequence;
+        private final Connection connection;
+        private final ByteBuffer data;
+        private final boolean close;
+
+        ScheduledResponse(long due, long sequence, Connection connection, ByteBuffer data, boolean close) {
+            this.due = due;
+            this.sequence = sequence;
+            this.connection = connection;
+            this.data = data;
+            this.close = close;
+        }
+
+        @Override
+        public int compareTo(ScheduledResponse o) {
+            if (due != o.due) {
+                return (due < o.due) ? -1 : 1;
+            }
+            return (sequence < o.sequence) ? -1 : (sequence > o.sequence ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.sim;
+
+import com.whizzosoftware.hobson.venstar.api.dto.*;
+import com.whizzosoftware.hobson.venstar.api.http.ColorTouchResponseListener;
+import com.whizzosoftware.hobson.venstar.api.http.NioColorTouchChannel;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ColorTouchSimulatorTest {
+    private ColorTouchSimulator simulator;
+    private RecordingListener listener;
+    private NioColorTouchChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new ColorTouchSimulator(4, ColorTouchSimulator.Addressing.PORTS, 1);
+        simulator.start();
+        listener = new RecordingListener();
+        channel = new NioColorTouchChannel(listener, 2, 30000, 5000);
+        channel.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channel.close();
+        simulator.close();
+    }
+
+    @Test
+    public void testRootInfoAndControl() throws Exception {
+        URI uri = simulator.getURIs().get(0);
+
+        channel.sendRootRequest(new RootRequest(uri));
+        RootResponse rr = new RootResponse(listener.next(200));
+        assertEquals(5, (int)rr.getApiVersion());
+        assertEquals("residential", rr.getThermostatType());
+
+        channel.sendInfoRequest(new InfoRequest(uri));
+        InfoResponse ir = new InfoResponse(listener.next(200));
+        assertEquals("Thermostat 0", ir.getName());
+        assertEquals(ThermostatMode.HEAT, ir.getMode());
+        assertEquals(72.0, ir.getSpaceTemp(), 0.0);
+
+        channel.sendControlRequest(new ControlRequest(uri, null, ThermostatMode.COOL, null, 68.0, 74.0, null, null));
+        assertFalse(new ControlResponse(listener.next(200)).isError());
+
+        channel.sendInfoRequest(new InfoRequest(uri));
+        ir = new InfoResponse(listener.next(200));
+        assertEquals(ThermostatMode.COOL, ir.getMode());
+        assertEquals(74.0, ir.getCoolTemp(), 0.0);
+        assertEquals(68.0, ir.getHeatTemp(), 0.0);
+
+        assertEquals(2, simulator.getThermostats().get(0).getInfoRequestCount());
+        assertEquals(1, simulator.getThermostats().get(0).getControlRequestCount());
+        assertEquals(4, simulator.getRequestCount());
+    }
+
+    @Test
+    public void testInvalidControlIsRejected() throws Exception {
+        // the request passes client-side validation with a stale delta but the thermostat requires 2 degrees
+        URI uri = simulator.getURIs().get(1);
+        channel.sendControlRequest(new ControlRequest(uri, null, ThermostatMode.AUTO, null, 75.0, 76.0, 1.0, null));
+        ControlResponse cr = new ControlResponse(listener.next(200));
+        assertTrue(cr.isError());
+        assertNotNull(cr.getErrorReason());
+        assertEquals(1, simulator.getThermostats().get(1).getMode());
+    }
+
+    @Test
+    public void testErrorRate() throws Exception {
+        simulator.setErrorRate(1.0);
+        channel.sendInfoRequest(new InfoRequest(simulator.getURIs().get(0)));
+        listener.next(500);
+        assertEquals(1, simulator.getErrorCount());
+    }
+
+    @Test
+    public void testDropRate() throws Exception {
+        simulator.setDropRate(1.0);
+        channel.sendInfoRequest(new InfoRequest(simulator.getURIs().get(0)));
+        assertNotNull(listener.failures.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, simulator.getDropCount());
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        simulator.setLatency(200);
+        long start = System.currentTimeMillis();
+        channel.sendInfoRequest(new InfoRequest(simulator.getURIs().get(0)));
+        listener.next(200);
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    @Test
+    public void testDrift() throws Exception {
+        simulator.setDriftRate(1.0);
+        SimulatedThermostat t = simulator.getThermostats().get(2);
+        channel.sendInfoRequest(new InfoRequest(t.getURI()));
+        InfoResponse ir = new InfoResponse(listener.next(200));
+        assertEquals(t.getSpaceTemp(), ir.getSpaceTemp(), 0.0);
+        assertTrue(ir.getSpaceTemp() != 72.0);
+    }
+
+    @Test
+    public void testPortAddressing() {
+        Set<Integer> ports = new HashSet<>();
+        for (URI uri : simulator.getURIs()) {
+            assertEquals("127.0.0.1", uri.getHost());
+            ports.add(uri.getPort());
+        }
+        assertEquals(4, ports.size());
+    }
+
+    @Test
+    public void testVirtualHostAddressing() throws Exception {
+        ColorTouchSimulator vh;
+        try {
+            vh = new ColorTouchSimulator(300, ColorTouchSimulator.Addressing.VIRTUAL_HOSTS, 1);
+        } catch (IOException e) {
+            // the platform doesn't route all of 127.0.0.0/8 to the loopback interface
+            Assume.assumeNoException(e);
+            return;
+        }
+        try {
+            vh.start();
+            Set<String> hosts = new HashSet<>();
+            for (URI uri : vh.getURIs()) {
+                hosts.add(uri.getHost());
+            }
+            assertEquals(300, hosts.size());
+            assertTrue(hosts.contains("127.1.1.50"));
+
+            URI uri = vh.getURIs().get(299);
+            channel.sendInfoRequest(new InfoRequest(uri));
+            assertEquals("Thermostat 299", new InfoResponse(listener.next(200)).getName());
+        } finally {
+            vh.close();
+        }
+    }
+
+    private static class RecordingListener implements ColorTouchResponseListener {
+        final BlockingQueue<Integer> statusCodes = new LinkedBlockingQueue<>();
+        final BlockingQueue<ByteBuffer> bodies = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> failures = new LinkedBlockingQueue<>();
+
+        /**
+         * Waits for the next response and returns a copy of its body.
+         */
+        ByteBuffer next(int expectedStatus) throws InterruptedException {
+            Integer status = statusCodes.poll(5, TimeUnit.SECONDS);
+            assertNotNull("No response received", status);
+            assertEquals(expectedStatus, (int)status);
+            return bodies.poll();
+        }
+
+        @Override
+        public void onResponse(Object context, int statusCode, ByteBuffer body) {
+            ByteBuffer copy = ByteBuffer.allocate(body.remaining());
+            copy.put(body).flip();
+            bodies.add(copy);
+            statusCodes.add(statusCode);
+        }
+
+        @Override
+        public void onFailure(Object context, Throwable cause) {
+            failures.add(cause);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.venstar.sim;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The state of a single thermostat served by a ColorTouchSimulator. The state is changed by control requests and
+ * (optionally) drifts on its own; all methods are synchronized so tests can inspect it while it is being served.
+ */
+public class SimulatedThermostat {
+    private static final double MIN_SPACE_TEMP = 50;
+    private static final double MAX_SPACE_TEMP = 90;
+
+    private final int index;
+    private URI uri;
+    private String name;
+    private int mode = 1;
+    private int fan;
+    private int tempUnits;
+    private double spaceTemp = 72;
+    private double heatTemp = 70;
+    private double coolTemp = 76;
+    private double setPointDelta = 2;
+    private int infoRequests;
+    private int controlRequests;
+
+    SimulatedThermostat(int index) {
+        this.index = index;
+        this.name = "Thermostat " + index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public synchronized URI getURI() {
+        return uri;
+    }
+
+    synchronized void setURI(URI uri) {
+        this.uri = uri;
+    }
+
+    public synchronized String getName() {
+        return name;
+    }
+
+    public synchronized int getMode() {
+        return mode;
+    }
+
+    public synchronized int getFan() {
+        return fan;
+    }
+
+    public synchronized double getSpaceTemp() {
+        return spaceTemp;
+    }
+
+    public synchronized void setSpaceTemp(double spaceTemp) {
+        this.spaceTemp = spaceTemp;
+    }
+
+    public synchronized double getHeatTemp() {
+        return heatTemp;
+    }
+
+    public synchronized double getCoolTemp() {
+        return coolTemp;
+    }
+
+    public synchronized int getInfoRequestCount() {
+        return infoRequests;
+    }
+
+    public synchronized int getControlRequestCount() {
+        return controlRequests;
+    }
+
+    /**
+     * Changes the space temperature by half a degree with the given probability.
+     *
+     * @param random the random source
+     * @param rate the probability of a change
+     */
+    synchronized void drift(Random random, double rate) {
+        if (rate > 0 && random.nextDouble() < rate) {
+            spaceTemp += random.nextBoolean() ? 0.5 : -0.5;
+            spaceTemp = Math.max(MIN_SPACE_TEMP, Math.min(MAX_SPACE_TEMP, spaceTemp));
+        }
+    }
+
+    synchronized String toInfoJson() {
+        infoRequests++;
+        return "{\"name\":\"" + name + "\",\"mode\":" + mode + ",\"state\":" + getRunningState() + ",\"fan\":" + fan +
+            ",\"fanstate\":" + (fan == 1 || getRunningState() > 0 ? 1 : 0) + ",\"tempunits\":" + tempUnits +
+            ",\"schedule\":0,\"schedulepart\":255,\"away\":0,\"holiday\":0,\"override\":0,\"overridetime\":0,\"forceunocc\":0" +
+            ",\"spacetemp\":" + format(spaceTemp) + ",\"heattemp\":" + format(heatTemp) + ",\"cooltemp\":" + format(coolTemp) +
+            ",\"cooltempmin\":35,\"cooltempmax\":99,\"heattempmin\":35,\"heattempmax\":99,\"setpointdelta\":" + format(setPointDelta) +
+            ",\"availablemodes\":0}";
+    }
+
+    /**
+     * Applies the parameters of a control request.
+     *
+     * @param params the form parameters
+     *
+     * @return null if the request was applied; otherwise the reason it was rejected
+     */
+    synchronized String applyControl(Map<String,String> params) {
+        controlRequests++;
+        try {
+            int newMode = params.containsKey("mode") ? Integer.parseInt(params.get("mode")) : mode;
+            int newFan = params.containsKey("fan") ? Integer.parseInt(params.get("fan")) : fan;
+            double newHeat = params.containsKey("heattemp") ? Double.parseDouble(params.get("heattemp")) : heatTemp;
+            double newCool = params.containsKey("cooltemp") ? Double.parseDouble(params.get("cooltemp")) : coolTemp;
+            if (newMode < 0 || newMode > 3) {
+                return "Invalid mode";
+            }
+            if (newFan < 0 || newFan > 1) {
+                return "Invalid fan mode";
+            }
+            if (newMode == 3 && newCool - newHeat < setPointDelta) {
+                return "cooltemp must be " + format(setPointDelta) + " degrees above heattemp";
+            }
+            mode = newMode;
+            fan = newFan;
+            heatTemp = newHeat;
+            coolTemp = newCool;
+            return null;
+        } catch (NumberFormatException e) {
+            return "Invalid parameter";
+        }
+    }
+
+    private int getRunningState() {
+        if ((mode == 1 || mode == 3) && spaceTemp < heatTemp) {
+            return 1;
+        } else if ((mode == 2 || mode == 3) && spaceTemp > coolTemp) {
+            return 2;
+        } else {
+            return 0;
+        }
+    }
+
+    private static String format(double d) {
+        return (d == Math.rint(d)) ? Long.toString((long)d) : Double.toString(d);
+    }
+}
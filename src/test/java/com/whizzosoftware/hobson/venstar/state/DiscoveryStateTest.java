@@ -11,6 +11,7 @@ import com.whizzosoftware.hobson.venstar.api.dto.*;
 import org.junit.Test;
 
 import java.net.URI;
+import java.util.ArrayList;
 
 import static org.junit.Assert.*;
 
@@ -87,6 +88,34 @@ public class DiscoveryStateTest {
         assertEquals(1, context.getCreatedThermostatCount());
     }
 
+    @Test
+    public void testRefreshDoesNotRepeatPendingDiscovery() throws Exception {
+        MockStateContext context = new MockStateContext();
+        DiscoveryState state = new DiscoveryState();
+
+        // the first address found gets a root request
+        context.addDiscoveredHost(new URI("http://192.168.0.10"));
+        state.onThermostatFound(context);
+        assertEquals(1, context.getRootRequests().size());
+
+        // finding a second address only sends a root request to it
+        context.addDiscoveredHost(new URI("http://192.168.0.11"));
+        state.onThermostatFound(context);
+        assertEquals(2, context.getRootRequests().size());
+
+        // once the first has moved on to an info request, it still isn't asked again
+        RootRequest rr = context.getRootRequests().iterator().next();
+        state.onRootResponse(context, rr, new RootResponse(5, "residential"), null);
+        assertEquals(1, context.getInfoRequests().size());
+        state.onRefresh(context, System.currentTimeMillis());
+        assertEquals(2, context.getRootRequests().size());
+
+        // a failed request is retried on the next refresh
+        state.onRootResponse(context, new ArrayList<>(context.getRootRequests()).get(1), null, new Exception());
+        state.onRefresh(context, System.currentTimeMillis());
+        assertEquals(3, context.getRootRequests().size());
+    }
+
     @Test
     public void testOneFoundAddressWithRootRequestFailureAndNoFoundThermostats() throws Exception {
         MockStateContext context = new MockStateContext();
@@ -9,6 +9,9 @@ package com.whizzosoftware.hobson.venstar.state;
 
 import com.whizzosoftware.hobson.api.device.DeviceContext;
 import com.whizzosoftware.hobson.venstar.ColorTouchThermostat;
+import com.whizzosoftware.hobson.venstar.api.LatencyTracker;
+import com.whizzosoftware.hobson.venstar.api.PendingRequest;
+import com.whizzosoftware.hobson.venstar.api.RequestHandle;
 import com.whizzosoftware.hobson.venstar.api.dto.ControlRequest;
 import com.whizzosoftware.hobson.venstar.api.dto.InfoRequest;
 import com.whizzosoftware.hobson.venstar.api.dto.InfoResponse;
@@ -80,14 +83,19 @@ public class MockStateContext implements StateContext {
         updateRequests.add(new VariableUpdateRequest(ctx, name, value));
     }
 
+    @Override
+    public void deliverInfoResponse(InfoRequest request, InfoResponse response, Throwable error) {
+    }
+
     @Override
     public ColorTouchThermostat getThermostatDevice(DeviceContext context) {
         return null;
     }
 
     @Override
-    public void sendRootRequest(RootRequest request) {
+    public RequestHandle sendRootRequest(RootRequest request) {
         rootRequests.add(request);
+        return new PendingRequest(request, LatencyTracker.DEFAULT_TIMEOUT, null);
     }
 
     public Collection<RootRequest> getRootRequests() {
@@ -95,8 +103,9 @@ public class MockStateContext implements StateContext {
     }
 
     @Override
-    public void sendInfoRequest(InfoRequest request) {
+    public RequestHandle sendInfoRequest(InfoRequest request) {
         infoRequests.add(request);
+        return new PendingRequest(request, LatencyTracker.DEFAULT_TIMEOUT, null);
     }
 
     public Collection<InfoRequest> getInfoRequests() {
@@ -104,8 +113,9 @@ public class MockStateContext implements StateContext {
     }
 
     @Override
-    public void sendControlRequest(ControlRequest request) {
+    public RequestHandle sendControlRequest(ControlRequest request) {
         controlRequests.add(request);
+        return new PendingRequest(request, LatencyTracker.DEFAULT_TIMEOUT, null);
     }
 
     public Collection<ControlRequest> getControlRequests() {
@@ -8,6 +8,7 @@
 package com.whizzosoftware.hobson.venstar.state;
 
 import com.whizzosoftware.hobson.api.variable.VariableConstants;
+import com.whizzosoftware.hobson.venstar.api.Tenths;
 import com.whizzosoftware.hobson.venstar.api.dto.FanMode;
 import com.whizzosoftware.hobson.venstar.api.dto.ThermostatMode;
 import org.junit.Test;
@@ -30,21 +31,21 @@ public class VariableStateTest {
 
         assertNull(state.getMode());
         state.setValue(VariableConstants.TSTAT_MODE, ThermostatMode.AUTO.toString());
-        assertEquals(ThermostatMode.AUTO.toString(), state.getMode());
+        assertEquals(ThermostatMode.AUTO, state.getMode());
 
         assertNull(state.getFanMode());
         state.setValue(VariableConstants.TSTAT_FAN_MODE, FanMode.AUTO.toString());
-        assertEquals(FanMode.AUTO.toString(), state.getFanMode());
+        assertEquals(FanMode.AUTO, state.getFanMode());
 
-        assertNull(state.getTempF());
+        assertFalse(state.hasTempF());
         state.setValue(VariableConstants.INDOOR_TEMP_F, 72.0);
         assertEquals(72.0, state.getTempF(), 0);
 
-        assertNull(state.getCoolTempF());
+        assertFalse(state.hasCoolTempF());
         state.setValue(VariableConstants.TARGET_COOL_TEMP_F, 74.0);
         assertEquals(74.0, state.getCoolTempF(), 0);
 
-        assertNull(state.getHeatTempF());
+        assertFalse(state.hasHeatTempF());
         state.setValue(VariableConstants.TARGET_HEAT_TEMP_F, 71.0);
         assertEquals(71.0, state.getHeatTempF(), 0);
     }
@@ -56,26 +57,151 @@ public class VariableStateTest {
         // two fully null states should be equal
         assertNull(state.getMode());
         assertNull(state.getFanMode());
-        assertNull(state.getTempF());
-        assertNull(state.getCoolTempF());
-        assertNull(state.getHeatTempF());
+        assertFalse(state.hasTempF());
+        assertFalse(state.hasCoolTempF());
+        assertFalse(state.hasHeatTempF());
         assertTrue(state.equals(new VariableState(null, null, null, null, null, null)));
 
         // one fully null state should be equal to a state with full values
-        assertTrue(state.equals(new VariableState(null, "AUTO", "AUTO", 70.0, 71.0, 72.0)));
+        assertTrue(state.equals(new VariableState(null, ThermostatMode.AUTO, FanMode.AUTO, 70.0, 71.0, 72.0)));
 
         // a state with only one populated value should be equal to a state with all values populated containing the same one value
-        state.setMode("COOL");
-        assertTrue(state.equals(new VariableState(null, "COOL", "AUTO", 70.0, 71.0, 72.0)));
+        state.setMode(ThermostatMode.COOL);
+        assertTrue(state.equals(new VariableState(null, ThermostatMode.COOL, FanMode.AUTO, 70.0, 71.0, 72.0)));
 
         // a state with only one populated value should not be equal to a state with all values populated and containing a different one value
-        assertFalse(state.equals(new VariableState(null, "AUTO", "AUTO", 70.0, 71.0, 72.0)));
+        assertFalse(state.equals(new VariableState(null, ThermostatMode.AUTO, FanMode.AUTO, 70.0, 71.0, 72.0)));
         assertFalse(new VariableState(null, null, null, null, null, 72.0).equals(new VariableState(null, null, null, null, null, 73.0)));
 
         // a state with all populated values should be equal to a state with the same populated values
-        assertTrue(new VariableState(null, "AUTO", "AUTO", 70.0, 71.0, 72.0).equals(new VariableState(null, "AUTO", "AUTO", 70.0, 71.0, 72.0)));
+        assertTrue(new VariableState(null, ThermostatMode.AUTO, FanMode.AUTO, 70.0, 71.0, 72.0).equals(new VariableState(null, ThermostatMode.AUTO, FanMode.AUTO, 70.0, 71.0, 72.0)));
 
         // a state with all populated values should not be equal to a state with different populated values
-        assertFalse(new VariableState(null, "COOL", "ON", 71.0, 72.0, 73.0).equals(new VariableState(null, "AUTO", "AUTO", 70.0, 71.0, 72.0)));
+        assertFalse(new VariableState(null, ThermostatMode.COOL, FanMode.ON, 71.0, 72.0, 73.0).equals(new VariableState(null, ThermostatMode.AUTO, FanMode.AUTO, 70.0, 71.0, 72.0)));
+    }
+
+    @Test
+    public void testSetValueWithEnumsAndStrings() {
+        VariableState state = new VariableState();
+        state.setValue(VariableConstants.TSTAT_MODE, ThermostatMode.HEAT);
+        assertEquals(ThermostatMode.HEAT, state.getMode());
+        state.setValue(VariableConstants.TSTAT_FAN_MODE, FanMode.ON);
+        assertEquals(FanMode.ON, state.getFanMode());
+        state.setValue(VariableConstants.TARGET_COOL_TEMP_F, "75.5");
+        assertEquals(75.5, state.getCoolTempF(), 0);
+        state.setValue(VariableConstants.TARGET_HEAT_TEMP_F, 68);
+        assertEquals(68.0, state.getHeatTempF(), 0);
+    }
+
+    @Test
+    public void testSetValueWithInvalidMode() {
+        VariableState state = new VariableState();
+        try {
+            state.setValue(VariableConstants.TSTAT_MODE, "WARM");
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException ignored) {}
+        assertFalse(state.hasMode());
+        assertFalse(state.hasValues());
+    }
+
+    @Test
+    public void testGetValue() {
+        VariableState state = new VariableState(true, ThermostatMode.COOL, FanMode.AUTO, 72.0, null, 68.0);
+        assertEquals(true, state.getValue(VariableConstants.ON));
+        assertEquals("COOL", state.getValue(VariableConstants.TSTAT_MODE));
+        assertEquals("AUTO", state.getValue(VariableConstants.TSTAT_FAN_MODE));
+        assertEquals(72.0, state.getValue(VariableConstants.INDOOR_TEMP_F));
+        assertNull(state.getValue(VariableConstants.TARGET_COOL_TEMP_F));
+        assertEquals(68.0, state.getValue(VariableConstants.TARGET_HEAT_TEMP_F));
+    }
+
+    @Test
+    public void testClearKeepsOn() {
+        VariableState state = new VariableState(true, ThermostatMode.COOL, FanMode.AUTO, 72.0, 74.0, 68.0);
+        state.clear();
+        assertFalse(state.hasValues());
+        assertNull(state.getMode());
+        assertFalse(state.hasTempF());
+        assertTrue(state.hasOn());
+        assertTrue(state.getOn());
+    }
+
+    @Test
+    public void testUpdateCopiesState() {
+        VariableState state = new VariableState(true, ThermostatMode.COOL, FanMode.AUTO, 72.0, 74.0, 68.0);
+        VariableState copy = new VariableState(false, null, FanMode.ON, null, null, 60.0);
+        copy.update(state);
+        assertTrue(copy.getOn());
+        assertEquals(ThermostatMode.COOL, copy.getMode());
+        assertEquals(FanMode.AUTO, copy.getFanMode());
+        assertEquals(72.0, copy.getTempF(), 0);
+        assertEquals(74.0, copy.getCoolTempF(), 0);
+        assertEquals(68.0, copy.getHeatTempF(), 0);
+    }
+
+    @Test
+    public void testDiff() {
+        VariableState state = new VariableState(true, ThermostatMode.COOL, FanMode.AUTO, 72.0, 74.0, 68.0);
+        assertEquals(0, state.diff(new VariableState(true, ThermostatMode.COOL, FanMode.AUTO, 72.0, 74.0, 68.0)));
+        assertEquals(VariableState.TEMP_F, state.diff(new VariableState(true, ThermostatMode.COOL, FanMode.AUTO, 72.5, 74.0, 68.0)));
+        assertEquals(VariableState.ON | VariableState.MODE | VariableState.HEAT_TEMP_F, state.diff(new VariableState(false, ThermostatMode.HEAT, FanMode.AUTO, 72.0, 74.0, 69.0)));
+
+        // a variable missing from either side is a change even if the stale value behind it matches
+        VariableState missing = new VariableState(true, ThermostatMode.COOL, FanMode.AUTO, 72.0, 74.0, 68.0);
+        missing.clear();
+        missing.setTempF(72.0);
+        assertEquals(VariableState.MODE | VariableState.FAN_MODE | VariableState.COOL_TEMP_F | VariableState.HEAT_TEMP_F, state.diff(missing));
+        assertEquals(VariableState.MODE | VariableState.FAN_MODE | VariableState.COOL_TEMP_F | VariableState.HEAT_TEMP_F, missing.diff(state));
+
+        // an empty state differs in everything
+        assertEquals((1 << VariableState.VARIABLE_COUNT) - 1, new VariableState().diff(new VariableState()));
+    }
+
+    @Test
+    public void testGetValueByIndex() {
+        VariableState state = new VariableState(true, ThermostatMode.COOL, FanMode.AUTO, 72.0, null, 68.0);
+        for (int i=0; i < VariableState.VARIABLE_COUNT; i++) {
+            assertEquals(state.getValue(VariableState.getVariableName(i)), state.getValue(i));
+        }
+        assertNull(state.getValue(4));
+    }
+
+    @Test
+    public void testTemperaturesAreComparedExactly() {
+        // a value set by a user and the same value parsed from a response compare equal regardless of how the
+        // floating point arithmetic that produced them rounded
+        VariableState state = new VariableState();
+        state.setValue(VariableConstants.TARGET_COOL_TEMP_F, 0.1 + 0.2 + 72.0);
+        state.setValue(VariableConstants.TARGET_HEAT_TEMP_F, "68.3");
+        VariableState response = new VariableState(null, null, null, null, 72.3, 68.3);
+        assertTrue(state.equals(response));
+        assertEquals(723, state.getCoolTempFTenths());
+        assertEquals(683, state.getHeatTempFTenths());
+        assertEquals(72.3, state.getValue(VariableConstants.TARGET_COOL_TEMP_F));
+
+        state.setCoolTempFTenths(Tenths.NONE);
+        assertFalse(state.hasCoolTempF());
+    }
+
+    @Test
+    public void testSetValueWithInvalidTemperature() {
+        VariableState state = new VariableState();
+        state.setValue(VariableConstants.TARGET_HEAT_TEMP_F, 68.0);
+        String[] invalid = {"NaN", "Infinity", "1e10"};
+        for (String value : invalid) {
+            try {
+                state.setValue(VariableConstants.TARGET_HEAT_TEMP_F, value);
+                fail("Should have thrown exception for " + value);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        try {
+            state.setValue(VariableConstants.TARGET_COOL_TEMP_F, Double.NaN);
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+        // the previous value is untouched
+        assertEquals(680, state.getHeatTempFTenths());
+        assertFalse(state.hasCoolTempF());
     }
 }